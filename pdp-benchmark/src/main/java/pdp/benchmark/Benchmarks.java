@@ -0,0 +1,20 @@
+package pdp.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/*
+ * Same as org.openjdk.jmh.Main - all the usual command line options are supported - but always with the gc profiler
+ */
+public class Benchmarks {
+
+  public static void main(String[] args) throws Exception {
+    new Runner(new OptionsBuilder()
+        .parent(new CommandLineOptions(args))
+        .addProfiler(GCProfiler.class)
+        .build()).run();
+  }
+
+}
@@ -0,0 +1,155 @@
+package pdp.benchmark;
+
+import org.apache.openaz.xacml.api.Request;
+import org.apache.openaz.xacml.api.Response;
+import org.apache.openaz.xacml.std.json.JSONRequest;
+import org.apache.openaz.xacml.std.json.JSONResponse;
+import org.apache.openaz.xacml.util.XACMLProperties;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.core.io.ClassPathResource;
+import pdp.domain.PdpPolicy;
+import pdp.repositories.PdpPolicyRepository;
+import pdp.sab.SabClientConfig;
+import pdp.teams.VootClientConfig;
+import pdp.xacml.DifferentialCheck;
+import pdp.xacml.JsonRequestReader;
+import pdp.xacml.OpenConextPDPEngine;
+import pdp.xacml.OpenConextPDPEngineFactory;
+import pdp.xacml.PdpPolicyDefinitionParser;
+import pdp.xacml.ResponseSerializer;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/*
+ * Measures the decision hot path without a database, servlet container or remote PIPs:
+ *
+ * - parseRequest: JSONRequest.load
+ * - decide: OpenConextPDPEngine.decide of an already parsed request
+ * - serializeResponse: JSONResponse.toString
+ * - decidePayload: all of the above, what PdpController#decide did before the compiled policies
+ *
+ * and the production path of PdpController#decide:
+ *
+ * - readRequest: JsonRequestReader.read of the payload bytes
+ * - decideCompiled: OpenConextPDPEngine.decide with the compiled policies, the teams scenario falls back to OpenAZ
+ * - serializeCompiledResponse and serializeCompactResponse: ResponseSerializer of the response of the compiled policies
+ * - decidePayloadCompiled: readRequest, decideCompiled and serializeCompiledResponse, apart from the stats and violations
+ *
+ * Run with the gc profiler - the default of Benchmarks#main - to see the allocation rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DecideBenchmark {
+
+  @Param({"10", "1000", "10000"})
+  public int policyCount;
+
+  @Param({"permit", "deny", "teams"})
+  public String scenario;
+
+  private OpenConextPDPEngine pdpEngine;
+  private OpenConextPDPEngine compiledPdpEngine;
+  private JsonRequestReader jsonRequestReader;
+  private String payload;
+  private byte[] payloadBytes;
+  private Request request;
+  private Response response;
+  private Response compiledResponse;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    configureXacmlProperties();
+
+    List<PdpPolicy> policies = new PolicyCorpus().policies(policyCount);
+    PdpPolicyRepository pdpPolicyRepository = mock(PdpPolicyRepository.class);
+    when(pdpPolicyRepository.findAll()).thenReturn(policies);
+
+    pdpEngine = new OpenConextPDPEngineFactory().newEngine(true, false, pdpPolicyRepository, new PdpPolicyDefinitionParser(),
+        new VootClientConfig().mockVootClient(), new SabClientConfig().mockSabClient("user", "password", "http://localhost"));
+    //no sampled differential check, the compiled decisions are not evaluated by OpenAZ again
+    compiledPdpEngine = new OpenConextPDPEngineFactory().newEngine(true, false, pdpPolicyRepository, new PdpPolicyDefinitionParser(),
+        new VootClientConfig().mockVootClient(), new SabClientConfig().mockSabClient("user", "password", "http://localhost"),
+        Optional.of(new DifferentialCheck(0)));
+    jsonRequestReader = new JsonRequestReader();
+
+    //the policy of the Service Provider in the middle of the corpus, policy 0 requires a team membership
+    int policy = "teams".equals(scenario) ? 0 : policyCount / 2 + 1;
+    payload = PolicyCorpus.request(policy, "deny".equals(scenario) ? "student" : "teacher");
+    payloadBytes = payload.getBytes(StandardCharsets.UTF_8);
+    request = JSONRequest.load(payload);
+    response = pdpEngine.decide(request);
+    compiledResponse = compiledPdpEngine.decide(request);
+  }
+
+  @Benchmark
+  public Request parseRequest() throws Exception {
+    return JSONRequest.load(payload);
+  }
+
+  @Benchmark
+  public Response decide() throws Exception {
+    return pdpEngine.decide(request);
+  }
+
+  @Benchmark
+  public String serializeResponse() throws Exception {
+    return JSONResponse.toString(response, false);
+  }
+
+  @Benchmark
+  public String decidePayload() throws Exception {
+    return JSONResponse.toString(pdpEngine.decide(JSONRequest.load(payload)), false);
+  }
+
+  @Benchmark
+  public Request readRequest() throws Exception {
+    return jsonRequestReader.read(payloadBytes).getRequest();
+  }
+
+  @Benchmark
+  public Response decideCompiled() throws Exception {
+    return compiledPdpEngine.decide(request);
+  }
+
+  @Benchmark
+  public byte[] serializeCompiledResponse() throws Exception {
+    return ResponseSerializer.json(compiledResponse, false);
+  }
+
+  @Benchmark
+  public byte[] serializeCompactResponse() throws Exception {
+    return ResponseSerializer.compactJson(compiledResponse);
+  }
+
+  @Benchmark
+  public byte[] decidePayloadCompiled() throws Exception {
+    return ResponseSerializer.json(compiledPdpEngine.decide(jsonRequestReader.read(payloadBytes).getRequest()), false);
+  }
+
+  /*
+   * XACMLProperties needs a file and in the benchmarks jar the properties are not on the file system
+   */
+  private void configureXacmlProperties() throws Exception {
+    File file = File.createTempFile("xacml.conext", ".properties");
+    file.deleteOnExit();
+    try (InputStream inputStream = new ClassPathResource("xacml.conext.properties").getInputStream()) {
+      Files.copy(inputStream, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+    System.setProperty(XACMLProperties.XACML_PROPERTIES_NAME, file.getAbsolutePath());
+    XACMLProperties.reloadProperties();
+  }
+}
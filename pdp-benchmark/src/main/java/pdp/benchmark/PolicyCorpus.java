@@ -0,0 +1,75 @@
+package pdp.benchmark;
+
+import pdp.domain.PdpAttribute;
+import pdp.domain.PdpPolicy;
+import pdp.domain.PdpPolicyDefinition;
+import pdp.policies.PolicyLoader;
+import pdp.teams.TeamsPIP;
+import pdp.xacml.PolicyTemplateEngine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static pdp.teams.VootClientConfig.URN_COLLAB_PERSON_EXAMPLE_COM_ADMIN;
+
+/*
+ * Generates policies like the ones created with the pdp-gui: one policy per Service Provider, every tenth policy
+ * requires a team membership and therefore needs the Teams PIP.
+ */
+public class PolicyCorpus {
+
+  public static final String IDENTITY_PROVIDER_ID = "https://idp.benchmark.org";
+
+  private final PolicyTemplateEngine templateEngine = new PolicyTemplateEngine();
+
+  public List<PdpPolicy> policies(int count) {
+    List<PdpPolicy> policies = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      PdpPolicyDefinition definition = definition(i);
+      PdpPolicy policy = new PdpPolicy(templateEngine.createPolicyXml(definition), definition.getName(), true,
+          PolicyLoader.userIdentifier, PolicyLoader.authenticatingAuthority, PolicyLoader.userDisplayName, true);
+      policy.setId((long) i);
+      policies.add(policy);
+    }
+    return policies;
+  }
+
+  public static String serviceProviderId(int i) {
+    return "https://sp" + i + ".benchmark.org";
+  }
+
+  public static boolean requiresTeams(int i) {
+    return i % 10 == 0;
+  }
+
+  /**
+   * A request for the Service Provider of the i-th policy
+   */
+  public static String request(int i, String affiliation) {
+    return "{\"Request\":{\"ReturnPolicyIdList\":true,\"CombinedDecision\":false," +
+        "\"AccessSubject\":{\"Attribute\":[" +
+        "{\"AttributeId\":\"urn:oasis:names:tc:SAML:1.1:nameid-format:unspecified\",\"Value\":\"" + URN_COLLAB_PERSON_EXAMPLE_COM_ADMIN + "\"}," +
+        "{\"AttributeId\":\"urn:mace:dir:attribute-def:eduPersonAffiliation\",\"Value\":\"" + affiliation + "\"}]}," +
+        "\"Resource\":{\"Attribute\":[" +
+        "{\"AttributeId\":\"SPentityID\",\"Value\":\"" + serviceProviderId(i) + "\"}," +
+        "{\"AttributeId\":\"IDPentityID\",\"Value\":\"" + IDENTITY_PROVIDER_ID + "\"}]}}}";
+  }
+
+  private PdpPolicyDefinition definition(int i) {
+    PdpPolicyDefinition definition = new PdpPolicyDefinition();
+    definition.setName("Benchmark_Policy_" + i);
+    definition.setDescription("Benchmark Policy " + i);
+    definition.setServiceProviderId(serviceProviderId(i));
+    definition.setIdentityProviderIds(Collections.singletonList(IDENTITY_PROVIDER_ID));
+    definition.setDenyAdvice("Not authorized");
+    definition.setDenyAdviceNl("Niet geautoriseerd");
+    definition.setAttributes(requiresTeams(i) ?
+        Collections.singletonList(new PdpAttribute(TeamsPIP.GROUP_URN, "urn:collab:group:avans.nl:HRemployees")) :
+        Arrays.asList(
+            new PdpAttribute("urn:mace:dir:attribute-def:eduPersonAffiliation", "teacher"),
+            new PdpAttribute("urn:mace:dir:attribute-def:eduPersonAffiliation", "staff")));
+    return definition;
+  }
+}
@@ -0,0 +1,63 @@
+package db.migration;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.flywaydb.core.api.migration.spring.SpringJdbcMigration;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.stream.Collectors.toList;
+
+/*
+ * Fills the idp_entity_id column added in V10 for the existing violations. The JSON requests can't be parsed in SQL, so
+ * we do it in batches ordered by id.
+ *
+ * Applied migrations must not change, so the JSON is read here and not with the code of the application.
+ */
+public class V11___violation_idp_entity_id_backfill implements SpringJdbcMigration {
+
+  private static final int BATCH_SIZE = 1000;
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  @Override
+  public void migrate(JdbcTemplate jdbcTemplate) throws Exception {
+    long lastId = 0;
+    while (true) {
+      List<Map<String, Object>> rows = jdbcTemplate.queryForList(
+          "SELECT id, json_request FROM pdp_policy_violations WHERE id > ? ORDER BY id LIMIT ?", lastId, BATCH_SIZE);
+      if (rows.isEmpty()) {
+        return;
+      }
+      List<Object[]> arguments = rows.stream()
+          .map(row -> new Object[]{identityProviderEntityId((String) row.get("json_request")), row.get("id")})
+          .collect(toList());
+      jdbcTemplate.batchUpdate("UPDATE pdp_policy_violations SET idp_entity_id = ? WHERE id = ?", arguments);
+      lastId = ((Number) rows.get(rows.size() - 1).get("id")).longValue();
+    }
+  }
+
+  private String identityProviderEntityId(String jsonRequest) {
+    if (jsonRequest == null) {
+      return null;
+    }
+    try {
+      JsonNode root = objectMapper.readTree(jsonRequest);
+      if (root == null) {
+        return null;
+      }
+      for (JsonNode attribute : root.path("Request").path("Resource").path("Attribute")) {
+        if ("IDPentityID".equals(attribute.path("AttributeId").asText())) {
+          JsonNode value = attribute.path("Value");
+          return (value.isArray() ? value.path(0) : value).asText(null);
+        }
+      }
+      return null;
+    } catch (IOException e) {
+      return null;
+    }
+  }
+}
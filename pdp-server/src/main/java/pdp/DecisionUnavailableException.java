@@ -0,0 +1,13 @@
+package pdp;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@SuppressWarnings("serial")
+@ResponseStatus(value = HttpStatus.SERVICE_UNAVAILABLE)
+public class DecisionUnavailableException extends RuntimeException {
+
+  public DecisionUnavailableException(String msg) {
+    super(msg);
+  }
+}
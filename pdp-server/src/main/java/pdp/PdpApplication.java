@@ -14,18 +14,35 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.ResourceLoader;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+import pdp.policies.PolicyDefinitionReadModel;
 import pdp.policies.PolicyLoader;
-import pdp.repositories.PdpDecisionRepository;
+import pdp.repositories.JsonStreamingRepository;
 import pdp.repositories.PdpPolicyRepository;
+import pdp.repositories.PdpPolicyViolationRepository;
 import pdp.sab.SabClient;
+import pdp.serviceregistry.ServiceRegistry;
+import pdp.stats.DecisionLogWriter;
+import pdp.stats.DecisionRollups;
+import pdp.stats.LatencyEndpoint;
+import pdp.stats.LatencyMetrics;
+import pdp.stats.PdpDecisionWriter;
+import pdp.stats.PolicyViolationWriter;
 import pdp.stats.StatsContextHolder;
 import pdp.teams.VootClient;
 import pdp.web.SessionAliveInterceptor;
+import pdp.xacml.DecisionCache;
+import pdp.xacml.DifferentialCheck;
 import pdp.xacml.PDPEngineHolder;
+import pdp.xacml.ParsedPolicyCache;
+import pdp.xacml.PdpPolicyDefinitionParser;
 
+import javax.sql.DataSource;
 import java.io.IOException;
+import java.util.Optional;
 
 @SpringBootApplication(exclude = {ManagementWebSecurityAutoConfiguration.class, SecurityAutoConfiguration.class, TraceWebFilterAutoConfiguration.class, MetricFilterAutoConfiguration.class})
 public class PdpApplication {
@@ -37,19 +54,109 @@ public class PdpApplication {
     SpringApplication.run(PdpApplication.class, args);
   }
 
+  @Bean
+  public PdpDecisionWriter pdpDecisionWriter(@Value("${stats.decisions.queue.capacity}") int queueCapacity,
+                                             @Value("${stats.decisions.batch.size}") int batchSize,
+                                             @Value("${stats.decisions.offer.timeout.ms}") long offerTimeoutMs,
+                                             @Value("${stats.decisions.flush.interval.ms}") long flushIntervalMs,
+                                             JdbcTemplate jdbcTemplate) {
+    return new PdpDecisionWriter(jdbcTemplate, queueCapacity, batchSize, offerTimeoutMs, flushIntervalMs);
+  }
+
+  @Bean
+  public DecisionLogWriter decisionLogWriter(@Value("${stats.decisions.log.queue.capacity}") int queueCapacity,
+                                             @Value("${stats.decisions.log.batch.size}") int batchSize,
+                                             @Value("${stats.decisions.log.offer.timeout.ms}") long offerTimeoutMs,
+                                             @Value("${stats.decisions.log.flush.interval.ms}") long flushIntervalMs,
+                                             JdbcTemplate jdbcTemplate) {
+    return new DecisionLogWriter(jdbcTemplate, queueCapacity, batchSize, offerTimeoutMs, flushIntervalMs);
+  }
+
+  @Bean
+  public DecisionRollups decisionRollups(@Value("${stats.decisions.log.retention.days}") int retentionDays,
+                                         @Value("${stats.decisions.rollup.trailing.minutes}") int trailingMinutes,
+                                         @Value("${pdpCronJobResponsible}") boolean pdpCronJobResponsible,
+                                         JdbcTemplate jdbcTemplate,
+                                         PlatformTransactionManager transactionManager) {
+    return new DecisionRollups(jdbcTemplate, transactionManager, retentionDays, trailingMinutes, pdpCronJobResponsible);
+  }
+
+  @Bean
+  @Autowired
+  public PolicyViolationWriter policyViolationWriter(@Value("${policy.violation.queue.capacity}") int queueCapacity,
+                                                     @Value("${policy.violation.batch.size}") int batchSize,
+                                                     @Value("${policy.violation.offer.timeout.ms}") long offerTimeoutMs,
+                                                     @Value("${policy.violation.flush.interval.ms}") long flushIntervalMs,
+                                                     @Value("${policy.violation.collapse.duplicates}") boolean collapseDuplicates,
+                                                     JdbcTemplate jdbcTemplate) {
+    return new PolicyViolationWriter(jdbcTemplate, queueCapacity, batchSize, offerTimeoutMs, flushIntervalMs, collapseDuplicates);
+  }
+
+  @Bean
+  @Autowired
+  public StatsContextHolder statsContextHolder(PdpDecisionWriter pdpDecisionWriter, DecisionLogWriter decisionLogWriter,
+                                               LatencyMetrics latencyMetrics) {
+    return new StatsContextHolder(pdpDecisionWriter, decisionLogWriter, latencyMetrics);
+  }
+
+  @Bean
+  public LatencyMetrics latencyMetrics(@Value("${stats.latency.interval.seconds}") long intervalSeconds) {
+    return new LatencyMetrics(intervalSeconds);
+  }
+
+  @Bean
+  public LatencyEndpoint latencyEndpoint(LatencyMetrics latencyMetrics) {
+    return new LatencyEndpoint(latencyMetrics);
+  }
+
   @Bean
   @Autowired
-  public StatsContextHolder statsContextHolder(PdpDecisionRepository decisionRepository) {
-    return new StatsContextHolder("decide/policy", decisionRepository);
+  public JsonStreamingRepository jsonStreamingRepository(DataSource dataSource) {
+    return new JsonStreamingRepository(dataSource);
+  }
+
+  @Bean
+  public ParsedPolicyCache parsedPolicyCache(@Value("${policies.parsed.cache.maximum.size}") long maximumSize) {
+    return new ParsedPolicyCache(maximumSize);
+  }
+
+  @Bean
+  public DifferentialCheck differentialCheck(@Value("${policies.compiled.differential.check.rate}") double sampleRate) {
+    return new DifferentialCheck(sampleRate);
+  }
+
+  @Bean
+  public DecisionCache decisionCache(@Value("${decisions.cache.enabled}") boolean enabled,
+                                     @Value("${decisions.cache.timeToLiveSeconds}") long timeToLiveSeconds,
+                                     @Value("${decisions.cache.maximumSize}") long maximumSize) {
+    return new DecisionCache(enabled, timeToLiveSeconds, maximumSize);
+  }
+
+  @Bean
+  public PdpPolicyDefinitionParser pdpPolicyDefinitionParser(ParsedPolicyCache parsedPolicyCache) {
+    return new PdpPolicyDefinitionParser(parsedPolicyCache);
+  }
+
+  @Bean
+  public PolicyDefinitionReadModel policyDefinitionReadModel(@Value("${policy.violation.counts.timeToLiveSeconds}") long violationCountsTimeToLiveSeconds,
+                                                             PdpPolicyRepository pdpPolicyRepository,
+                                                             PdpPolicyViolationRepository pdpPolicyViolationRepository,
+                                                             PdpPolicyDefinitionParser pdpPolicyDefinitionParser,
+                                                             ServiceRegistry serviceRegistry) {
+    return new PolicyDefinitionReadModel(pdpPolicyRepository, pdpPolicyViolationRepository, pdpPolicyDefinitionParser,
+        serviceRegistry, violationCountsTimeToLiveSeconds);
   }
 
   @Bean
   public PDPEngineHolder pdpEngine(
       @Value("${xacml.properties.path}") final String xacmlPropertiesFileLocation,
       final PdpPolicyRepository pdpPolicyRepository,
+      final PdpPolicyDefinitionParser pdpPolicyDefinitionParser,
       final VootClient vootClient,
       final SabClient sabClient,
-      final PolicyLoader policyLoader
+      final PolicyLoader policyLoader,
+      final DifferentialCheck differentialCheck,
+      @Value("${policies.compiled.enabled}") final boolean compiledPolicies
   ) throws IOException, FactoryException {
     Resource resource = resourceLoader.getResource(xacmlPropertiesFileLocation);
     String absolutePath = resource.getFile().getAbsolutePath();
@@ -59,7 +166,8 @@ public class PdpApplication {
 
     policyLoader.loadPolicies();
 
-    return new PDPEngineHolder(pdpPolicyRepository, vootClient, sabClient);
+    return new PDPEngineHolder(pdpPolicyRepository, pdpPolicyDefinitionParser, vootClient, sabClient,
+        compiledPolicies ? Optional.of(differentialCheck) : Optional.empty());
   }
 
   @Configuration
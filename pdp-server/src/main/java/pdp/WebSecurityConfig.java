@@ -111,7 +111,7 @@ public class WebSecurityConfig {
               BasicAuthenticationFilter.class
           )
           .authorizeRequests()
-          .antMatchers("/protected/**", "/decide/policy")
+          .antMatchers("/protected/**", "/decide/policy", "/decide/policies")
           .hasAnyRole("PEP", "ADMIN");
     }
 
@@ -9,6 +9,7 @@ import pdp.serviceregistry.ServiceRegistry;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Optional;
 import java.util.Set;
 
 import static java.util.stream.Collectors.toList;
@@ -161,10 +162,24 @@ public class PolicyIdpAccessEnforcer implements JsonMapper {
     return stream(violations.spliterator(), false).filter(violation -> maySeeViolation(violation, idpsOfUserEntityIds)).collect(toList());
   }
 
+  /**
+   * Returns the IdPs of the violations the logged in FederatedUser may see or empty if the user may see all violations
+   */
+  public Optional<Set<String>> violationsIdentityProviders() {
+    FederatedUser user = federatedUser();
+    if (!user.isPolicyIdpAccessEnforcementRequired()) {
+      return Optional.empty();
+    }
+    return Optional.of(getEntityIds(user.getIdpEntities()));
+  }
+
   /**
    * Only PdpPolicyViolation are returned where the Idp of the violation is owned by the user
    */
   private boolean maySeeViolation(PdpPolicyViolation violation, Set<String> idpsOfUserEntityIds) {
+    if (violation.getIdpEntityId() != null) {
+      return idpsOfUserEntityIds.contains(violation.getIdpEntityId());
+    }
     JsonPolicyRequest jsonPolicyRequest;
     try {
       //we are called from lambda
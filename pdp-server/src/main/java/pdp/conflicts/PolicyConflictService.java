@@ -3,44 +3,71 @@ package pdp.conflicts;
 import org.springframework.util.CollectionUtils;
 import pdp.domain.PdpPolicyDefinition;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import static java.util.Arrays.asList;
 import static java.util.stream.Collectors.groupingBy;
-import static java.util.stream.IntStream.range;
 
+/*
+ * Thread-safe
+ *
+ * Two policies conflict if they have the same SP and overlapping IdP's or if one of them has no IdP's. Policies can only
+ * conflict with policies of the same SP, so we group by SP and only compare the policies within a group.
+ */
 public class PolicyConflictService {
 
   public Map<String, List<PdpPolicyDefinition>> conflicts(List<PdpPolicyDefinition> policies) {
     Set<PdpPolicyDefinition> conflicts = new HashSet<>();
-    //we check each policy with every other policy, so we need an outer and inner loop
-    range(0, policies.size()).forEach(i -> range(i + 1, policies.size()).forEach(j -> {
-      PdpPolicyDefinition one = policies.get(i);
-      PdpPolicyDefinition two = policies.get(j);
-      if (conflict(one, two)) {
-        conflicts.addAll(asList(one, two));
-      }
-    }));
+    policies.stream()
+        .collect(groupingBy(PdpPolicyDefinition::getServiceProviderId))
+        .values()
+        .forEach(policiesOfServiceProvider -> conflicts.addAll(conflicting(policiesOfServiceProvider)));
     return conflicts.stream()
             .filter(conflict -> !conflict.isServiceProviderInvalidOrMissing())
             .collect(groupingBy(PdpPolicyDefinition::getServiceProviderName));
 
   }
 
-  //if the two SP's are equal and there are overlapping IdP's or one policy has no IdP then there is a conflict
-  private boolean conflict(PdpPolicyDefinition one, PdpPolicyDefinition two) {
-    return one.getServiceProviderId().equals(two.getServiceProviderId()) &&
-        (CollectionUtils.isEmpty(one.getIdentityProviderIds()) ||
-            CollectionUtils.isEmpty(two.getIdentityProviderIds()) ||
-            overlapping(one.getIdentityProviderIds(), two.getIdentityProviderIds()));
+  /**
+   * Returns true if the policy conflicts with one of the other policies. Only the policies of the same SP are
+   * considered and the policy itself - the one with the same (unique) name - is ignored.
+   */
+  public boolean conflicts(PdpPolicyDefinition policy, List<PdpPolicyDefinition> policies) {
+    Set<String> identityProviderIds = identityProviderIds(policy);
+    return policies.stream()
+        .filter(other -> policy.getServiceProviderId().equals(other.getServiceProviderId()))
+        .filter(other -> !other.getName().equals(policy.getName()))
+        .anyMatch(other -> identityProviderIds.isEmpty() || CollectionUtils.isEmpty(other.getIdentityProviderIds()) ||
+            other.getIdentityProviderIds().stream().anyMatch(identityProviderIds::contains));
   }
 
-  private boolean overlapping(List<String> idps, List<String> otherIdps) {
-    return otherIdps.stream().map(idp -> idps.stream().anyMatch(s -> s.equals(idp))).anyMatch(b -> b);
+  //all policies have the same SP, so a policy conflicts if it shares an IdP with another policy or if one policy has no IdP
+  private Collection<PdpPolicyDefinition> conflicting(List<PdpPolicyDefinition> policies) {
+    if (policies.size() < 2) {
+      return Collections.emptyList();
+    }
+    if (policies.stream().anyMatch(policy -> CollectionUtils.isEmpty(policy.getIdentityProviderIds()))) {
+      return policies;
+    }
+    Map<String, List<PdpPolicyDefinition>> policiesByIdentityProvider = new HashMap<>();
+    policies.forEach(policy -> identityProviderIds(policy).forEach(idp ->
+        policiesByIdentityProvider.computeIfAbsent(idp, key -> new ArrayList<>()).add(policy)));
+
+    Set<PdpPolicyDefinition> conflicts = new HashSet<>();
+    policiesByIdentityProvider.values().stream()
+        .filter(policiesOfIdentityProvider -> policiesOfIdentityProvider.size() > 1)
+        .forEach(conflicts::addAll);
+    return conflicts;
   }
 
+  private Set<String> identityProviderIds(PdpPolicyDefinition policy) {
+    return CollectionUtils.isEmpty(policy.getIdentityProviderIds()) ? Collections.emptySet() : new HashSet<>(policy.getIdentityProviderIds());
+  }
 
 }
@@ -1,6 +1,7 @@
 package pdp.domain;
 
 import java.io.Serializable;
+import java.util.Objects;
 import java.util.Set;
 
 import static java.util.Arrays.stream;
@@ -62,5 +63,20 @@ public class EntityMetaData implements Serializable {
     return allowedAll || stream(entityIds).anyMatch(entityId -> allowedEntityIds.contains(entityId));
   }
 
+  /**
+   * Not equals as allowedAll is mutable and EntityMetaData is used in HashSets
+   */
+  public boolean hasSameMetaData(EntityMetaData other) {
+    return Objects.equals(entityId, other.entityId)
+        && Objects.equals(institutionId, other.institutionId)
+        && Objects.equals(descriptionEn, other.descriptionEn)
+        && Objects.equals(nameEn, other.nameEn)
+        && Objects.equals(descriptionNl, other.descriptionNl)
+        && Objects.equals(nameNl, other.nameNl)
+        && policyEnforcementDecisionRequired == other.policyEnforcementDecisionRequired
+        && allowedAll == other.allowedAll
+        && Objects.equals(allowedEntityIds, other.allowedEntityIds);
+  }
+
 
 }
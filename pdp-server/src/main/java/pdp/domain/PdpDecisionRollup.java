@@ -0,0 +1,129 @@
+package pdp.domain;
+
+import java.sql.Timestamp;
+import java.util.Map;
+
+/*
+ * The decisions of one SP, IdP and decision within one minute or hour. The latency histogram maps the upper bound in ms
+ * of each bucket to the number of decisions in the bucket.
+ */
+public class PdpDecisionRollup {
+
+  private String granularity;
+  private Timestamp periodStart;
+  private String serviceProvider;
+  private String identityProvider;
+  private String decision;
+  private long decisions;
+  private long responseTimeTotalMs;
+  private long responseTimeMaxMs;
+  private Map<String, Long> latencyHistogram;
+  private long teamsPipCalls;
+  private long teamsPipTotalMs;
+  private long sabPipCalls;
+  private long sabPipTotalMs;
+
+  public String getGranularity() {
+    return granularity;
+  }
+
+  public void setGranularity(String granularity) {
+    this.granularity = granularity;
+  }
+
+  public Timestamp getPeriodStart() {
+    return periodStart;
+  }
+
+  public void setPeriodStart(Timestamp periodStart) {
+    this.periodStart = periodStart;
+  }
+
+  public String getServiceProvider() {
+    return serviceProvider;
+  }
+
+  public void setServiceProvider(String serviceProvider) {
+    this.serviceProvider = serviceProvider;
+  }
+
+  public String getIdentityProvider() {
+    return identityProvider;
+  }
+
+  public void setIdentityProvider(String identityProvider) {
+    this.identityProvider = identityProvider;
+  }
+
+  public String getDecision() {
+    return decision;
+  }
+
+  public void setDecision(String decision) {
+    this.decision = decision;
+  }
+
+  public long getDecisions() {
+    return decisions;
+  }
+
+  public void setDecisions(long decisions) {
+    this.decisions = decisions;
+  }
+
+  public long getResponseTimeTotalMs() {
+    return responseTimeTotalMs;
+  }
+
+  public void setResponseTimeTotalMs(long responseTimeTotalMs) {
+    this.responseTimeTotalMs = responseTimeTotalMs;
+  }
+
+  public long getResponseTimeMaxMs() {
+    return responseTimeMaxMs;
+  }
+
+  public void setResponseTimeMaxMs(long responseTimeMaxMs) {
+    this.responseTimeMaxMs = responseTimeMaxMs;
+  }
+
+  public Map<String, Long> getLatencyHistogram() {
+    return latencyHistogram;
+  }
+
+  public void setLatencyHistogram(Map<String, Long> latencyHistogram) {
+    this.latencyHistogram = latencyHistogram;
+  }
+
+  public long getTeamsPipCalls() {
+    return teamsPipCalls;
+  }
+
+  public void setTeamsPipCalls(long teamsPipCalls) {
+    this.teamsPipCalls = teamsPipCalls;
+  }
+
+  public long getTeamsPipTotalMs() {
+    return teamsPipTotalMs;
+  }
+
+  public void setTeamsPipTotalMs(long teamsPipTotalMs) {
+    this.teamsPipTotalMs = teamsPipTotalMs;
+  }
+
+  public long getSabPipCalls() {
+    return sabPipCalls;
+  }
+
+  public void setSabPipCalls(long sabPipCalls) {
+    this.sabPipCalls = sabPipCalls;
+  }
+
+  public long getSabPipTotalMs() {
+    return sabPipTotalMs;
+  }
+
+  public void setSabPipTotalMs(long sabPipTotalMs) {
+    this.sabPipTotalMs = sabPipTotalMs;
+  }
+}
@@ -65,6 +65,37 @@ public class PdpPolicyDefinition {
 
   private boolean actionsAllowed;
 
+  public PdpPolicyDefinition() {
+  }
+
+  /*
+   * Shallow copy, the lists are shared with the original
+   */
+  public PdpPolicyDefinition(PdpPolicyDefinition original) {
+    this.id = original.id;
+    this.name = original.name;
+    this.description = original.description;
+    this.serviceProviderId = original.serviceProviderId;
+    this.serviceProviderName = original.serviceProviderName;
+    this.serviceProviderInvalidOrMissing = original.serviceProviderInvalidOrMissing;
+    this.identityProviderIds = original.identityProviderIds;
+    this.identityProviderNames = original.identityProviderNames;
+    this.attributes = original.attributes;
+    this.denyAdvice = original.denyAdvice;
+    this.denyRule = original.denyRule;
+    this.allAttributesMustMatch = original.allAttributesMustMatch;
+    this.created = original.created;
+    this.userDisplayName = original.userDisplayName;
+    this.authenticatingAuthorityName = original.authenticatingAuthorityName;
+    this.numberOfViolations = original.numberOfViolations;
+    this.numberOfRevisions = original.numberOfRevisions;
+    this.denyAdviceNl = original.denyAdviceNl;
+    this.revisionNbr = original.revisionNbr;
+    this.isActivatedSr = original.isActivatedSr;
+    this.active = original.active;
+    this.actionsAllowed = original.actionsAllowed;
+  }
+
   public Long getId() {
     return id;
   }
@@ -29,6 +29,14 @@ public class PdpPolicyViolation {
   @Column
   private boolean isPlayground;
 
+  //identical violations within one write window are stored as one row
+  @Column
+  private int occurrences = 1;
+
+  //denormalized from the jsonRequest by the PolicyViolationWriter, so violations can be filtered on the IdP in the database
+  @Column
+  private String idpEntityId;
+
   public PdpPolicyViolation() {
   }
 
@@ -88,6 +96,22 @@ public class PdpPolicyViolation {
     isPlayground = playground;
   }
 
+  public int getOccurrences() {
+    return occurrences;
+  }
+
+  public void setOccurrences(int occurrences) {
+    this.occurrences = occurrences;
+  }
+
+  public String getIdpEntityId() {
+    return idpEntityId;
+  }
+
+  public void setIdpEntityId(String idpEntityId) {
+    this.idpEntityId = idpEntityId;
+  }
+
   public String getPolicyName() {
     return policy.getName();
   }
@@ -0,0 +1,263 @@
+package pdp.policies;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import pdp.domain.EntityMetaData;
+import pdp.domain.PdpPolicy;
+import pdp.domain.PdpPolicyDefinition;
+import pdp.repositories.PdpPolicyRepository;
+import pdp.repositories.PdpPolicyViolationRepository;
+import pdp.serviceregistry.ServiceRegistry;
+import pdp.xacml.PdpPolicyDefinitionParser;
+
+import java.util.*;
+
+import static java.util.Collections.unmodifiableList;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toMap;
+
+/*
+ * Thread-safe
+ *
+ * The latest revisions of all policies as PdpPolicyDefinitions - parsed and enriched with the SR metadata - indexed by SP
+ * and IdP, so the admin GUI does not need to load, parse and enrich all policies for every request.
+ *
+ * Every change in the GUI is a new revision, but a row can also be updated in place, e.g. deactivated by the
+ * PolicyMissingServiceProviderValidator. The model is updated on save and delete and a refresh only loads and parses the
+ * rows that are new or have another revision number or active flag, e.g. saved by another node. The SR metadata is applied again when the SR has
+ * refreshed. The number of violations changes with every decision and is counted at most once every
+ * violationCountsTimeToLiveSeconds.
+ *
+ * The PdpPolicyDefinitions returned are shared and must not be changed, copy them first.
+ */
+public class PolicyDefinitionReadModel {
+
+  private static final Logger LOG = LoggerFactory.getLogger(PolicyDefinitionReadModel.class);
+
+  private final PdpPolicyRepository pdpPolicyRepository;
+  private final PdpPolicyViolationRepository pdpPolicyViolationRepository;
+  private final PdpPolicyDefinitionParser pdpPolicyDefinitionParser;
+  private final ServiceRegistry serviceRegistry;
+  private final long violationCountsTimeToLiveMs;
+
+  //null until first used
+  private volatile Snapshot snapshot;
+  private volatile ViolationCounts violationCounts = new ViolationCounts(Collections.emptyMap(), 0);
+
+  public PolicyDefinitionReadModel(PdpPolicyRepository pdpPolicyRepository,
+                                   PdpPolicyViolationRepository pdpPolicyViolationRepository,
+                                   PdpPolicyDefinitionParser pdpPolicyDefinitionParser,
+                                   ServiceRegistry serviceRegistry,
+                                   long violationCountsTimeToLiveSeconds) {
+    this.pdpPolicyRepository = pdpPolicyRepository;
+    this.pdpPolicyViolationRepository = pdpPolicyViolationRepository;
+    this.pdpPolicyDefinitionParser = pdpPolicyDefinitionParser;
+    this.serviceRegistry = serviceRegistry;
+    this.violationCountsTimeToLiveMs = violationCountsTimeToLiveSeconds * 1000;
+  }
+
+  /**
+   * The policies with a known SP ordered by id, optionally only the ones of the SP and / or the ones that explicitly
+   * have the IdP
+   */
+  public List<PdpPolicyDefinition> find(String serviceProviderId, String identityProviderId) {
+    Snapshot current = snapshot();
+    List<PdpPolicyDefinition> policies = serviceProviderId != null ? current.byServiceProvider(serviceProviderId) :
+        identityProviderId != null ? current.byIdentityProvider(identityProviderId) : current.policies;
+    return policies.stream()
+        .filter(policy -> !policy.isServiceProviderInvalidOrMissing())
+        .filter(policy -> identityProviderId == null || policy.getIdentityProviderIds().contains(identityProviderId))
+        .collect(toList());
+  }
+
+  /**
+   * All policies ordered by id, including the ones with an unknown SP
+   */
+  public List<PdpPolicyDefinition> all() {
+    return snapshot().policies;
+  }
+
+  /**
+   * All policies of the SP ordered by id, including the ones with an unknown SP
+   */
+  public List<PdpPolicyDefinition> byServiceProvider(String serviceProviderId) {
+    return snapshot().byServiceProvider(serviceProviderId);
+  }
+
+  public Optional<PdpPolicy> policy(Long id) {
+    Entry entry = snapshot().entries.get(id);
+    return entry == null ? Optional.empty() : Optional.of(entry.policy);
+  }
+
+  public int numberOfViolations(Long id) {
+    ViolationCounts counts = this.violationCounts;
+    if (counts.loaded + violationCountsTimeToLiveMs < System.currentTimeMillis()) {
+      counts = loadViolationCounts();
+    }
+    return counts.countPerPolicyId.getOrDefault(id, 0L).intValue();
+  }
+
+  /**
+   * Replaces the policies with the replacedIds - e.g. all the revisions of a policy - with the latest revision
+   */
+  public synchronized void saved(Collection<Long> replacedIds, PdpPolicy latestRevision) {
+    if (snapshot == null) {
+      return;
+    }
+    Map<Long, Entry> entries = new HashMap<>(snapshot.entries);
+    entries.keySet().removeAll(replacedIds);
+    entries.put(latestRevision.getId(), entry(latestRevision));
+    this.snapshot = new Snapshot(entries, snapshot.serviceProviders, snapshot.identityProviders);
+  }
+
+  public synchronized void deleted(Collection<Long> ids) {
+    if (snapshot == null) {
+      return;
+    }
+    Map<Long, Entry> entries = new HashMap<>(snapshot.entries);
+    entries.keySet().removeAll(ids);
+    this.snapshot = new Snapshot(entries, snapshot.serviceProviders, snapshot.identityProviders);
+  }
+
+  /**
+   * Synchronizes with the database, only policies that are not in the model yet or that have changed are loaded and
+   * parsed
+   */
+  public synchronized void refresh() {
+    Snapshot previousSnapshot = this.snapshot;
+    if (previousSnapshot == null) {
+      Map<Long, Entry> entries = new HashMap<>();
+      pdpPolicyRepository.findAll().forEach(policy -> entries.put(policy.getId(), entry(policy)));
+      this.snapshot = new Snapshot(entries, serviceRegistry.serviceProviders(), serviceRegistry.identityProviders());
+      LOG.debug("Loaded policy definitions. Number of policies {}", entries.size());
+      return;
+    }
+    Map<Long, Entry> entries = new HashMap<>();
+    List<Long> changedIds = new ArrayList<>();
+    pdpPolicyRepository.findRevisionNbrAndActivePerId().forEach(row -> {
+      Long id = (Long) row[0];
+      Entry previous = previousSnapshot.entries.get(id);
+      if (previous != null && previous.policy.getRevisionNbr() == (Integer) row[1] && previous.policy.isActive() == (Boolean) row[2]) {
+        entries.put(id, previous);
+      } else {
+        changedIds.add(id);
+      }
+    });
+    if (!changedIds.isEmpty()) {
+      pdpPolicyRepository.findAll(changedIds).forEach(policy -> entries.put(policy.getId(), entry(policy)));
+    }
+    //the kept policies are enriched with the metadata of the previous snapshot which is re-applied when changed
+    this.snapshot = new Snapshot(entries, previousSnapshot.serviceProviders, previousSnapshot.identityProviders);
+    LOG.debug("Refreshed policy definitions. Number of policies {}, (re)-loaded {}", entries.size(), changedIds.size());
+  }
+
+  public PdpPolicyDefinition addEntityMetaData(PdpPolicyDefinition pd) {
+    Optional<EntityMetaData> sp = serviceRegistry.serviceProviderOptionalByEntityId(pd.getServiceProviderId());
+    pd.setServiceProviderInvalidOrMissing(!sp.isPresent());
+    if (sp.isPresent()) {
+      pd.setServiceProviderName(sp.get().getNameEn());
+      pd.setActivatedSr(sp.get().isPolicyEnforcementDecisionRequired());
+    }
+    pd.setIdentityProviderNames(serviceRegistry.identityProviderNames(pd.getIdentityProviderIds()));
+    return pd;
+  }
+
+  private Snapshot snapshot() {
+    Snapshot current = this.snapshot;
+    if (current == null) {
+      synchronized (this) {
+        if (this.snapshot == null) {
+          refresh();
+        }
+        return this.snapshot;
+      }
+    }
+    //the SR replaces the lists of entities when - and only when - the metadata has changed
+    if (current.serviceProviders != serviceRegistry.serviceProviders() || current.identityProviders != serviceRegistry.identityProviders()) {
+      return reapplyEntityMetaData();
+    }
+    return current;
+  }
+
+  private synchronized Snapshot reapplyEntityMetaData() {
+    List<EntityMetaData> serviceProviders = serviceRegistry.serviceProviders();
+    List<EntityMetaData> identityProviders = serviceRegistry.identityProviders();
+    if (snapshot.serviceProviders != serviceProviders || snapshot.identityProviders != identityProviders) {
+      Map<Long, Entry> entries = snapshot.entries.values().stream()
+          .map(entry -> new Entry(entry.policy, enrich(entry.policy, new PdpPolicyDefinition(entry.definition))))
+          .collect(toMap(entry -> entry.policy.getId(), entry -> entry));
+      this.snapshot = new Snapshot(entries, serviceProviders, identityProviders);
+    }
+    return snapshot;
+  }
+
+  private synchronized ViolationCounts loadViolationCounts() {
+    if (violationCounts.loaded + violationCountsTimeToLiveMs < System.currentTimeMillis()) {
+      Map<Long, Long> countPerPolicyId = pdpPolicyViolationRepository.findCountPerPolicyId().stream()
+          .collect(toMap(obj -> (Long) obj[0], obj -> (Long) obj[1]));
+      this.violationCounts = new ViolationCounts(countPerPolicyId, System.currentTimeMillis());
+    }
+    return violationCounts;
+  }
+
+  private Entry entry(PdpPolicy policy) {
+    return new Entry(policy, enrich(policy, pdpPolicyDefinitionParser.parse(policy)));
+  }
+
+  private PdpPolicyDefinition enrich(PdpPolicy policy, PdpPolicyDefinition pd) {
+    pd.setAuthenticatingAuthorityName(serviceRegistry.identityProviderByEntityId(policy.getAuthenticatingAuthority()).getNameEn());
+    //every revision is a child of the first policy, so the revision number of the latest revision is the number of revisions
+    pd.setNumberOfRevisions(policy.getRevisionNbr());
+    return addEntityMetaData(pd);
+  }
+
+  private static class Entry {
+    private final PdpPolicy policy;
+    private final PdpPolicyDefinition definition;
+
+    private Entry(PdpPolicy policy, PdpPolicyDefinition definition) {
+      this.policy = policy;
+      this.definition = definition;
+    }
+  }
+
+  private static class Snapshot {
+    private final Map<Long, Entry> entries;
+    private final List<PdpPolicyDefinition> policies;
+    private final Map<String, List<PdpPolicyDefinition>> policiesByServiceProvider = new HashMap<>();
+    private final Map<String, List<PdpPolicyDefinition>> policiesByIdentityProvider = new HashMap<>();
+    //the metadata the policies are enriched with
+    private final List<EntityMetaData> serviceProviders;
+    private final List<EntityMetaData> identityProviders;
+
+    private Snapshot(Map<Long, Entry> entries, List<EntityMetaData> serviceProviders, List<EntityMetaData> identityProviders) {
+      this.entries = Collections.unmodifiableMap(entries);
+      this.serviceProviders = serviceProviders;
+      this.identityProviders = identityProviders;
+      this.policies = unmodifiableList(new TreeMap<>(entries).values().stream().map(entry -> entry.definition).collect(toList()));
+      policies.forEach(policy -> {
+        policiesByServiceProvider.computeIfAbsent(policy.getServiceProviderId(), key -> new ArrayList<>()).add(policy);
+        new HashSet<>(policy.getIdentityProviderIds()).forEach(idp ->
+            policiesByIdentityProvider.computeIfAbsent(idp, key -> new ArrayList<>()).add(policy));
+      });
+    }
+
+    private List<PdpPolicyDefinition> byServiceProvider(String serviceProviderId) {
+      return unmodifiableList(policiesByServiceProvider.getOrDefault(serviceProviderId, Collections.emptyList()));
+    }
+
+    private List<PdpPolicyDefinition> byIdentityProvider(String identityProviderId) {
+      return unmodifiableList(policiesByIdentityProvider.getOrDefault(identityProviderId, Collections.emptyList()));
+    }
+  }
+
+  private static class ViolationCounts {
+    private final Map<Long, Long> countPerPolicyId;
+    private final long loaded;
+
+    private ViolationCounts(Map<Long, Long> countPerPolicyId, long loaded) {
+      this.countPerPolicyId = countPerPolicyId;
+      this.loaded = loaded;
+    }
+  }
+}
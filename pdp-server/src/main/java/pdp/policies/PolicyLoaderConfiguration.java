@@ -11,6 +11,7 @@ import pdp.mail.MailBox;
 import pdp.repositories.PdpPolicyRepository;
 import pdp.repositories.PdpPolicyViolationRepository;
 import pdp.serviceregistry.ServiceRegistry;
+import pdp.xacml.PdpPolicyDefinitionParser;
 
 @Configuration
 public class PolicyLoaderConfiguration {
@@ -50,8 +51,9 @@ public class PolicyLoaderConfiguration {
   public PolicyMissingServiceProviderValidator policyMissingServiceProviderValidator(
 		  MailBox mailBox, 
 		  ServiceRegistry serviceRegistry, 
-		  PdpPolicyRepository pdpPolicyRepository) {
-	  return new PolicyMissingServiceProviderValidator(mailBox, serviceRegistry, pdpPolicyRepository);
+		  PdpPolicyRepository pdpPolicyRepository,
+		  PdpPolicyDefinitionParser pdpPolicyDefinitionParser) {
+	  return new PolicyMissingServiceProviderValidator(mailBox, serviceRegistry, pdpPolicyRepository, pdpPolicyDefinitionParser);
   }
 
 
@@ -1,7 +1,10 @@
 package pdp.policies;
 
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Predicate;
 
 import pdp.domain.EntityMetaData;
 import pdp.domain.PdpPolicy;
@@ -18,13 +21,14 @@ public class PolicyMissingServiceProviderValidator {
   private MailBox mailBox;
   private ServiceRegistry serviceRegistry;
   private PdpPolicyRepository pdpPolicyRepository;
-  private final PdpPolicyDefinitionParser pdpPolicyDefinitionParser = new PdpPolicyDefinitionParser();
+  private PdpPolicyDefinitionParser pdpPolicyDefinitionParser;
 
   public PolicyMissingServiceProviderValidator(MailBox mailBox, ServiceRegistry serviceRegistry,
-      PdpPolicyRepository pdpPolicyRepository) {
+      PdpPolicyRepository pdpPolicyRepository, PdpPolicyDefinitionParser pdpPolicyDefinitionParser) {
     this.mailBox = mailBox;
     this.serviceRegistry = serviceRegistry;
     this.pdpPolicyRepository = pdpPolicyRepository;
+    this.pdpPolicyDefinitionParser = pdpPolicyDefinitionParser;
   }
   
   private PdpPolicyDefinition addEntityMetaData(PdpPolicyDefinition pd) {
@@ -39,8 +43,32 @@ public class PolicyMissingServiceProviderValidator {
   }
   
   public void validate() {
+    doValidate(policy -> true, policy -> true);
+  }
+
+  /**
+   * Only validates the policies of the given SPs, e.g. the ones removed from the metadata. Only the policies whose XML
+   * may contain one of the SPs are parsed.
+   */
+  public void validate(Collection<String> serviceProviderIds) {
+    doValidate(policy -> serviceProviderIds.stream().anyMatch(id -> mayContain(policy.getPolicyXml(), id)),
+        policy -> serviceProviderIds.contains(policy.getServiceProviderId()));
+  }
+
+  /*
+   * The SP is an escaped value in the policy XML, so we only check the parts of the SP that are never escaped
+   */
+  private boolean mayContain(String policyXml, String serviceProviderId) {
+    return policyXml != null && Arrays.stream(serviceProviderId.split("[&<>\"'=`]"))
+        .allMatch(policyXml::contains);
+  }
+
+  private void doValidate(Predicate<PdpPolicy> candidate, Predicate<PdpPolicyDefinition> filter) {
     List<PdpPolicyDefinition> invalidPolicies = stream(pdpPolicyRepository.findAll().spliterator(), false)
-        .map(policy -> addEntityMetaData(pdpPolicyDefinitionParser.parse(policy)))
+        .filter(candidate)
+        .map(policy -> pdpPolicyDefinitionParser.parse(policy))
+        .filter(filter)
+        .map(policy -> addEntityMetaData(policy))
         .filter(policy -> policy.isServiceProviderInvalidOrMissing())
         .filter(policy -> policy.isActive())
         .collect(toList());
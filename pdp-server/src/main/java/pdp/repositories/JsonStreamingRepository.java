@@ -0,0 +1,121 @@
+package pdp.repositories;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import pdp.JsonMapper;
+import pdp.domain.PdpDecision;
+import pdp.domain.PdpPolicy;
+import pdp.domain.PdpPolicyViolation;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Thread-safe
+ *
+ * Writes the violations and decisions as a JSON array directly from the result set to the response, so the number of
+ * rows is not limited by the heap. The MySQL driver only streams result sets row by row with a fetch size of
+ * Integer.MIN_VALUE, otherwise it reads the whole result set into memory first.
+ *
+ * Rows are ordered by id and paginated with a cursor: the id of the last row of the previous page.
+ */
+public class JsonStreamingRepository implements JsonMapper {
+
+  private final NamedParameterJdbcTemplate jdbcTemplate;
+  private final ObjectWriter objectWriter = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+  public JsonStreamingRepository(DataSource dataSource) {
+    JdbcTemplate streamingJdbcTemplate = new JdbcTemplate(dataSource);
+    streamingJdbcTemplate.setFetchSize(Integer.MIN_VALUE);
+    this.jdbcTemplate = new NamedParameterJdbcTemplate(streamingJdbcTemplate);
+  }
+
+  /**
+   * Streams the violations after the cursor, optionally only the ones of one policy and / or of the IdPs
+   */
+  public void violations(Optional<Long> policyRowId, Optional<Set<String>> idpEntityIds, long after, int limit,
+                         OutputStream outputStream) throws IOException {
+    Map<String, Object> parameters = new HashMap<>();
+    parameters.put("after", after);
+    parameters.put("limit", limit);
+    StringBuilder sql = new StringBuilder("SELECT v.id, v.json_request, v.response, v.created, v.is_playground, " +
+        "v.occurrences, v.idp_entity_id, p.name FROM pdp_policy_violations v INNER JOIN pdp_policies p ON p.id = v.policy_id " +
+        "WHERE v.id > :after");
+    policyRowId.ifPresent(id -> {
+      sql.append(" AND v.policy_id = :policyRowId");
+      parameters.put("policyRowId", id);
+    });
+    if (idpEntityIds.isPresent()) {
+      if (idpEntityIds.get().isEmpty()) {
+        //not allowed to see any violation and IN () is not valid SQL
+        outputStream.write("[]".getBytes(StandardCharsets.UTF_8));
+        return;
+      }
+      sql.append(" AND v.idp_entity_id IN (:idpEntityIds)");
+      parameters.put("idpEntityIds", idpEntityIds.get());
+    }
+    sql.append(" ORDER BY v.id LIMIT :limit");
+
+    stream(outputStream, sql.toString(), parameters, (rs, rowNum) -> {
+      PdpPolicy policy = new PdpPolicy();
+      policy.setName(rs.getString("name"));
+      PdpPolicyViolation violation = new PdpPolicyViolation();
+      violation.setId(rs.getLong("id"));
+      violation.setPolicy(policy);
+      violation.setJsonRequest(rs.getString("json_request"));
+      violation.setResponse(rs.getString("response"));
+      violation.setCreated(rs.getTimestamp("created"));
+      violation.setPlayground(rs.getBoolean("is_playground"));
+      violation.setOccurrences(rs.getInt("occurrences"));
+      violation.setIdpEntityId(rs.getString("idp_entity_id"));
+      return violation;
+    });
+  }
+
+  /**
+   * Streams the decisions after the cursor that were created after the date
+   */
+  public void decisions(Date createdAfter, long after, int limit, OutputStream outputStream) throws IOException {
+    Map<String, Object> parameters = new HashMap<>();
+    parameters.put("createdAfter", createdAfter);
+    parameters.put("after", after);
+    parameters.put("limit", limit);
+    String sql = "SELECT id, decision_json, created FROM pdp_decisions WHERE created > :createdAfter AND id > :after " +
+        "ORDER BY id LIMIT :limit";
+
+    stream(outputStream, sql, parameters, (rs, rowNum) -> {
+      PdpDecision decision = new PdpDecision(rs.getString("decision_json"));
+      decision.setId(rs.getLong("id"));
+      decision.setCreated(rs.getTimestamp("created"));
+      return decision;
+    });
+  }
+
+  private <T> void stream(OutputStream outputStream, String sql, Map<String, Object> parameters, RowMapper<T> rowMapper) throws IOException {
+    try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+      generator.writeStartArray();
+      AtomicInteger rowNum = new AtomicInteger();
+      jdbcTemplate.query(sql, parameters, rs -> {
+        try {
+          objectWriter.writeValue(generator, rowMapper.mapRow(rs, rowNum.getAndIncrement()));
+        } catch (IOException e) {
+          //we are called from lambda
+          throw new RuntimeException(e);
+        }
+      });
+      generator.writeEndArray();
+    }
+  }
+}
@@ -18,6 +18,9 @@ public interface PdpPolicyRepository extends CrudRepository<PdpPolicy, Long> {
   @Query(value = "SELECT p.id, (SELECT COUNT(*) FROM pdp_policies p2 WHERE p2.revision_parent_id = p.revision_parent_id) AS revision_count FROM pdp_policies p WHERE latest_revision = 1", nativeQuery = true)
   List<Object[]> findRevisionCountPerId();
 
+  @Query("SELECT p.id, p.revisionNbr, p.active FROM pdp.domain.PdpPolicy p WHERE p.latestRevision = true")
+  List<Object[]> findRevisionNbrAndActivePerId();
+
   @Override
   @Transactional
   @Modifying
@@ -11,7 +11,7 @@ import java.util.List;
 
 public interface PdpPolicyViolationRepository extends CrudRepository<PdpPolicyViolation, Long> {
 
-  @Query("SELECT p.policy.id, COUNT(p.id) FROM pdp.domain.PdpPolicyViolation p GROUP BY p.policy")
+  @Query("SELECT p.policy.id, SUM(p.occurrences) FROM pdp.domain.PdpPolicyViolation p GROUP BY p.policy")
   List<Object[]> findCountPerPolicyId();
 
   @Transactional
@@ -0,0 +1,144 @@
+package pdp.sab;
+
+import com.google.common.base.Throwables;
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import pdp.util.CacheUtils;
+import pdp.util.CircuitBreaker;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+
+/*
+ * Thread-safe
+ *
+ * Roles older then timeToLiveSeconds are still returned while they are refreshed in the background. Roles are
+ * served stale for at most staleSeconds, after that the caller waits for SAB. When SAB fails or is slow the circuit
+ * breaker opens and we keep serving the stale roles without calling SAB.
+ */
+public class CachingSabClient extends SabClient implements PublicMetrics {
+
+  private final static Logger LOG = LoggerFactory.getLogger(CachingSabClient.class);
+
+  private final long maximumAgeNanos;
+  private final Ticker ticker;
+  private final CircuitBreaker circuitBreaker;
+  private final ExecutorService executor;
+  private final LoadingCache<String, Roles> cache;
+
+  public CachingSabClient(String sabUserName, String sabPassword, String sabEndpoint,
+                          long timeToLiveSeconds, long staleSeconds, long maximumSize, CircuitBreaker circuitBreaker) {
+    this(sabUserName, sabPassword, sabEndpoint, timeToLiveSeconds, staleSeconds, maximumSize, circuitBreaker,
+        Ticker.systemTicker());
+  }
+
+  CachingSabClient(String sabUserName, String sabPassword, String sabEndpoint, long timeToLiveSeconds,
+                   long staleSeconds, long maximumSize, CircuitBreaker circuitBreaker, Ticker ticker) {
+    super(sabUserName, sabPassword, sabEndpoint);
+    this.maximumAgeNanos = TimeUnit.SECONDS.toNanos(timeToLiveSeconds + staleSeconds);
+    this.ticker = ticker;
+    this.circuitBreaker = circuitBreaker;
+    this.executor = new ThreadPoolExecutor(1, 2, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(1000),
+        new ThreadFactoryBuilder().setNameFormat("sab-refresh-%d").setDaemon(true).build());
+    this.cache = CacheBuilder.newBuilder()
+        .refreshAfterWrite(timeToLiveSeconds, TimeUnit.SECONDS)
+        .expireAfterAccess(timeToLiveSeconds + staleSeconds, TimeUnit.SECONDS)
+        .maximumSize(maximumSize)
+        .ticker(ticker)
+        .recordStats()
+        .build(new RolesLoader());
+  }
+
+  @Override
+  public List<String> roles(String userUrn) throws IOException {
+    Roles roles = get(userUrn);
+    if (roles.isExpired()) {
+      cache.invalidate(userUrn);
+      roles = get(userUrn);
+    }
+    return roles.roles;
+  }
+
+  private Roles get(String userUrn) throws IOException {
+    try {
+      return cache.get(userUrn);
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+      throw Throwables.propagate(e.getCause());
+    }
+  }
+
+  private Roles fetchRoles(String userUrn) throws IOException {
+    long start = System.currentTimeMillis();
+    boolean success = false;
+    try {
+      List<String> roles = super.roles(userUrn);
+      success = true;
+      return new Roles(Collections.unmodifiableList(roles), ticker.read());
+    } finally {
+      circuitBreaker.record(success, System.currentTimeMillis() - start);
+    }
+  }
+
+  @Override
+  public Collection<Metric<?>> metrics() {
+    List<Metric<?>> metrics = new ArrayList<>(CacheUtils.metrics("pip.sab_pip.cache", cache));
+    metrics.add(new Metric<>("pip.sab_pip.circuitBreaker.open", circuitBreaker.isOpen() ? 1 : 0));
+    metrics.add(new Metric<>("pip.sab_pip.circuitBreaker.timesOpened", circuitBreaker.getTimesOpened()));
+    return metrics;
+  }
+
+  private class RolesLoader extends CacheLoader<String, Roles> {
+
+    @Override
+    public Roles load(String userUrn) throws Exception {
+      if (!circuitBreaker.allowRequest()) {
+        throw new IOException("Circuit breaker for SAB is open, not retrieving roles for " + userUrn);
+      }
+      return fetchRoles(userUrn);
+    }
+
+    @Override
+    public ListenableFuture<Roles> reload(String userUrn, Roles oldRoles) throws Exception {
+      if (!circuitBreaker.allowRequest()) {
+        //keep serving the stale roles, the age check in roles limits how long
+        return Futures.immediateFuture(oldRoles);
+      }
+      ListenableFutureTask<Roles> task = ListenableFutureTask.create(() -> {
+        try {
+          return fetchRoles(userUrn);
+        } catch (Exception e) {
+          LOG.warn("Failed to refresh SAB roles for {}, serving stale roles", userUrn, e);
+          return oldRoles;
+        }
+      });
+      executor.execute(task);
+      return task;
+    }
+  }
+
+  private class Roles {
+    private final List<String> roles;
+    private final long retrieved;
+
+    private Roles(List<String> roles, long retrieved) {
+      this.roles = roles;
+      this.retrieved = retrieved;
+    }
+
+    private boolean isExpired() {
+      return ticker.read() - retrieved > maximumAgeNanos;
+    }
+  }
+}
@@ -4,10 +4,12 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Profile;
+import pdp.util.CircuitBreaker;
 
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import static pdp.teams.VootClientConfig.URN_COLLAB_PERSON_EXAMPLE_COM_ADMIN;
 
@@ -18,8 +20,15 @@ public class SabClientConfig {
   @Profile({"test", "acc", "prod"})
   public SabClient sabClient(@Value("${sab.userName}") String userName,
                              @Value("${sab.password}") String password,
-                             @Value("${sab.endpoint}") String endpoint) {
-    return new SabClient(userName, password, endpoint);
+                             @Value("${sab.endpoint}") String endpoint,
+                             @Value("${sab.cache.timeToLiveSeconds}") long timeToLiveSeconds,
+                             @Value("${sab.cache.staleSeconds}") long staleSeconds,
+                             @Value("${sab.cache.maximumSize}") long maximumSize,
+                             @Value("${sab.circuitBreaker.failureThreshold}") int failureThreshold,
+                             @Value("${sab.circuitBreaker.openSeconds}") long openSeconds,
+                             @Value("${sab.circuitBreaker.slowCallMs}") long slowCallMs) {
+    CircuitBreaker circuitBreaker = new CircuitBreaker(failureThreshold, TimeUnit.SECONDS.toMillis(openSeconds), slowCallMs);
+    return new CachingSabClient(userName, password, endpoint, timeToLiveSeconds, staleSeconds, maximumSize, circuitBreaker);
   }
 
   @Bean
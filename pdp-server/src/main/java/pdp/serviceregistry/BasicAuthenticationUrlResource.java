@@ -2,19 +2,16 @@ package pdp.serviceregistry;
 
 import org.springframework.core.io.UrlResource;
 import org.springframework.http.HttpHeaders;
-import org.springframework.http.HttpStatus;
+import org.springframework.util.StringUtils;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URLConnection;
-import java.time.ZoneId;
-import java.time.ZonedDateTime;
 import java.util.Base64;
 
-import static java.time.format.DateTimeFormatter.RFC_1123_DATE_TIME;
-import static org.springframework.http.HttpHeaders.IF_MODIFIED_SINCE;
+import static org.springframework.http.HttpHeaders.IF_NONE_MATCH;
 
 public class BasicAuthenticationUrlResource extends UrlResource {
 
@@ -37,28 +34,28 @@ public class BasicAuthenticationUrlResource extends UrlResource {
     }
   }
 
-  public boolean isModified(int minutes) {
-    HttpURLConnection con = null;
-    try {
-      con = (HttpURLConnection) this.getURL().openConnection();
-      con.setRequestMethod("HEAD");
-      setHeaders(con);
-
-      String lastRefresh = RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneId.of("GMT")).minusMinutes(minutes));
-      con.setRequestProperty(IF_MODIFIED_SINCE, lastRefresh);
-
-      int responseCode = con.getResponseCode();
-      return responseCode != HttpStatus.NOT_MODIFIED.value();
-    } catch (IOException ex) {
-      con.disconnect();
-      throw new RuntimeException(ex);
+  /**
+   * GET with If-None-Match and If-Modified-Since for the validators that are known. The caller must check for a 304
+   * response and disconnect.
+   */
+  public HttpURLConnection conditionalGet(String eTag, long ifModifiedSince) throws IOException {
+    HttpURLConnection con = (HttpURLConnection) this.getURL().openConnection();
+    setHeaders(con);
+    if (StringUtils.hasText(eTag)) {
+      con.setRequestProperty(IF_NONE_MATCH, eTag);
+    }
+    if (ifModifiedSince > 0) {
+      con.setIfModifiedSince(ifModifiedSince);
     }
+    return con;
   }
 
   private void setHeaders(URLConnection con) {
     con.setRequestProperty("Authorization", basicAuth);
     con.setRequestProperty(HttpHeaders.CONTENT_TYPE, "application/json");
     con.setConnectTimeout(5 * 1000);
+    //a hung metadata server must not block the refresh thread forever, the metadata itself can take a while
+    con.setReadTimeout(30 * 1000);
   }
 
 
@@ -18,13 +18,11 @@ import pdp.policies.PolicyMissingServiceProviderValidator;
 import pdp.repositories.PdpPolicyRepository;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 
 import static java.util.stream.Collectors.toList;
-import static java.util.stream.Collectors.toSet;
 import static java.util.stream.StreamSupport.stream;
-import static pdp.util.StreamUtils.singletonOptionalCollector;
 import static pdp.xacml.PdpPolicyDefinitionParser.IDP_ENTITY_ID;
 import static pdp.xacml.PdpPolicyDefinitionParser.SP_ENTITY_ID;
 
@@ -32,7 +30,14 @@ public class ClassPathResourceServiceRegistry implements ServiceRegistry, JsonMa
 
   protected final Logger LOG = LoggerFactory.getLogger(getClass());
 
-  private Map<String, List<EntityMetaData>> entityMetaData = new ConcurrentHashMap<>();
+  //replaced as a whole on every refresh, the indexes themselves are immutable
+  private volatile Map<String, EntityIndex> entityIndexes =
+      entityIndexes(new EntityIndex(Collections.emptyList()), new EntityIndex(Collections.emptyList()));
+
+  private final EntityMetaDataParser entityMetaDataParser = new EntityMetaDataParser();
+
+  //set by the thread that refreshes the metadata and read by the callers of initializeMetadata
+  private volatile boolean policiesValidated;
   
   @Autowired
   private PolicyMissingServiceProviderValidator policyMissingServiceProviderValidator;
@@ -45,17 +50,33 @@ public class ClassPathResourceServiceRegistry implements ServiceRegistry, JsonMa
   }
 
   protected void initializeMetadata() {
-    Map<String, List<EntityMetaData>> newEntityMetaData = new ConcurrentHashMap<>();
-    newEntityMetaData.put(IDP_ENTITY_ID, parseEntities(getIdpResource()));
-    newEntityMetaData.put(SP_ENTITY_ID, parseEntities(getSpResource()));
-    this.entityMetaData = newEntityMetaData;
-    LOG.debug("Initialized SR Resources. Number of IDPs {}. Number of SPs {}", entityMetaData.get(IDP_ENTITY_ID).size(), entityMetaData.get(SP_ENTITY_ID).size());
-    
+    Map<String, EntityIndex> previousEntityIndexes = this.entityIndexes;
+    EntityIndex idps = previousEntityIndexes.get(IDP_ENTITY_ID).withEntities(parseEntities(getIdpResource()));
+    EntityIndex sps = previousEntityIndexes.get(SP_ENTITY_ID).withEntities(parseEntities(getSpResource()));
+    this.entityIndexes = entityIndexes(idps, sps);
+    LOG.debug("Initialized SR Resources. Number of IDPs {}. Number of SPs {}", identityProviders().size(), serviceProviders().size());
+
     if (this.policyMissingServiceProviderValidator != null) {
-    	this.policyMissingServiceProviderValidator.validate();
+      if (!this.policiesValidated) {
+        this.policyMissingServiceProviderValidator.validate();
+        this.policiesValidated = true;
+      } else {
+        //only policies of SPs that have disappeared can have become invalid
+        Set<String> removedServiceProviderIds = previousEntityIndexes.get(SP_ENTITY_ID).removedEntityIds(sps);
+        if (!removedServiceProviderIds.isEmpty()) {
+          this.policyMissingServiceProviderValidator.validate(removedServiceProviderIds);
+        }
+      }
     }
   }
 
+  private Map<String, EntityIndex> entityIndexes(EntityIndex idps, EntityIndex sps) {
+    Map<String, EntityIndex> newEntityIndexes = new HashMap<>();
+    newEntityIndexes.put(IDP_ENTITY_ID, idps);
+    newEntityIndexes.put(SP_ENTITY_ID, sps);
+    return Collections.unmodifiableMap(newEntityIndexes);
+  }
+
   protected Resource getIdpResource() {
     return new ClassPathResource("service-registry/identity-providers.json");
   }
@@ -66,12 +87,12 @@ public class ClassPathResourceServiceRegistry implements ServiceRegistry, JsonMa
 
   @Override
   public List<EntityMetaData> serviceProviders() {
-    return entityMetaData.get(SP_ENTITY_ID);
+    return entityIndexes.get(SP_ENTITY_ID).entities();
   }
 
   @Override
   public List<EntityMetaData> identityProviders() {
-    return entityMetaData.get(IDP_ENTITY_ID);
+    return entityIndexes.get(IDP_ENTITY_ID).entities();
   }
 
   @Override
@@ -79,7 +100,7 @@ public class ClassPathResourceServiceRegistry implements ServiceRegistry, JsonMa
     EntityMetaData idp = identityProviderByEntityId(authenticatingAuthority);
     String institutionId = idp.getInstitutionId();
     if (StringUtils.hasText(institutionId)) {
-      return identityProviders().stream().filter(md -> institutionId.equals(md.getInstitutionId())).collect(toSet());
+      return entityIndexes.get(IDP_ENTITY_ID).byInstitutionId(institutionId);
     } else {
       return Sets.newHashSet(idp);
     }
@@ -90,21 +111,17 @@ public class ClassPathResourceServiceRegistry implements ServiceRegistry, JsonMa
     if (StringUtils.isEmpty(institutionId)) {
       return Collections.emptySet();
     }
-    return serviceProviders().stream().filter(sp -> institutionId.equals(sp.getInstitutionId())).collect(toSet());
+    return entityIndexes.get(SP_ENTITY_ID).byInstitutionId(institutionId);
   }
 
   @Override
   public Optional<EntityMetaData> serviceProviderOptionalByEntityId(String entityId) {
-    return entityMetaDataOptionalByEntityId(entityId, serviceProviders());
+    return entityIndexes.get(SP_ENTITY_ID).byEntityId(entityId);
   }
 
   @Override
   public Optional<EntityMetaData> identityProviderOptionalByEntityId(String entityId) {
-    return entityMetaDataOptionalByEntityId(entityId, identityProviders());
-  }
-
-  private Optional<EntityMetaData> entityMetaDataOptionalByEntityId(String entityId, List<EntityMetaData> entityMetaDatas) {
-    return entityMetaDatas.stream().filter(sp -> sp.getEntityId().equals(entityId)).collect(singletonOptionalCollector());
+    return entityIndexes.get(IDP_ENTITY_ID).byEntityId(entityId);
   }
 
   @Override
@@ -119,7 +136,7 @@ public class ClassPathResourceServiceRegistry implements ServiceRegistry, JsonMa
 
   @Override
   public List<String> identityProviderNames(List<String> entityIds) {
-    return identityProviders().stream().filter(idp -> entityIds.contains(idp.getEntityId())).map(EntityMetaData::getNameEn).collect(toList());
+    return entityIndexes.get(IDP_ENTITY_ID).byEntityIds(entityIds).stream().map(EntityMetaData::getNameEn).collect(toList());
   }
 
   private EntityMetaData entityMetaData(String entityId, Optional<EntityMetaData> optional) {
@@ -131,49 +148,15 @@ public class ClassPathResourceServiceRegistry implements ServiceRegistry, JsonMa
   }
 
   protected List<EntityMetaData> parseEntities(Resource resource) {
-    try {
-      List<Map<String, Object>> list = objectMapper.readValue(resource.getInputStream(), List.class);
-      return list.stream().map(entry ->
-          new EntityMetaData(
-              (String) entry.get("entityid"),
-              (String) entry.get("coin:institution_id"),
-              getMetaDateEntry(entry, "description"),
-              getMetaDateEntry(entry, "name"),
-              getMetaDateEntry(entry, "description"),
-              getMetaDateEntry(entry, "name"),
-              getPolicyEnforcementDecisionRequired(entry),
-              getAllowedAll(entry),
-              getAllowedEntries(entry)
-          )
-      ).sorted(sortEntityMetaData()).collect(toList());
+    try (InputStream inputStream = resource.getInputStream()) {
+      List<EntityMetaData> entities = entityMetaDataParser.parse(inputStream);
+      entities.sort(sortEntityMetaData());
+      return entities;
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
   }
 
-  private Set<String> getAllowedEntries(Map<String, Object> entry) {
-    List<String> allowedEntities = (List<String>) entry.getOrDefault("allowedEntities", Collections.emptyList());
-    return new HashSet<>(allowedEntities);
-  }
-
-  private boolean getAllowedAll(Map<String, Object> entry) {
-    String allowedall = (String) entry.getOrDefault("allowedall", "yes");
-    return allowedall.equals("yes");
-  }
-
-  private boolean getPolicyEnforcementDecisionRequired(Map<String, Object> entry) {
-    Object policyEnforcementDecisionRequired = entry.get("coin:policy_enforcement_decision_required");
-    if (policyEnforcementDecisionRequired != null) {
-      if (policyEnforcementDecisionRequired instanceof Boolean) {
-        return (Boolean) policyEnforcementDecisionRequired;
-      } else if (policyEnforcementDecisionRequired instanceof String) {
-        return policyEnforcementDecisionRequired.equals("1");
-      }
-    }
-    return false;
-
-  }
-
   private Comparator<? super EntityMetaData> sortEntityMetaData() {
     return (e1, e2) -> getEntityMetaDataComparatorId(e1).compareTo(getEntityMetaDataComparatorId(e2));
   }
@@ -182,19 +165,6 @@ public class ClassPathResourceServiceRegistry implements ServiceRegistry, JsonMa
     return metaData.getNameEn() != null ? metaData.getNameEn() : metaData.getNameNl() != null ? metaData.getNameNl() : metaData.getEntityId();
   }
 
-  private String getMetaDateEntry(Map<String, Object> entry, String attributeName) {
-    String attribute = (String) entry.get(attributeName + ":en");
-    if (!StringUtils.hasText(attribute)) {
-      // try the other language
-      attribute = (String) entry.get(attributeName + ":nl");
-      if (!StringUtils.hasText(attribute)) {
-        //fallback to entityId
-        attribute = (String) entry.get("entityid");
-      }
-    }
-    return attribute;
-  }
-
   /**
    * Not part of the ServiceRegistry contract, but used for testing
    */
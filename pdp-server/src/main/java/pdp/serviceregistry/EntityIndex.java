@@ -0,0 +1,125 @@
+package pdp.serviceregistry;
+
+import org.springframework.util.StringUtils;
+import pdp.domain.EntityMetaData;
+
+import java.util.*;
+
+import static java.util.Collections.unmodifiableList;
+import static java.util.Collections.unmodifiableMap;
+import static java.util.Collections.unmodifiableSet;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
+
+/*
+ * Immutable, thread-safe
+ *
+ * The entities of one type - IdP or SP - indexed by entityId and institutionId. A new index is derived for every metadata
+ * refresh, so lookups never need to scan all entities.
+ */
+class EntityIndex {
+
+  private final List<EntityMetaData> entities;
+  private final Map<String, Integer> positionsByEntityId;
+  private final Map<String, Set<EntityMetaData>> entitiesByInstitutionId;
+
+  EntityIndex(List<EntityMetaData> sortedEntities) {
+    this(sortedEntities, Collections.emptyMap(), null);
+  }
+
+  /*
+   * Only the institutions in changedInstitutionIds are re-indexed, the others are taken from previousEntitiesByInstitutionId.
+   * All institutions are (re)-indexed if changedInstitutionIds is null.
+   */
+  private EntityIndex(List<EntityMetaData> sortedEntities,
+                      Map<String, Set<EntityMetaData>> previousEntitiesByInstitutionId,
+                      Set<String> changedInstitutionIds) {
+    this.entities = unmodifiableList(new ArrayList<>(sortedEntities));
+
+    Map<String, Integer> positionsByEntityId = new HashMap<>();
+    Map<String, Set<EntityMetaData>> entitiesByInstitutionId = new HashMap<>(previousEntitiesByInstitutionId);
+    if (changedInstitutionIds != null) {
+      entitiesByInstitutionId.keySet().removeAll(changedInstitutionIds);
+    }
+    Map<String, Set<EntityMetaData>> reindexed = new HashMap<>();
+    for (int i = 0; i < entities.size(); i++) {
+      EntityMetaData entity = entities.get(i);
+      //the first one wins in case of duplicate entityIds
+      positionsByEntityId.putIfAbsent(entity.getEntityId(), i);
+      String institutionId = entity.getInstitutionId();
+      if (StringUtils.hasText(institutionId) && (changedInstitutionIds == null || changedInstitutionIds.contains(institutionId))) {
+        reindexed.computeIfAbsent(institutionId, key -> new HashSet<>()).add(entity);
+      }
+    }
+    reindexed.forEach((institutionId, institutionEntities) -> entitiesByInstitutionId.put(institutionId, unmodifiableSet(institutionEntities)));
+
+    this.positionsByEntityId = unmodifiableMap(positionsByEntityId);
+    this.entitiesByInstitutionId = unmodifiableMap(entitiesByInstitutionId);
+  }
+
+  /**
+   * Returns an index for the new entities or this index if nothing changed. Unchanged entities keep their identity, only
+   * the institutions of new, changed and removed entities are re-indexed.
+   */
+  EntityIndex withEntities(List<EntityMetaData> sortedEntities) {
+    List<EntityMetaData> newEntities = new ArrayList<>(sortedEntities.size());
+    Set<String> changedInstitutionIds = new HashSet<>();
+    boolean changed = sortedEntities.size() != entities.size();
+
+    for (int i = 0; i < sortedEntities.size(); i++) {
+      EntityMetaData entity = sortedEntities.get(i);
+      Optional<EntityMetaData> previousOptional = byEntityId(entity.getEntityId());
+      if (previousOptional.isPresent() && previousOptional.get().hasSameMetaData(entity)) {
+        EntityMetaData previous = previousOptional.get();
+        changed = changed || entities.get(i) != previous;
+        newEntities.add(previous);
+      } else {
+        changed = true;
+        changedInstitutionIds.add(entity.getInstitutionId());
+        previousOptional.ifPresent(previous -> changedInstitutionIds.add(previous.getInstitutionId()));
+        newEntities.add(entity);
+      }
+    }
+    Set<String> newEntityIds = sortedEntities.stream().map(EntityMetaData::getEntityId).collect(toSet());
+    for (EntityMetaData entity : entities) {
+      if (!newEntityIds.contains(entity.getEntityId())) {
+        changed = true;
+        changedInstitutionIds.add(entity.getInstitutionId());
+      }
+    }
+    return changed ? new EntityIndex(newEntities, entitiesByInstitutionId, changedInstitutionIds) : this;
+  }
+
+  /**
+   * Returns the entityIds of this index that are not present in the other index
+   */
+  Set<String> removedEntityIds(EntityIndex other) {
+    return positionsByEntityId.keySet().stream().filter(entityId -> !other.positionsByEntityId.containsKey(entityId)).collect(toSet());
+  }
+
+  List<EntityMetaData> entities() {
+    return entities;
+  }
+
+  Optional<EntityMetaData> byEntityId(String entityId) {
+    Integer position = positionsByEntityId.get(entityId);
+    return position == null ? Optional.empty() : Optional.of(entities.get(position));
+  }
+
+  Set<EntityMetaData> byInstitutionId(String institutionId) {
+    return entitiesByInstitutionId.getOrDefault(institutionId, Collections.emptySet());
+  }
+
+  /**
+   * Returns the known entities in the (sorted) order of all entities, unknown entityIds are ignored
+   */
+  List<EntityMetaData> byEntityIds(Collection<String> entityIds) {
+    return entityIds.stream()
+        .map(positionsByEntityId::get)
+        .filter(Objects::nonNull)
+        .distinct()
+        .sorted()
+        .map(entities::get)
+        .collect(toList());
+  }
+}
@@ -0,0 +1,119 @@
+package pdp.serviceregistry;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.springframework.util.StringUtils;
+import pdp.JsonMapper;
+import pdp.domain.EntityMetaData;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/*
+ * Thread-safe
+ *
+ * Streams the metadata export - a JSON array of entities - and only keeps the few attributes we need of each entity.
+ * The exports contain many more attributes (contacts, certificates, logo's, ...) which are skipped without ever being
+ * materialized.
+ */
+class EntityMetaDataParser implements JsonMapper {
+
+  List<EntityMetaData> parse(InputStream inputStream) throws IOException {
+    List<EntityMetaData> entities = new ArrayList<>();
+    try (JsonParser parser = objectMapper.getFactory().createParser(inputStream)) {
+      if (parser.nextToken() != JsonToken.START_ARRAY) {
+        throw new IOException("Expected a JSON array of entities, but got " + parser.getCurrentToken());
+      }
+      while (parser.nextToken() == JsonToken.START_OBJECT) {
+        entities.add(parseEntity(parser));
+      }
+    }
+    return entities;
+  }
+
+  private EntityMetaData parseEntity(JsonParser parser) throws IOException {
+    String entityId = null;
+    String institutionId = null;
+    String descriptionEn = null;
+    String descriptionNl = null;
+    String nameEn = null;
+    String nameNl = null;
+    boolean policyEnforcementDecisionRequired = false;
+    String allowedAll = "yes";
+    Set<String> allowedEntities = new HashSet<>();
+
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String fieldName = parser.getCurrentName();
+      JsonToken token = parser.nextToken();
+      switch (fieldName) {
+        case "entityid":
+          entityId = text(parser);
+          break;
+        case "coin:institution_id":
+          institutionId = text(parser);
+          break;
+        case "description:en":
+          descriptionEn = text(parser);
+          break;
+        case "description:nl":
+          descriptionNl = text(parser);
+          break;
+        case "name:en":
+          nameEn = text(parser);
+          break;
+        case "name:nl":
+          nameNl = text(parser);
+          break;
+        case "coin:policy_enforcement_decision_required":
+          policyEnforcementDecisionRequired = token == JsonToken.VALUE_TRUE || (token == JsonToken.VALUE_STRING && "1".equals(parser.getText()));
+          break;
+        case "allowedall":
+          allowedAll = token == JsonToken.VALUE_NULL ? allowedAll : parser.getText();
+          break;
+        case "allowedEntities":
+          parseAllowedEntities(parser, allowedEntities);
+          break;
+        default:
+          parser.skipChildren();
+      }
+    }
+    String description = fallback(descriptionEn, descriptionNl, entityId);
+    String name = fallback(nameEn, nameNl, entityId);
+    return new EntityMetaData(entityId, institutionId, description, name, description, name,
+        policyEnforcementDecisionRequired, "yes".equals(allowedAll), allowedEntities);
+  }
+
+  private void parseAllowedEntities(JsonParser parser, Set<String> allowedEntities) throws IOException {
+    if (parser.getCurrentToken() != JsonToken.START_ARRAY) {
+      parser.skipChildren();
+      return;
+    }
+    while (parser.nextToken() != JsonToken.END_ARRAY) {
+      if (parser.getCurrentToken() == JsonToken.VALUE_STRING) {
+        allowedEntities.add(parser.getText());
+      } else {
+        parser.skipChildren();
+      }
+    }
+  }
+
+  private String text(JsonParser parser) throws IOException {
+    JsonToken token = parser.getCurrentToken();
+    if (token.isStructStart()) {
+      parser.skipChildren();
+      return null;
+    }
+    return token == JsonToken.VALUE_NULL ? null : parser.getText();
+  }
+
+  /*
+   * The English value, otherwise the Dutch one and otherwise the entityId
+   */
+  private String fallback(String en, String nl, String entityId) {
+    return StringUtils.hasText(en) ? en : StringUtils.hasText(nl) ? nl : entityId;
+  }
+}
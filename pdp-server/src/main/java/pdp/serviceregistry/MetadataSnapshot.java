@@ -0,0 +1,106 @@
+package pdp.serviceregistry;
+
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static org.springframework.http.HttpHeaders.ETAG;
+
+/*
+ * Not thread-safe, only used by the thread that refreshes the metadata
+ *
+ * The last good copy of one remote metadata export on the local disk. A download is only committed - atomically moved
+ * over the snapshot - after it has been parsed successfully. The ETag is stored next to the snapshot and the snapshot has
+ * the Last-Modified of the remote resource, so a restarted server can still do a conditional GET.
+ */
+class MetadataSnapshot {
+
+  private final BasicAuthenticationUrlResource remoteResource;
+  private final Path file;
+  private final Path eTagFile;
+
+  private Path download;
+  private String downloadETag;
+  private long downloadLastModified;
+
+  MetadataSnapshot(BasicAuthenticationUrlResource remoteResource, Path file) {
+    this.remoteResource = remoteResource;
+    this.file = file;
+    this.eTagFile = file.resolveSibling(file.getFileName() + ".etag");
+  }
+
+  boolean exists() {
+    return Files.isRegularFile(file);
+  }
+
+  /**
+   * Downloads the remote resource unless it is not modified since the snapshot was taken. Returns true if downloaded.
+   */
+  boolean fetchIfModified() throws IOException {
+    String eTag = exists() && Files.isRegularFile(eTagFile) ? new String(Files.readAllBytes(eTagFile), StandardCharsets.UTF_8) : null;
+    long ifModifiedSince = exists() ? Files.getLastModifiedTime(file).toMillis() : 0;
+
+    HttpURLConnection con = remoteResource.conditionalGet(eTag, ifModifiedSince);
+    try {
+      int responseCode = con.getResponseCode();
+      if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+        return false;
+      }
+      if (responseCode != HttpURLConnection.HTTP_OK) {
+        throw new IOException("Unexpected response " + responseCode + " from " + remoteResource.getURL());
+      }
+      discard();
+      Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".download");
+      try (InputStream inputStream = con.getInputStream()) {
+        Files.copy(inputStream, temp, REPLACE_EXISTING);
+      }
+      this.download = temp;
+      this.downloadETag = con.getHeaderField(ETAG);
+      this.downloadLastModified = con.getLastModified();
+      return true;
+    } finally {
+      con.disconnect();
+    }
+  }
+
+  /**
+   * The downloaded - but not yet committed - metadata or otherwise the snapshot
+   */
+  Resource resource() {
+    return new FileSystemResource((download != null ? download : file).toFile());
+  }
+
+  void commit() throws IOException {
+    if (download == null) {
+      return;
+    }
+    long lastModified = downloadLastModified > 0 ? downloadLastModified : System.currentTimeMillis();
+    Files.setLastModifiedTime(download, FileTime.fromMillis(lastModified));
+    Files.move(download, file, ATOMIC_MOVE, REPLACE_EXISTING);
+    //after the snapshot, a stale ETag only causes an unnecessary download
+    if (downloadETag != null) {
+      Path temp = Files.createTempFile(file.getParent(), eTagFile.getFileName().toString(), ".download");
+      Files.write(temp, downloadETag.getBytes(StandardCharsets.UTF_8));
+      Files.move(temp, eTagFile, ATOMIC_MOVE, REPLACE_EXISTING);
+    } else {
+      Files.deleteIfExists(eTagFile);
+    }
+    download = null;
+  }
+
+  void discard() throws IOException {
+    if (download != null) {
+      Files.deleteIfExists(download);
+      download = null;
+    }
+  }
+}
@@ -24,8 +24,9 @@ public class ServiceRegistryConfiguration {
       @Value("${metadata.password}") String password,
       @Value("${metadata.idpRemotePath}") String idpRemotePath,
       @Value("${metadata.spRemotePath}") String spRemotePath,
-      @Value("${period.metadata.refresh.minutes}") int period) throws MalformedURLException {
-    return new UrlResourceServiceRegistry(username, password, idpRemotePath, spRemotePath, period);
+      @Value("${period.metadata.refresh.minutes}") int period,
+      @Value("${metadata.snapshotDirectory}") String snapshotDirectory) throws MalformedURLException {
+    return new UrlResourceServiceRegistry(username, password, idpRemotePath, spRemotePath, period, snapshotDirectory);
   }
 
 
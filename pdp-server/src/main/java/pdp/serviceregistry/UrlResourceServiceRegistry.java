@@ -3,10 +3,12 @@ package pdp.serviceregistry;
 import org.springframework.boot.actuate.health.Health;
 import org.springframework.boot.actuate.health.HealthIndicator;
 import org.springframework.core.io.Resource;
-import org.springframework.http.client.SimpleClientHttpRequestFactory;
-import org.springframework.web.client.RestTemplate;
 
+import java.io.IOException;
 import java.net.MalformedURLException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
@@ -22,13 +24,13 @@ public class UrlResourceServiceRegistry extends ClassPathResourceServiceRegistry
   private final String idpRemotePath;
   private final String spRemotePath;
 
-  private final RestTemplate restTemplate = new RestTemplate();
   private final int refreshInMinutes;
-  private final BasicAuthenticationUrlResource idpUrlResource;
-  private final BasicAuthenticationUrlResource spUrlResource;
+  private final MetadataSnapshot idpSnapshot;
+  private final MetadataSnapshot spSnapshot;
 
   private ScheduledFuture<?> scheduledFuture;
-  private boolean lastCallFailed = true;
+  private boolean retrying;
+  private boolean metadataLoaded;
 
   private volatile ZonedDateTime lastRefreshCheck = ZonedDateTime.now(GMT);
   private volatile ZonedDateTime metadataLastUpdated = ZonedDateTime.now(GMT);
@@ -38,73 +40,110 @@ public class UrlResourceServiceRegistry extends ClassPathResourceServiceRegistry
       String password,
       String idpRemotePath,
       String spRemotePath,
-      int refreshInMinutes) throws MalformedURLException {
+      int refreshInMinutes,
+      String snapshotDirectory) throws MalformedURLException {
     super(false);
 
-    this.idpUrlResource = new BasicAuthenticationUrlResource(idpRemotePath, username, password);
-    this.spUrlResource = new BasicAuthenticationUrlResource(spRemotePath, username, password);
+    Path snapshotPath = Paths.get(snapshotDirectory);
+    try {
+      Files.createDirectories(snapshotPath);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    this.idpSnapshot = new MetadataSnapshot(new BasicAuthenticationUrlResource(idpRemotePath, username, password), snapshotPath.resolve("identity-providers.json"));
+    this.spSnapshot = new MetadataSnapshot(new BasicAuthenticationUrlResource(spRemotePath, username, password), snapshotPath.resolve("service-providers.json"));
 
     this.idpRemotePath = idpRemotePath;
     this.spRemotePath = spRemotePath;
     this.refreshInMinutes = refreshInMinutes;
 
-    SimpleClientHttpRequestFactory requestFactory = (SimpleClientHttpRequestFactory) restTemplate.getRequestFactory();
-    requestFactory.setConnectTimeout(5 * 1000);
+    if (initializeFromSnapshot()) {
+      //start with the snapshot and check the remote metadata in the background
+      schedule(0, refreshInMinutes * 60, TimeUnit.SECONDS);
+    } else {
+      schedule(refreshInMinutes, refreshInMinutes, TimeUnit.MINUTES);
+      initializeMetadata();
+    }
+  }
 
-    schedule(this.refreshInMinutes, TimeUnit.MINUTES);
-    doInitializeMetadata(true);
+  private boolean initializeFromSnapshot() {
+    if (!idpSnapshot.exists() || !spSnapshot.exists()) {
+      return false;
+    }
+    try {
+      super.initializeMetadata();
+      this.metadataLoaded = true;
+      LOG.info("Initialized metadata from the snapshot, refreshing {} and {} in the background", idpRemotePath, spRemotePath);
+      return true;
+    } catch (RuntimeException e) {
+      LOG.error("Error in initializing metadata from the snapshot", e);
+      return false;
+    }
   }
 
-  private void schedule(int period, TimeUnit timeUnit) {
+  private void schedule(long initialDelay, long period, TimeUnit timeUnit) {
     if (this.scheduledFuture != null) {
       this.scheduledFuture.cancel(true);
     }
-    this.scheduledFuture = newScheduledThreadPool(1).scheduleAtFixedRate(this::initializeMetadata, period, period, timeUnit);
+    this.scheduledFuture = newScheduledThreadPool(1).scheduleAtFixedRate(this::initializeMetadata, initialDelay, period, timeUnit);
   }
 
   @Override
   protected Resource getIdpResource() {
-    LOG.debug("Fetching IDP metadata entries from {}", idpRemotePath);
-    return idpUrlResource;
+    return idpSnapshot.resource();
   }
 
   @Override
   protected Resource getSpResource() {
-    LOG.debug("Fetching SP metadata entries from {}", spRemotePath);
-    return spUrlResource;
+    return spSnapshot.resource();
   }
 
-  private void doInitializeMetadata(boolean forceRefresh) {
+  @Override
+  protected void initializeMetadata() {
     try {
       this.lastRefreshCheck = ZonedDateTime.now(GMT);
 
-      if (forceRefresh ||  spUrlResource.isModified(refreshInMinutes) || idpUrlResource.isModified(refreshInMinutes) ) {
+      LOG.debug("Fetching IDP metadata entries from {} and SP metadata entries from {}", idpRemotePath, spRemotePath);
+      boolean idpModified = idpSnapshot.fetchIfModified();
+      boolean spModified = spSnapshot.fetchIfModified();
+      if (idpModified || spModified) {
         this.metadataLastUpdated = ZonedDateTime.now(GMT);
         super.initializeMetadata();
+        //only now we know the downloads are good
+        idpSnapshot.commit();
+        spSnapshot.commit();
       } else {
-        LOG.debug("Not refreshing SP metadata. Not modified");
+        LOG.debug("Not refreshing metadata. Not modified");
       }
-      //now maybe this is the first successful call after a failure, so check and change the refreshInMinutes
-      if (lastCallFailed) {
-        schedule(refreshInMinutes, TimeUnit.MINUTES);
+      this.metadataLoaded = true;
+      if (retrying) {
+        retrying = false;
+        schedule(refreshInMinutes, refreshInMinutes, TimeUnit.MINUTES);
       }
-      lastCallFailed = false;
     } catch (Throwable e) {
+      discardDownloads();
       /*
        * By design we catch the error and not rethrow it.
        *
-       * UrlResourceServiceRegistry has timing issues when the server reboots and required MetadataExporter endpoints
-       * are not available yet. We re-schedule the timer to try every 5 seconds until it's succeeds
+       * If we already have metadata - e.g. from the snapshot - we keep on using it until the next scheduled refresh. If
+       * not, then the server has just started and the MetadataExporter endpoints are not available yet. We re-schedule
+       * the timer to try every 5 seconds until it's succeeds
        */
       LOG.error("Error in refreshing / initializing metadata", e);
-      lastCallFailed = true;
-      schedule(5, TimeUnit.SECONDS);
+      if (!metadataLoaded && !retrying) {
+        retrying = true;
+        schedule(5, 5, TimeUnit.SECONDS);
+      }
     }
   }
 
-  @Override
-  protected void initializeMetadata() {
-    doInitializeMetadata(false);
+  private void discardDownloads() {
+    try {
+      idpSnapshot.discard();
+      spSnapshot.discard();
+    } catch (IOException e) {
+      LOG.warn("Error in discarding the downloaded metadata", e);
+    }
   }
 
   @Override
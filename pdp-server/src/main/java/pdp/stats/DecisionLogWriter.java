@@ -0,0 +1,55 @@
+package pdp.stats;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import pdp.util.AbstractBatchingJdbcWriter;
+
+import java.sql.Timestamp;
+
+/*
+ * Thread-safe
+ *
+ * Writes every decision as one row with a column per statistic, so the decisions can be analyzed and rolled up in SQL,
+ * see DecisionRollups.
+ */
+public class DecisionLogWriter extends AbstractBatchingJdbcWriter<DecisionLogWriter.LoggedDecision> {
+
+  public static final String TEAMS_PIP = "teams_pip";
+  public static final String SAB_PIP = "sab_pip";
+
+  public DecisionLogWriter(JdbcTemplate jdbcTemplate, int queueCapacity, int batchSize, long offerTimeoutMs, long flushIntervalMs) {
+    super(jdbcTemplate, "stats.decisions.log", queueCapacity, batchSize, offerTimeoutMs, flushIntervalMs);
+  }
+
+  public void write(StatsContext context) {
+    //the created timestamp is taken now, otherwise the flush interval would skew the stats
+    enqueue(new LoggedDecision(context, new Timestamp(System.currentTimeMillis())));
+  }
+
+  @Override
+  protected String insertStatement() {
+    return "INSERT INTO pdp_decision_log (created, sp_entity_id, idp_entity_id, decision, response_time_ms, teams_pip_ms, sab_pip_ms) " +
+        "VALUES (?, ?, ?, ?, ?, ?, ?)";
+  }
+
+  @Override
+  protected Object[] insertArguments(LoggedDecision loggedDecision) {
+    StatsContext context = loggedDecision.context;
+    return new Object[]{loggedDecision.created, context.getServiceProvicer(), nullToEmpty(context.getIdentityProvider()),
+        nullToEmpty(context.getDecision()), context.getResponseTimeMs(), context.getPipResponses().get(TEAMS_PIP),
+        context.getPipResponses().get(SAB_PIP)};
+  }
+
+  private String nullToEmpty(String s) {
+    return s == null ? "" : s;
+  }
+
+  static class LoggedDecision {
+    private final StatsContext context;
+    private final Timestamp created;
+
+    private LoggedDecision(StatsContext context, Timestamp created) {
+      this.context = context;
+      this.created = created;
+    }
+  }
+}
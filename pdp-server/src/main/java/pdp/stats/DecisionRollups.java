@@ -0,0 +1,192 @@
+package pdp.stats;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import pdp.domain.PdpDecisionRollup;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.concurrent.Executors.newScheduledThreadPool;
+
+/*
+ * Thread-safe
+ *
+ * Rolls up the decision log per minute and per hour for every SP, IdP and decision with the number of decisions, the
+ * response times as totals and a latency histogram and the PIP calls, so stats questions are answered from a few rows
+ * instead of parsing every decision.
+ *
+ * Only the node that is responsible for the cron jobs rolls up. Every minute the minutes since the last roll up are
+ * rolled up again from the log - except for the last minute as the decision writer is still flushing its rows - and the
+ * hours they are part of are rolled up again from the minutes. Rows can arrive late - the writers flush in batches, their
+ * queues back up when the database is slow and the clocks of the nodes differ - so the trailing minutes are always
+ * rolled up again. Rolling up deletes and inserts, so it can safely be repeated. The log and the minute roll ups are deleted after the retention period, the hour roll ups are kept.
+ */
+public class DecisionRollups {
+
+  public static final String MINUTE = "MINUTE";
+  public static final String HOUR = "HOUR";
+
+  private static final Logger LOG = LoggerFactory.getLogger(DecisionRollups.class);
+
+  private static final String[] HISTOGRAM_COLUMNS = {"le_10_ms", "le_50_ms", "le_100_ms", "le_250_ms", "le_500_ms", "le_1000_ms", "gt_1000_ms"};
+  private static final String[] HISTOGRAM_BUCKETS = {"10", "50", "100", "250", "500", "1000", "+Inf"};
+
+  private static final String COLUMNS = "granularity, period_start, sp_entity_id, idp_entity_id, decision, decisions, " +
+      "response_time_total_ms, response_time_max_ms, le_10_ms, le_50_ms, le_100_ms, le_250_ms, le_500_ms, le_1000_ms, " +
+      "gt_1000_ms, teams_pip_calls, teams_pip_total_ms, sab_pip_calls, sab_pip_total_ms";
+
+  private static final String MINUTE_ROLLUP = "INSERT INTO pdp_decision_rollups (" + COLUMNS + ") " +
+      "SELECT 'MINUTE', DATE_FORMAT(created, '%Y-%m-%d %H:%i:00'), sp_entity_id, idp_entity_id, decision, COUNT(*), " +
+      "SUM(response_time_ms), MAX(response_time_ms), SUM(response_time_ms <= 10), " +
+      "SUM(response_time_ms > 10 AND response_time_ms <= 50), SUM(response_time_ms > 50 AND response_time_ms <= 100), " +
+      "SUM(response_time_ms > 100 AND response_time_ms <= 250), SUM(response_time_ms > 250 AND response_time_ms <= 500), " +
+      "SUM(response_time_ms > 500 AND response_time_ms <= 1000), SUM(response_time_ms > 1000), " +
+      "COUNT(teams_pip_ms), COALESCE(SUM(teams_pip_ms), 0), COUNT(sab_pip_ms), COALESCE(SUM(sab_pip_ms), 0) " +
+      "FROM pdp_decision_log WHERE created >= ? AND created < ? " +
+      "GROUP BY DATE_FORMAT(created, '%Y-%m-%d %H:%i:00'), sp_entity_id, idp_entity_id, decision";
+
+  private static final String HOUR_ROLLUP = "INSERT INTO pdp_decision_rollups (" + COLUMNS + ") " +
+      "SELECT 'HOUR', DATE_FORMAT(period_start, '%Y-%m-%d %H:00:00'), sp_entity_id, idp_entity_id, decision, SUM(decisions), " +
+      "SUM(response_time_total_ms), MAX(response_time_max_ms), SUM(le_10_ms), SUM(le_50_ms), SUM(le_100_ms), " +
+      "SUM(le_250_ms), SUM(le_500_ms), SUM(le_1000_ms), SUM(gt_1000_ms), SUM(teams_pip_calls), SUM(teams_pip_total_ms), " +
+      "SUM(sab_pip_calls), SUM(sab_pip_total_ms) " +
+      "FROM pdp_decision_rollups WHERE granularity = 'MINUTE' AND period_start >= DATE_FORMAT(?, '%Y-%m-%d %H:00:00') AND period_start < ? " +
+      "GROUP BY DATE_FORMAT(period_start, '%Y-%m-%d %H:00:00'), sp_entity_id, idp_entity_id, decision";
+
+  private final JdbcTemplate jdbcTemplate;
+  private final TransactionTemplate transactionTemplate;
+  private final int retentionDays;
+  private final int trailingMinutes;
+
+  //the start of the first minute that is not rolled up yet, null until the first roll up
+  private Timestamp rolledUpUntil;
+
+  public DecisionRollups(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager, int retentionDays,
+                         int trailingMinutes, boolean pdpCronJobResponsible) {
+    this.jdbcTemplate = jdbcTemplate;
+    this.transactionTemplate = new TransactionTemplate(transactionManager);
+    this.retentionDays = retentionDays;
+    this.trailingMinutes = trailingMinutes;
+    if (pdpCronJobResponsible) {
+      ScheduledExecutorService executor = newScheduledThreadPool(1);
+      executor.scheduleWithFixedDelay(() -> safely(() -> rollUp(Instant.now())), 1, 1, TimeUnit.MINUTES);
+      executor.scheduleWithFixedDelay(() -> safely(() -> deleteOlderThenRetentionDays(Instant.now())), 0, 1, TimeUnit.DAYS);
+    }
+  }
+
+  /**
+   * Rolls up all the minutes of the log since the previous roll up - and the trailing minutes before it - until the
+   * minute before the current minute
+   */
+  public synchronized void rollUp(Instant now) {
+    Timestamp until = Timestamp.from(now.truncatedTo(ChronoUnit.MINUTES).minus(1, ChronoUnit.MINUTES));
+    Timestamp trailing = Timestamp.from(until.toInstant().minus(trailingMinutes, ChronoUnit.MINUTES));
+    Timestamp from = rolledUpUntil != null ? rolledUpUntil : start(until);
+    from = from.before(trailing) ? from : trailing;
+    if (from.before(until)) {
+      rollUp(from, until);
+    }
+    this.rolledUpUntil = until;
+  }
+
+  /**
+   * Rolls up the minutes of the log in the period again, and the hours the minutes are part of
+   */
+  public void rollUp(Timestamp from, Timestamp until) {
+    transactionTemplate.execute(status -> {
+      jdbcTemplate.update("DELETE FROM pdp_decision_rollups WHERE granularity = 'MINUTE' AND period_start >= ? AND period_start < ?", from, until);
+      int minutes = jdbcTemplate.update(MINUTE_ROLLUP, from, until);
+      jdbcTemplate.update("DELETE FROM pdp_decision_rollups WHERE granularity = 'HOUR' AND " +
+          "period_start >= DATE_FORMAT(?, '%Y-%m-%d %H:00:00') AND period_start < ?", from, until);
+      jdbcTemplate.update(HOUR_ROLLUP, from, until);
+      LOG.debug("Rolled up decisions from {} until {} in {} rows", from, until, minutes);
+      return minutes;
+    });
+  }
+
+  /**
+   * The roll ups of the granularity since the date ordered by period, optionally only the ones of the SP, IdP and /
+   * or decision
+   */
+  public List<PdpDecisionRollup> rollups(String granularity, Date since, Optional<String> serviceProvider,
+                                         Optional<String> identityProvider, Optional<String> decision) {
+    List<Object> args = new ArrayList<>();
+    args.add(granularity);
+    args.add(since);
+    StringBuilder sql = new StringBuilder("SELECT " + COLUMNS + " FROM pdp_decision_rollups WHERE granularity = ? AND period_start >= ?");
+    serviceProvider.ifPresent(sp -> {
+      sql.append(" AND sp_entity_id = ?");
+      args.add(sp);
+    });
+    identityProvider.ifPresent(idp -> {
+      sql.append(" AND idp_entity_id = ?");
+      args.add(idp);
+    });
+    decision.ifPresent(d -> {
+      sql.append(" AND decision = ?");
+      args.add(d);
+    });
+    sql.append(" ORDER BY period_start, sp_entity_id, idp_entity_id, decision");
+
+    return jdbcTemplate.query(sql.toString(), args.toArray(), (rs, rowNum) -> {
+      PdpDecisionRollup rollup = new PdpDecisionRollup();
+      rollup.setGranularity(rs.getString("granularity"));
+      rollup.setPeriodStart(rs.getTimestamp("period_start"));
+      rollup.setServiceProvider(rs.getString("sp_entity_id"));
+      rollup.setIdentityProvider(rs.getString("idp_entity_id"));
+      rollup.setDecision(rs.getString("decision"));
+      rollup.setDecisions(rs.getLong("decisions"));
+      rollup.setResponseTimeTotalMs(rs.getLong("response_time_total_ms"));
+      rollup.setResponseTimeMaxMs(rs.getLong("response_time_max_ms"));
+      Map<String, Long> histogram = new LinkedHashMap<>();
+      for (int i = 0; i < HISTOGRAM_COLUMNS.length; i++) {
+        histogram.put(HISTOGRAM_BUCKETS[i], rs.getLong(HISTOGRAM_COLUMNS[i]));
+      }
+      rollup.setLatencyHistogram(histogram);
+      rollup.setTeamsPipCalls(rs.getLong("teams_pip_calls"));
+      rollup.setTeamsPipTotalMs(rs.getLong("teams_pip_total_ms"));
+      rollup.setSabPipCalls(rs.getLong("sab_pip_calls"));
+      rollup.setSabPipTotalMs(rs.getLong("sab_pip_total_ms"));
+      return rollup;
+    });
+  }
+
+  public void deleteOlderThenRetentionDays(Instant now) {
+    Timestamp before = Timestamp.from(now.minus(retentionDays, ChronoUnit.DAYS));
+    int logged = jdbcTemplate.update("DELETE FROM pdp_decision_log WHERE created < ?", before);
+    int minutes = jdbcTemplate.update("DELETE FROM pdp_decision_rollups WHERE granularity = 'MINUTE' AND period_start < ?", before);
+    LOG.info("Deleted {} logged decisions and {} minute roll ups older then {} days", logged, minutes, retentionDays);
+  }
+
+  //after a restart we continue after the last rolled up minute or start with the first logged decision
+  private Timestamp start(Timestamp until) {
+    Timestamp lastMinute = jdbcTemplate.queryForObject("SELECT MAX(period_start) FROM pdp_decision_rollups WHERE granularity = 'MINUTE'", Timestamp.class);
+    if (lastMinute != null) {
+      return Timestamp.from(lastMinute.toInstant().plus(1, ChronoUnit.MINUTES));
+    }
+    Timestamp firstLogged = jdbcTemplate.queryForObject("SELECT MIN(created) FROM pdp_decision_log", Timestamp.class);
+    return firstLogged != null ? Timestamp.from(firstLogged.toInstant().truncatedTo(ChronoUnit.MINUTES)) : until;
+  }
+
+  private void safely(Runnable runnable) {
+    try {
+      runnable.run();
+    } catch (RuntimeException e) {
+      //an exception would cancel all future executions
+      LOG.error("Failed to roll up or clean up the decisions", e);
+    }
+  }
+}
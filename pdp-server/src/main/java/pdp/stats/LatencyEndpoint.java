@@ -0,0 +1,25 @@
+package pdp.stats;
+
+import org.springframework.boot.actuate.endpoint.AbstractEndpoint;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.Map;
+
+/*
+ * Exposes the LatencyMetrics as /latency, enabled with endpoints.latency.enabled
+ */
+@ConfigurationProperties(prefix = "endpoints.latency")
+public class LatencyEndpoint extends AbstractEndpoint<Map<String, Object>> {
+
+  private final LatencyMetrics latencyMetrics;
+
+  public LatencyEndpoint(LatencyMetrics latencyMetrics) {
+    super("latency");
+    this.latencyMetrics = latencyMetrics;
+  }
+
+  @Override
+  public Map<String, Object> invoke() {
+    return latencyMetrics.percentiles();
+  }
+}
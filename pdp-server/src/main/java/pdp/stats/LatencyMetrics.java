@@ -0,0 +1,115 @@
+package pdp.stats;
+
+import pdp.util.LatencyHistogram;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Thread-safe
+ *
+ * In-process latency histograms of the decide requests and its phases - parsing the request, evaluating the policies,
+ * serializing the response, recording the violation and every PIP call - per decision, so we can alert on the
+ * percentiles without querying the decisions in the database.
+ *
+ * The percentiles since start hardly move after a while, so the percentiles of the last complete interval are reported
+ * as well. Recording is a few atomic increments and is done after the response has been sent, see PdpController.
+ */
+public class LatencyMetrics {
+
+  public static final String DECIDE = "decide";
+  public static final String PARSE = "parse";
+  public static final String EVALUATE = "evaluate";
+  public static final String SERIALIZE = "serialize";
+  public static final String VIOLATION = "violation";
+  public static final String PIP = "pip.";
+
+  private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+  private static final String[] PERCENTILE_NAMES = {"p50", "p90", "p99", "p999"};
+
+  private final long intervalMs;
+  private final Interval sinceStart = new Interval(System.currentTimeMillis());
+
+  private volatile Interval current;
+  private volatile Interval previous;
+
+  public LatencyMetrics(long intervalSeconds) {
+    this.intervalMs = TimeUnit.SECONDS.toMillis(intervalSeconds);
+    this.current = new Interval(System.currentTimeMillis());
+    this.previous = new Interval(current.start - intervalMs);
+  }
+
+  public void record(StatsContext context) {
+    String decision = context.getDecision() != null ? context.getDecision() : "Error";
+    Interval interval = interval(System.currentTimeMillis());
+    context.getTimingsNanos().forEach((name, nanos) -> {
+      String key = name + "." + decision;
+      sinceStart.histogram(key).record(nanos);
+      interval.histogram(key).record(nanos);
+    });
+  }
+
+  /**
+   * Count, mean, percentiles and max in milliseconds per phase and decision for the last complete interval and since
+   * start
+   */
+  public Map<String, Object> percentiles() {
+    interval(System.currentTimeMillis());
+    Map<String, Object> result = new LinkedHashMap<>();
+    result.put("intervalSeconds", TimeUnit.MILLISECONDS.toSeconds(intervalMs));
+    result.put("lastInterval", percentiles(previous));
+    result.put("sinceStart", percentiles(sinceStart));
+    return result;
+  }
+
+  private Map<String, Map<String, Object>> percentiles(Interval interval) {
+    Map<String, Map<String, Object>> result = new TreeMap<>();
+    interval.histograms.forEach((key, histogram) -> {
+      Map<String, Object> values = new LinkedHashMap<>();
+      values.put("count", histogram.count());
+      values.put("mean", millis(histogram.mean()));
+      for (int i = 0; i < PERCENTILES.length; i++) {
+        values.put(PERCENTILE_NAMES[i], millis(histogram.percentile(PERCENTILES[i])));
+      }
+      values.put("max", millis(histogram.max()));
+      result.put(key, values);
+    });
+    return result;
+  }
+
+  private Interval interval(long now) {
+    Interval interval = this.current;
+    if (now < interval.start + intervalMs) {
+      return interval;
+    }
+    synchronized (this) {
+      if (now >= current.start + intervalMs) {
+        //if nothing was recorded during the last interval then the current one is not the previous one
+        this.previous = now < current.start + 2 * intervalMs ? current : new Interval(now - intervalMs);
+        this.current = new Interval(now);
+      }
+      return current;
+    }
+  }
+
+  private double millis(double nanos) {
+    return Math.round(nanos / 1000) / 1000D;
+  }
+
+  private static class Interval {
+    private final long start;
+    private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+    private Interval(long start) {
+      this.start = start;
+    }
+
+    private LatencyHistogram histogram(String key) {
+      return histograms.computeIfAbsent(key, k -> new LatencyHistogram());
+    }
+  }
+}
@@ -0,0 +1,37 @@
+package pdp.stats;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import pdp.domain.PdpDecision;
+import pdp.util.AbstractBatchingJdbcWriter;
+
+import java.sql.Timestamp;
+
+/*
+ * Thread-safe
+ *
+ * Writes the JSON of every decision, with the timings of the PIPs, to pdp_decisions for the stats of the GUI.
+ */
+public class PdpDecisionWriter extends AbstractBatchingJdbcWriter<PdpDecision> {
+
+  public PdpDecisionWriter(JdbcTemplate jdbcTemplate, int queueCapacity, int batchSize, long offerTimeoutMs, long flushIntervalMs) {
+    super(jdbcTemplate, "stats.decisions", queueCapacity, batchSize, offerTimeoutMs, flushIntervalMs);
+  }
+
+  public void write(PdpDecision pdpDecision) {
+    if (pdpDecision.getCreated() == null) {
+      //otherwise the flush interval would skew the stats
+      pdpDecision.setCreated(new Timestamp(System.currentTimeMillis()));
+    }
+    enqueue(pdpDecision);
+  }
+
+  @Override
+  protected String insertStatement() {
+    return "INSERT INTO pdp_decisions (decision_json, created) VALUES (?, ?)";
+  }
+
+  @Override
+  protected Object[] insertArguments(PdpDecision pdpDecision) {
+    return new Object[]{pdpDecision.getDecisionJson(), pdpDecision.getCreated()};
+  }
+}
@@ -0,0 +1,132 @@
+package pdp.stats;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.springframework.jdbc.core.JdbcTemplate;
+import pdp.JsonMapper;
+import pdp.util.AbstractBatchingJdbcWriter;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static pdp.xacml.PdpPolicyDefinitionParser.IDP_ENTITY_ID;
+
+/*
+ * Thread-safe
+ *
+ * Policy violations are written in the background, see AbstractBatchingJdbcWriter. If collapseDuplicates is true then
+ * identical violations - same policy, same request and both playground or not - of one batch are stored as one row with
+ * the number of occurrences.
+ */
+public class PolicyViolationWriter extends AbstractBatchingJdbcWriter<PolicyViolationWriter.PolicyViolation> implements JsonMapper {
+
+  private final boolean collapseDuplicates;
+
+  public PolicyViolationWriter(JdbcTemplate jdbcTemplate, int queueCapacity, int batchSize, long offerTimeoutMs,
+                               long flushIntervalMs, boolean collapseDuplicates) {
+    super(jdbcTemplate, "policy.violations", queueCapacity, batchSize, offerTimeoutMs, flushIntervalMs);
+    this.collapseDuplicates = collapseDuplicates;
+  }
+
+  public void write(Long policyRowId, String jsonRequest, String response, boolean isPlayground) {
+    enqueue(new PolicyViolation(policyRowId, jsonRequest, response, isPlayground, new Timestamp(System.currentTimeMillis())));
+  }
+
+  @Override
+  protected String insertStatement() {
+    //the policy might have been deleted since the engine loaded it and violations without a policy can't be shown
+    return "INSERT INTO pdp_policy_violations (policy_id, json_request, response, created, is_playground, occurrences, idp_entity_id) " +
+        "SELECT id, ?, ?, ?, ?, ?, ? FROM pdp_policies WHERE id = ?";
+  }
+
+  @Override
+  protected Object[] insertArguments(PolicyViolation violation) {
+    //parsed on the writer thread and only once for collapsed duplicates
+    return new Object[]{violation.jsonRequest, violation.response, violation.created, violation.isPlayground,
+        violation.occurrences, identityProviderEntityId(violation.jsonRequest), violation.policyRowId};
+  }
+
+  /**
+   * Returns the IdP entityId of the resource in the XACML JSON request or null if not present or not parseable
+   */
+  static String identityProviderEntityId(String jsonRequest) {
+    if (jsonRequest == null) {
+      return null;
+    }
+    try {
+      JsonNode root = objectMapper.readTree(jsonRequest);
+      if (root == null) {
+        return null;
+      }
+      JsonNode attributes = root.path("Request").path("Resource").path("Attribute");
+      for (JsonNode attribute : attributes) {
+        if (IDP_ENTITY_ID.equals(attribute.path("AttributeId").asText())) {
+          JsonNode value = attribute.path("Value");
+          return (value.isArray() ? value.path(0) : value).asText(null);
+        }
+      }
+      return null;
+    } catch (IOException e) {
+      //the violation can then only be seen by users who may see all violations
+      return null;
+    }
+  }
+
+  @Override
+  protected List<PolicyViolation> collapse(List<PolicyViolation> batch) {
+    if (!collapseDuplicates) {
+      return batch;
+    }
+    Map<PolicyViolation, PolicyViolation> collapsed = new LinkedHashMap<>();
+    batch.forEach(violation -> collapsed.merge(violation, violation, (first, duplicate) -> first.withOccurrence()));
+    return new ArrayList<>(collapsed.values());
+  }
+
+  /*
+   * Equality deliberately ignores the response, created and occurrences
+   */
+  static class PolicyViolation {
+    private final Long policyRowId;
+    private final String jsonRequest;
+    private final String response;
+    private final boolean isPlayground;
+    private final Timestamp created;
+    private final int occurrences;
+
+    PolicyViolation(Long policyRowId, String jsonRequest, String response, boolean isPlayground, Timestamp created) {
+      this(policyRowId, jsonRequest, response, isPlayground, created, 1);
+    }
+
+    private PolicyViolation(Long policyRowId, String jsonRequest, String response, boolean isPlayground, Timestamp created, int occurrences) {
+      this.policyRowId = policyRowId;
+      this.jsonRequest = jsonRequest;
+      this.response = response;
+      this.isPlayground = isPlayground;
+      this.created = created;
+      this.occurrences = occurrences;
+    }
+
+    private PolicyViolation withOccurrence() {
+      return new PolicyViolation(policyRowId, jsonRequest, response, isPlayground, created, occurrences + 1);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      PolicyViolation that = (PolicyViolation) o;
+      return isPlayground == that.isPlayground && policyRowId.equals(that.policyRowId) && jsonRequest.equals(that.jsonRequest);
+    }
+
+    @Override
+    public int hashCode() {
+      int result = policyRowId.hashCode();
+      result = 31 * result + jsonRequest.hashCode();
+      result = 31 * result + (isPlayground ? 1 : 0);
+      return result;
+    }
+  }
+}
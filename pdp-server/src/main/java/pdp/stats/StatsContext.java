@@ -1,8 +1,11 @@
 package pdp.stats;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -14,6 +17,8 @@ public class StatsContext {
   private long responseTimeMs;
   private Map<String, Long> pipResponses = new HashMap<>();
   private String decision;
+  //only in-process, see LatencyMetrics
+  private Map<String, Long> timingsNanos = new LinkedHashMap<>();
 
   public String getServiceProvicer() {
     return serviceProvicer;
@@ -54,4 +59,13 @@ public class StatsContext {
   public void addPipResponse(String name, long ms) {
     this.pipResponses.put(name, ms);
   }
+
+  @JsonIgnore
+  public Map<String, Long> getTimingsNanos() {
+    return timingsNanos;
+  }
+
+  public void addTiming(String name, long nanos) {
+    this.timingsNanos.put(name, nanos);
+  }
 }
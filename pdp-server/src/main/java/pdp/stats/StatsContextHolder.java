@@ -3,66 +3,72 @@ package pdp.stats;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import pdp.JsonMapper;
 import pdp.domain.PdpDecision;
-import pdp.repositories.PdpDecisionRepository;
-
-import javax.servlet.ServletRequestEvent;
-import javax.servlet.ServletRequestListener;
-import javax.servlet.http.HttpServletRequest;
 
 /**
- * We need to keep track of response times, but we do not have the correct hooks in the XACML lib. So
- * we use ThreadLocal to store stats and clear and instantiate them here
+ * We need to keep track of response times, but we do not have the correct hooks in the XACML lib. A decide request
+ * creates its StatsContext and binds it to the thread that decides - which is not necessarily the servlet thread, see
+ * PdpController - so the PIPs can find it. When the decision is done the context is recorded.
  */
-public class StatsContextHolder implements ServletRequestListener, JsonMapper {
+public class StatsContextHolder implements JsonMapper {
 
   private static final ThreadLocal<StatsContext> contextHolder = new ThreadLocal<>();
 
-  private final String path;
-  private final PdpDecisionRepository decisionRepository;
-
-  public StatsContextHolder(String path, PdpDecisionRepository decisionRepository) {
-    this.path = path;
-    this.decisionRepository = decisionRepository;
-  }
-
-  @Override
-  public void requestInitialized(ServletRequestEvent sre) {
-    if (applyForPath(sre)) {
-      contextHolder.set(new StatsContext());
-    }
-  }
+  private final PdpDecisionWriter decisionWriter;
+  private final DecisionLogWriter decisionLogWriter;
+  private final LatencyMetrics latencyMetrics;
 
-  @Override
-  public void requestDestroyed(ServletRequestEvent sre) {
-    if (applyForPath(sre)) {
-      StatsContext context = contextHolder.get();
-      new Thread(() -> saveContext(context)).start();
-      contextHolder.remove();
-    }
+  public StatsContextHolder(PdpDecisionWriter decisionWriter, DecisionLogWriter decisionLogWriter,
+                            LatencyMetrics latencyMetrics) {
+    this.decisionWriter = decisionWriter;
+    this.decisionLogWriter = decisionLogWriter;
+    this.latencyMetrics = latencyMetrics;
   }
 
-  private void saveContext(StatsContext context) {
+  public void record(StatsContext context) {
     if (context.getServiceProvicer() == null) {
       return;
     }
+    latencyMetrics.record(context);
+    decisionLogWriter.write(context);
     try {
-      PdpDecision pdpDecision = new PdpDecision();
-      pdpDecision.setDecisionJson(objectMapper.writeValueAsString(context));
-      decisionRepository.save(pdpDecision);
+      decisionWriter.write(new PdpDecision(objectMapper.writeValueAsString(context)));
     } catch (JsonProcessingException e) {
       throw new RuntimeException(e);
     }
   }
 
-  private boolean applyForPath(ServletRequestEvent sre) {
-    return ((HttpServletRequest) sre.getServletRequest()).getRequestURI().endsWith(path);
+  /**
+   * Binds the context to the current thread until the Binding is closed, the previously bound context is restored then
+   */
+  public static Binding bind(StatsContext context) {
+    StatsContext previous = contextHolder.get();
+    contextHolder.set(context);
+    return new Binding(previous);
   }
 
+  /**
+   * The context bound to the current thread or a context that is not recorded if there is none, e.g. for decisions
+   * outside of a decide request
+   */
   public static StatsContext getContext() {
     StatsContext ctx = contextHolder.get();
-    if (ctx == null) {
-      contextHolder.set(new StatsContext());
+    return ctx != null ? ctx : new StatsContext();
+  }
+
+  public static class Binding implements AutoCloseable {
+    private final StatsContext previous;
+
+    private Binding(StatsContext previous) {
+      this.previous = previous;
+    }
+
+    @Override
+    public void close() {
+      if (previous == null) {
+        contextHolder.remove();
+      } else {
+        contextHolder.set(previous);
+      }
     }
-    return contextHolder.get();
   }
 }
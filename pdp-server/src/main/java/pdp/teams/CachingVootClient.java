@@ -0,0 +1,50 @@
+package pdp.teams;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import pdp.util.CacheUtils;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Thread-safe
+ *
+ * Concurrent lookups for the same user wait for the one call to VOOT in progress. Exceptions are not cached.
+ */
+public class CachingVootClient extends VootClient implements PublicMetrics {
+
+  private final VootClient vootClient;
+  private final boolean cacheEmptyGroups;
+  private final Cache<String, List<String>> cache;
+
+  public CachingVootClient(VootClient vootClient, long timeToLiveSeconds, long maximumSize, boolean cacheEmptyGroups) {
+    super(null, null);
+    this.vootClient = vootClient;
+    this.cacheEmptyGroups = cacheEmptyGroups;
+    this.cache = CacheBuilder.newBuilder()
+        .expireAfterWrite(timeToLiveSeconds, TimeUnit.SECONDS)
+        .maximumSize(maximumSize)
+        .recordStats()
+        .build();
+  }
+
+  @Override
+  public List<String> groups(String userUrn) {
+    List<String> groups = CacheUtils.get(cache, userUrn, () -> Collections.unmodifiableList(vootClient.groups(userUrn)));
+    if (groups.isEmpty() && !cacheEmptyGroups) {
+      //concurrent lookups have been served, but the next one will hit VOOT again
+      cache.invalidate(userUrn);
+    }
+    return groups;
+  }
+
+  @Override
+  public Collection<Metric<?>> metrics() {
+    return CacheUtils.metrics("pip.teams_pip.cache", cache);
+  }
+}
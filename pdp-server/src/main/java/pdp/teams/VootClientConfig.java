@@ -35,10 +35,20 @@ public class VootClientConfig {
   @Value("${voot.serviceUrl}")
   private String vootServiceUrl;
 
+  @Value("${voot.cache.timeToLiveSeconds}")
+  private long cacheTimeToLiveSeconds;
+
+  @Value("${voot.cache.maximumSize}")
+  private long cacheMaximumSize;
+
+  @Value("${voot.cache.emptyGroups}")
+  private boolean cacheEmptyGroups;
+
   @Bean
   @Profile({"test", "acc", "prod"})
   public VootClient vootClient() {
-    return new VootClient(vootRestTemplate(), vootServiceUrl);
+    VootClient vootClient = new VootClient(vootRestTemplate(), vootServiceUrl);
+    return new CachingVootClient(vootClient, cacheTimeToLiveSeconds, cacheMaximumSize, cacheEmptyGroups);
   }
 
   @Bean
@@ -0,0 +1,110 @@
+package pdp.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.support.TaskUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.stream.Collectors.toList;
+
+/*
+ * Thread-safe
+ *
+ * Rows are queued by the request threads and inserted in JDBC batches by one background thread. When the queue is
+ * full the request thread waits at most offerTimeoutMs - zero means not at all - after which the row is dropped.
+ * Writing rows must never slow down or fail the decide requests.
+ */
+public abstract class AbstractBatchingJdbcWriter<T> implements PublicMetrics, DisposableBean {
+
+  private static final Logger LOG = LoggerFactory.getLogger(AbstractBatchingJdbcWriter.class);
+
+  private final JdbcTemplate jdbcTemplate;
+  private final String metricsPrefix;
+  private final BlockingQueue<T> queue;
+  private final int batchSize;
+  private final long offerTimeoutMs;
+  private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+  private final AtomicLong dropped = new AtomicLong();
+  private final AtomicLong written = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+
+  protected AbstractBatchingJdbcWriter(JdbcTemplate jdbcTemplate, String metricsPrefix, int queueCapacity, int batchSize,
+                                       long offerTimeoutMs, long flushIntervalMs) {
+    this.jdbcTemplate = jdbcTemplate;
+    this.metricsPrefix = metricsPrefix;
+    this.queue = new ArrayBlockingQueue<>(queueCapacity);
+    this.batchSize = batchSize;
+    this.offerTimeoutMs = offerTimeoutMs;
+    executor.scheduleWithFixedDelay(
+        TaskUtils.decorateTaskWithErrorHandler(this::flush, t -> LOG.error("Exception in flushing " + metricsPrefix, t), true),
+        flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+  }
+
+  protected abstract String insertStatement();
+
+  protected abstract Object[] insertArguments(T row);
+
+  /**
+   * Hook to merge rows of one batch before they are inserted
+   */
+  protected List<T> collapse(List<T> batch) {
+    return batch;
+  }
+
+  protected void enqueue(T row) {
+    boolean queued;
+    try {
+      queued = offerTimeoutMs > 0 ? queue.offer(row, offerTimeoutMs, TimeUnit.MILLISECONDS) : queue.offer(row);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      queued = false;
+    }
+    if (!queued) {
+      dropped.incrementAndGet();
+    }
+  }
+
+  public synchronized void flush() {
+    List<T> batch = new ArrayList<>(batchSize);
+    while (queue.drainTo(batch, batchSize) > 0) {
+      List<Object[]> batchArgs = collapse(batch).stream().map(this::insertArguments).collect(toList());
+      try {
+        jdbcTemplate.batchUpdate(insertStatement(), batchArgs);
+        written.addAndGet(batch.size());
+      } catch (RuntimeException e) {
+        //we don't retry as the database might be the reason of the queue filling up
+        failed.addAndGet(batch.size());
+        LOG.error("Failed to insert {} rows of {}", batch.size(), metricsPrefix, e);
+      }
+      batch.clear();
+    }
+  }
+
+  @Override
+  public void destroy() throws Exception {
+    executor.shutdown();
+    flush();
+  }
+
+  @Override
+  public Collection<Metric<?>> metrics() {
+    return Arrays.asList(
+        new Metric<>(metricsPrefix + ".queue.depth", queue.size()),
+        new Metric<>(metricsPrefix + ".queue.remainingCapacity", queue.remainingCapacity()),
+        new Metric<>(metricsPrefix + ".dropped", dropped.get()),
+        new Metric<>(metricsPrefix + ".written", written.get()),
+        new Metric<>(metricsPrefix + ".failed", failed.get())
+    );
+  }
+}
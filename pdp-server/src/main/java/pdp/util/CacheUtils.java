@@ -0,0 +1,40 @@
+package pdp.util;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.springframework.boot.actuate.metrics.Metric;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+public abstract class CacheUtils {
+
+  /**
+   * Guava wraps the exception of the loader, we want the callers to see the original exception
+   */
+  public static <K, V> V get(Cache<K, V> cache, K key, Callable<? extends V> loader) {
+    try {
+      return cache.get(key, loader);
+    } catch (ExecutionException | UncheckedExecutionException | ExecutionError e) {
+      throw Throwables.propagate(e.getCause());
+    }
+  }
+
+  public static Collection<Metric<?>> metrics(String prefix, Cache<?, ?> cache) {
+    CacheStats stats = cache.stats();
+    return Arrays.asList(
+        new Metric<>(prefix + ".size", cache.size()),
+        new Metric<>(prefix + ".hits", stats.hitCount()),
+        new Metric<>(prefix + ".misses", stats.missCount()),
+        new Metric<>(prefix + ".hitRate", stats.hitRate()),
+        new Metric<>(prefix + ".evictions", stats.evictionCount()),
+        new Metric<>(prefix + ".loadExceptions", stats.loadExceptionCount()),
+        new Metric<>(prefix + ".averageLoadPenaltyMs", stats.averageLoadPenalty() / 1_000_000)
+    );
+  }
+}
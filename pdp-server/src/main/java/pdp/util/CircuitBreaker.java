@@ -0,0 +1,56 @@
+package pdp.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Thread-safe
+ *
+ * Opens after a number of consecutive failed or slow calls. Once open, calls are not allowed until openMillis
+ * have passed after which one single trial call is allowed. A successful trial closes the circuit again.
+ */
+public class CircuitBreaker {
+
+  private final int failureThreshold;
+  private final long openMillis;
+  private final long slowCallMillis;
+
+  private final AtomicInteger consecutiveFailures = new AtomicInteger();
+  private final AtomicLong openUntil = new AtomicLong();
+  private final AtomicLong timesOpened = new AtomicLong();
+
+  public CircuitBreaker(int failureThreshold, long openMillis, long slowCallMillis) {
+    this.failureThreshold = failureThreshold;
+    this.openMillis = openMillis;
+    this.slowCallMillis = slowCallMillis;
+  }
+
+  public boolean allowRequest() {
+    if (consecutiveFailures.get() < failureThreshold) {
+      return true;
+    }
+    long until = openUntil.get();
+    long now = System.currentTimeMillis();
+    //only the caller that pushes the deadline forward gets to do the trial call
+    return now >= until && openUntil.compareAndSet(until, now + openMillis);
+  }
+
+  public void record(boolean success, long durationMillis) {
+    if (success && durationMillis < slowCallMillis) {
+      consecutiveFailures.set(0);
+      return;
+    }
+    if (consecutiveFailures.incrementAndGet() == failureThreshold) {
+      openUntil.set(System.currentTimeMillis() + openMillis);
+      timesOpened.incrementAndGet();
+    }
+  }
+
+  public boolean isOpen() {
+    return consecutiveFailures.get() >= failureThreshold;
+  }
+
+  public long getTimesOpened() {
+    return timesOpened.get();
+  }
+}
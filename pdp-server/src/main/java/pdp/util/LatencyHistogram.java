@@ -0,0 +1,83 @@
+package pdp.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Thread-safe
+ *
+ * Lock-free histogram of latencies in nanoseconds with log-linear buckets like HdrHistogram: the values below 64 have a
+ * bucket of their own and every power of two above is split into 32 buckets, so every recorded value - and every
+ * percentile - is within 1/32 (~3%) of the actual value for the whole range of a long in 16KB.
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BUCKET_BITS) * SUB_BUCKETS + SUB_BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong total = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  public void record(long nanos) {
+    long value = Math.max(0, nanos);
+    counts.incrementAndGet(index(value));
+    count.incrementAndGet();
+    total.addAndGet(value);
+    long currentMax;
+    while (value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value)) {
+      //retry
+    }
+  }
+
+  public long count() {
+    return count.get();
+  }
+
+  public long max() {
+    return max.get();
+  }
+
+  public double mean() {
+    long n = count.get();
+    return n == 0 ? 0 : (double) total.get() / n;
+  }
+
+  /**
+   * The highest value of the bucket the percentile - e.g. 99.9 - falls in, but never more than the maximum
+   */
+  public long percentile(double percentile) {
+    long n = count.get();
+    if (n == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+    long seen = 0;
+    for (int i = 0; i < counts.length(); i++) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        return Math.min(highestValue(i), max.get());
+      }
+    }
+    return max.get();
+  }
+
+  static int index(long value) {
+    if (value < 2 * SUB_BUCKETS) {
+      return (int) value;
+    }
+    //the shift that brings the value in [SUB_BUCKETS, 2 * SUB_BUCKETS)
+    int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    return shift * SUB_BUCKETS + (int) (value >>> shift);
+  }
+
+  static long highestValue(int index) {
+    if (index < 2 * SUB_BUCKETS) {
+      return index;
+    }
+    int shift = index / SUB_BUCKETS - 1;
+    long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+    return ((subBucket + 1) << shift) - 1;
+  }
+}
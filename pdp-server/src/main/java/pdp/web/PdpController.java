@@ -4,12 +4,11 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.type.CollectionType;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
 import com.google.common.net.HttpHeaders;
 import org.apache.openaz.xacml.api.*;
-import org.apache.openaz.xacml.api.pdp.PDPEngine;
+import org.apache.openaz.xacml.std.StdMutableResponse;
 import org.apache.openaz.xacml.std.dom.DOMStructureException;
-import org.apache.openaz.xacml.std.json.JSONRequest;
-import org.apache.openaz.xacml.std.json.JSONResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -17,12 +16,14 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.scheduling.support.TaskUtils;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.util.CollectionUtils;
 import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 import pdp.JsonMapper;
 import pdp.PdpPolicyException;
 import pdp.PolicyNotFoundException;
@@ -30,27 +31,45 @@ import pdp.access.FederatedUser;
 import pdp.access.PolicyAccess;
 import pdp.access.PolicyIdpAccessEnforcer;
 import pdp.conflicts.PolicyConflictService;
+import pdp.policies.PolicyDefinitionReadModel;
 import pdp.domain.*;
 import pdp.mail.MailBox;
+import pdp.repositories.JsonStreamingRepository;
 import pdp.repositories.PdpPolicyRepository;
-import pdp.repositories.PdpPolicyViolationRepository;
 import pdp.serviceregistry.ServiceRegistry;
+import pdp.stats.LatencyMetrics;
+import pdp.stats.PolicyViolationWriter;
 import pdp.stats.StatsContext;
 import pdp.stats.StatsContextHolder;
 import pdp.util.StreamUtils;
+import pdp.xacml.DecisionCache;
+import pdp.xacml.DecisionCache.CachedDecision;
+import pdp.xacml.JsonRequestReader;
+import pdp.xacml.JsonRequestReader.ParsedRequest;
+import pdp.xacml.OpenConextPDPEngine;
 import pdp.xacml.PDPEngineHolder;
 import pdp.xacml.PdpPolicyDefinitionParser;
+import pdp.xacml.PipLookupScope;
 import pdp.xacml.PolicyTemplateEngine;
+import pdp.xacml.ResponseSerializer;
 
 import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toMap;
@@ -68,108 +87,310 @@ public class PdpController implements JsonMapper {
 
   private final static Logger LOG = LoggerFactory.getLogger(PdpController.class);
 
-  private final PDPEngineHolder pdpEngineHolder;
-  private final PdpPolicyViolationRepository pdpPolicyViolationRepository;
+  private final PolicyViolationWriter policyViolationWriter;
   private final PdpPolicyRepository pdpPolicyRepository;
   private final PolicyTemplateEngine policyTemplateEngine = new PolicyTemplateEngine();
-  private final PdpPolicyDefinitionParser pdpPolicyDefinitionParser = new PdpPolicyDefinitionParser();
+  private final JsonRequestReader jsonRequestReader = new JsonRequestReader();
+  private final PdpPolicyDefinitionParser pdpPolicyDefinitionParser;
   private final PolicyConflictService policyConflictService = new PolicyConflictService();
   private final ServiceRegistry serviceRegistry;
   private final PolicyIdpAccessEnforcer policyIdpAccessEnforcer;
-  private final PDPEngine playgroundPdpEngine;
-  private final boolean cachePolicies;
+  private final OpenConextPDPEngine playgroundPdpEngine;
+  private final OpenConextPDPEngine pdpEngine;
+  private final DecisionCache decisionCache;
+  private final PolicyDefinitionReadModel policyDefinitionReadModel;
+  private final JsonStreamingRepository jsonStreamingRepository;
   private final MailBox mailBox;
-
-  // Can't be final as we need to swap this reference for reloading policies in production
-  private volatile PDPEngine pdpEngine;
+  private final StatsContextHolder statsContextHolder;
+  private final Optional<ExecutorService> pipDecisionExecutor;
+  private final long pipDecisionTimeoutMs;
 
   @Autowired
   public PdpController(@Value("${period.policies.refresh.minutes}") int period,
                        @Value("${policies.cachePolicies}") boolean cachePolicies,
-                       PdpPolicyViolationRepository pdpPolicyViolationRepository,
+                       @Value("${decide.async.enabled}") boolean asyncDecisions,
+                       @Value("${decide.async.pip.threads}") int pipDecisionThreads,
+                       @Value("${decide.async.pip.queue.capacity}") int pipDecisionQueueCapacity,
+                       @Value("${decide.async.pip.timeout.ms}") long pipDecisionTimeoutMs,
+                       PolicyViolationWriter policyViolationWriter,
                        PdpPolicyRepository pdpPolicyRepository,
                        PDPEngineHolder pdpEngineHolder,
+                       PdpPolicyDefinitionParser pdpPolicyDefinitionParser,
+                       DecisionCache decisionCache,
+                       PolicyDefinitionReadModel policyDefinitionReadModel,
+                       JsonStreamingRepository jsonStreamingRepository,
                        ServiceRegistry serviceRegistry,
-                       MailBox mailBox) {
-    this.cachePolicies = cachePolicies;
-    this.pdpEngineHolder = pdpEngineHolder;
+                       MailBox mailBox,
+                       StatsContextHolder statsContextHolder) {
     this.playgroundPdpEngine = pdpEngineHolder.newPdpEngine(false, true);
     this.pdpEngine = pdpEngineHolder.newPdpEngine(cachePolicies, false);
-    this.pdpPolicyViolationRepository = pdpPolicyViolationRepository;
+    this.policyViolationWriter = policyViolationWriter;
     this.policyIdpAccessEnforcer = new PolicyIdpAccessEnforcer(serviceRegistry);
     this.pdpPolicyRepository = pdpPolicyRepository;
+    this.pdpPolicyDefinitionParser = pdpPolicyDefinitionParser;
+    this.decisionCache = decisionCache;
+    this.policyDefinitionReadModel = policyDefinitionReadModel;
+    this.jsonStreamingRepository = jsonStreamingRepository;
     this.serviceRegistry = serviceRegistry;
     this.mailBox = mailBox;
-
+    this.statsContextHolder = statsContextHolder;
+    this.pipDecisionExecutor = asyncDecisions ?
+        Optional.of(pipDecisionExecutor(pipDecisionThreads, pipDecisionQueueCapacity)) : Optional.empty();
+    this.pipDecisionTimeoutMs = pipDecisionTimeoutMs;
 
     Executors.newSingleThreadScheduledExecutor().scheduleAtFixedRate(
-        TaskUtils.decorateTaskWithErrorHandler(this::refreshPolicies, t -> LOG.error("Exception in refreshPolicies task", t), true),
+        TaskUtils.decorateTaskWithErrorHandler(() -> {
+          refreshPolicies();
+          policyDefinitionReadModel.refresh();
+        }, t -> LOG.error("Exception in refreshPolicies task", t), true),
         period, period, TimeUnit.MINUTES);
   }
 
+  //the threads wait for the PIPs, the servlet threads only decide the requests that need no PIP
+  private static ExecutorService pipDecisionExecutor(int threads, int queueCapacity) {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(queueCapacity), runnable -> {
+      Thread thread = new Thread(runnable, "pip-decision");
+      thread.setDaemon(true);
+      return thread;
+    });
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  /*
+   * The payload is read as bytes and parsed in one pass by the JsonRequestReader, it is only decoded into a String for
+   * a policy violation and debug logging. The response is written as bytes, for the compiled policies these are
+   * serialized in advance, see SerializedResponse. With compact=true only the decision, the policy ids and the advice
+   * are returned, see ResponseSerializer.
+   */
   @RequestMapping(method = RequestMethod.POST, value = "/decide/policy")
-  public String decide(@RequestBody String payload) throws Exception {
-    return doDecide(payload, false);
+  public DeferredResult<byte[]> decide(@RequestBody byte[] payload, @RequestParam(defaultValue = "false") boolean compact,
+                                       HttpServletResponse response) throws Exception {
+    return doDecide(payload, compact, false, response);
   }
 
   @RequestMapping(method = RequestMethod.POST, value = "/internal/decide/policy")
-  public String decideInternal(@RequestBody String payload) throws Exception {
+  public DeferredResult<byte[]> decideInternal(@RequestBody byte[] payload, @RequestParam(defaultValue = "false") boolean compact,
+                                               HttpServletResponse response) throws Exception {
     refreshPolicies();
-    return doDecide(payload, true);
+    return doDecide(payload, compact, true, response);
   }
 
-  private String doDecide(String payload, boolean isPlayground) throws Exception {
-    StatsContext stats = StatsContextHolder.getContext();
-
+  /*
+   * Accepts either a JSON array of XACML JSON requests or one XACML JSON request, e.g. with MultiRequests. Returns an
+   * array with one XACML JSON response per (individual) request in the same order as the requests. The requests of the
+   * array are read in one pass and every request is decided like a request to /decide/policy with its own stats, but
+   * the PIP lookups are shared by all requests of the batch.
+   */
+  @RequestMapping(method = RequestMethod.POST, value = "/decide/policies")
+  public byte[] decideBatch(@RequestBody byte[] payload) throws Exception {
     long start = System.currentTimeMillis();
-    LOG.debug("decide request: {}", payload);
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("decide batch request: {}", new String(payload, StandardCharsets.UTF_8));
+    }
+
+    List<byte[]> responses = new ArrayList<>();
+    try (PipLookupScope pipLookupScope = PipLookupScope.open()) {
+      Optional<List<ParsedRequest>> parsedRequests = jsonRequestReader.readBatch(payload);
+      if (parsedRequests.isPresent()) {
+        for (ParsedRequest parsedRequest : parsedRequests.get()) {
+          StatsContext stats = statsContext(parsedRequest);
+          try (StatsContextHolder.Binding binding = StatsContextHolder.bind(stats)) {
+            responses.add(doDecide(parsedRequest.getPayload(), parsedRequest.getRequest(), false, false, stats, System.nanoTime()));
+          } finally {
+            statsContextHolder.record(stats);
+          }
+        }
+      } else {
+        doDecideIndividualRequests(jsonRequestReader.read(payload), responses);
+      }
+    }
+
+    LOG.debug("decide batch of {} requests took: {} ms", responses.size(), System.currentTimeMillis() - start);
+    ByteArrayOutputStream json = new ByteArrayOutputStream();
+    json.write('[');
+    for (int i = 0; i < responses.size(); i++) {
+      if (i > 0) {
+        json.write(',');
+      }
+      json.write(responses.get(i));
+    }
+    json.write(']');
+    return json.toByteArray();
+  }
+
+  //one response and one policy violation per result, one stats record for the request
+  private void doDecideIndividualRequests(ParsedRequest parsedRequest, List<byte[]> responses) throws Exception {
+    StatsContext stats = statsContext(parsedRequest);
+    long start = System.nanoTime();
+    try (StatsContextHolder.Binding binding = StatsContextHolder.bind(stats)) {
+      Response pdpResponse = cachedDecide(parsedRequest.getRequest()).getResponse();
+      for (Result result : pdpResponse.getResults()) {
+        Response response = new StdMutableResponse(result);
+        byte[] json = ResponseSerializer.json(response, LOG.isDebugEnabled());
+        stats.setDecision(reportPolicyViolation(response, () -> new String(json, StandardCharsets.UTF_8),
+            () -> new String(parsedRequest.getPayload(), StandardCharsets.UTF_8), false).toString());
+        responses.add(json);
+      }
+      long took = System.nanoTime() - start;
+      stats.addTiming(LatencyMetrics.DECIDE, took);
+      stats.setResponseTimeMs(TimeUnit.NANOSECONDS.toMillis(took));
+    } finally {
+      statsContextHolder.record(stats);
+    }
+  }
 
-    Request request = JSONRequest.load(payload);
-    addStatsDetails(stats, request);
+  private StatsContext statsContext(ParsedRequest parsedRequest) {
+    StatsContext stats = new StatsContext();
+    stats.setIdentityProvider(parsedRequest.getIdentityProvider());
+    stats.setServiceProvicer(parsedRequest.getServiceProvider());
+    return stats;
+  }
 
-    Response pdpResponse = isPlayground ? playgroundPdpEngine.decide(request) : pdpEngine.decide(request);
+  /*
+   * A request that may need a PIP is decided on the pipDecisionExecutor, so a slow PIP does not keep the servlet threads
+   * from deciding the requests that need no PIP. If the executor is saturated or the decision takes longer than
+   * pipDecisionTimeoutMs the response is a 503, see PipDecision. Any other request is decided on the servlet thread,
+   * the response is written directly and no DeferredResult is returned. The StatsContext is bound to the thread that
+   * decides and recorded after the response has been written.
+   */
+  private DeferredResult<byte[]> doDecide(byte[] payload, boolean compact, boolean isPlayground,
+                                          HttpServletResponse response) throws Exception {
+    long start = System.nanoTime();
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("decide request: {}", new String(payload, StandardCharsets.UTF_8));
+    }
 
-    String response = JSONResponse.toString(pdpResponse, LOG.isDebugEnabled());
+    ParsedRequest parsedRequest = jsonRequestReader.read(payload);
+    Request request = parsedRequest.getRequest();
+    StatsContext stats = statsContext(parsedRequest);
+    stats.addTiming(LatencyMetrics.PARSE, System.nanoTime() - start);
 
-    long took = System.currentTimeMillis() - start;
-    stats.setResponseTimeMs(took);
-    LOG.debug("decide response: {} took: {} ms", response, took);
+    if (!pipDecisionExecutor.isPresent() || isPlayground || !pdpEngine.needsPip(request)) {
+      try {
+        byte[] json;
+        try (StatsContextHolder.Binding binding = StatsContextHolder.bind(stats)) {
+          json = doDecide(payload, request, compact, isPlayground, stats, start);
+        }
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setContentLength(json.length);
+        response.getOutputStream().write(json);
+        return null;
+      } finally {
+        statsContextHolder.record(stats);
+      }
+    }
 
-    Decision decision = reportPolicyViolation(pdpResponse, response, payload, isPlayground);
-    stats.setDecision(decision.toString());
+    return new PipDecision(stats, start, pipDecisionTimeoutMs, statsContextHolder,
+        timedOut -> doDecide(payload, request, compact, isPlayground, stats, start, timedOut))
+        .submit(pipDecisionExecutor.get());
+  }
+
+  private byte[] doDecide(byte[] payload, Request request, boolean compact, boolean isPlayground, StatsContext stats,
+                          long start) throws Exception {
+    return doDecide(payload, request, compact, isPlayground, stats, start, () -> false);
+  }
+
+  private byte[] doDecide(byte[] payload, Request request, boolean compact, boolean isPlayground, StatsContext stats,
+                          long start, BooleanSupplier timedOut) throws Exception {
+    Supplier<String> payloadString = () -> new String(payload, StandardCharsets.UTF_8);
+    CachedDecision decision = isPlayground ? decide(playgroundPdpEngine, request) : cachedDecide(request);
+    Response pdpResponse = decision.getResponse();
+    byte[] json = decision.getJson();
+    byte[] response = compact ? ResponseSerializer.compactJson(pdpResponse) : json;
+
+    if (timedOut.getAsBoolean()) {
+      //the 503 has been sent and the request is recorded as Unavailable, see PipDecision
+      return response;
+    }
+    long violationStart = System.nanoTime();
+    //the violation has the XACML JSON of the response, also in compact mode
+    stats.setDecision(reportPolicyViolation(pdpResponse, () -> new String(json, StandardCharsets.UTF_8), payloadString,
+        isPlayground).toString());
+    long end = System.nanoTime();
+    stats.addTiming(LatencyMetrics.VIOLATION, end - violationStart);
+    stats.addTiming(LatencyMetrics.DECIDE, end - start);
+
+    long took = TimeUnit.NANOSECONDS.toMillis(end - start);
+    stats.setResponseTimeMs(took);
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("decide response: {} took: {} ms", new String(response, StandardCharsets.UTF_8), took);
+    }
     return response;
   }
 
+  private CachedDecision cachedDecide(Request request) throws Exception {
+    //read before deciding, a refresh in the meantime only makes the cached decision stale earlier
+    long policiesVersion = pdpEngine.getPoliciesVersion();
+    Optional<HashCode> key = decisionCache.key(request);
+    if (key.isPresent()) {
+      Optional<CachedDecision> cachedDecision = decisionCache.get(key.get(), policiesVersion);
+      if (cachedDecision.isPresent()) {
+        return cachedDecision.get();
+      }
+    }
+    try (PipLookupScope pipLookupScope = PipLookupScope.open()) {
+      CachedDecision decision = decide(pdpEngine, request, policiesVersion);
+      if (key.isPresent() && !pipLookupScope.isPipConsulted()) {
+        decisionCache.put(key.get(), decision);
+      }
+      return decision;
+    }
+  }
+
+  private CachedDecision decide(OpenConextPDPEngine engine, Request request) throws Exception {
+    return decide(engine, request, engine.getPoliciesVersion());
+  }
+
+  private CachedDecision decide(OpenConextPDPEngine engine, Request request, long policiesVersion) throws Exception {
+    StatsContext stats = StatsContextHolder.getContext();
+    long start = System.nanoTime();
+    Response pdpResponse = engine.decide(request);
+    long evaluated = System.nanoTime();
+    byte[] json = ResponseSerializer.json(pdpResponse, LOG.isDebugEnabled());
+    stats.addTiming(LatencyMetrics.EVALUATE, evaluated - start);
+    stats.addTiming(LatencyMetrics.SERIALIZE, System.nanoTime() - evaluated);
+    return new CachedDecision(pdpResponse, json, policiesVersion);
+  }
+
   @RequestMapping(method = OPTIONS, value = "/protected/policies")
   public ResponseEntity<Void> options(HttpServletResponse response) {
     response.setHeader(HttpHeaders.ALLOW, Joiner.on(",").join(ImmutableList.of(GET, POST, PUT, DELETE)));
     return new ResponseEntity<>(HttpStatus.OK);
   }
 
+  /*
+   * Optionally filtered by SP and / or IdP - only the policies that explicitly have the IdP - and paginated with offset
+   * and limit after the policies the user may not see have been filtered
+   */
   @RequestMapping(method = GET, value = {"/internal/policies", "/protected/policies"})
-  public List<PdpPolicyDefinition> policyDefinitions() {
-    List<PdpPolicyDefinition> policies = stream(pdpPolicyRepository.findAll().spliterator(), false)
-        .map(policy -> addEntityMetaData(addAccessRules(policy, pdpPolicyDefinitionParser.parse(policy)))).collect(toList());
-
-    policies = policies.stream().filter(policy -> !policy.isServiceProviderInvalidOrMissing()).collect(toList());
-    
-    //can't use Formula - https://issues.jboss.org/browse/JBPAPP-6571
-    List<Object[]> countPerPolicyId = pdpPolicyViolationRepository.findCountPerPolicyId();
-    Map<Long, Long> countPerPolicyIdMap = countPerPolicyId.stream().collect(toMap((obj) -> (Long) obj[0], (obj) -> (Long) obj[1]));
-    policies.forEach(policy -> policy.setNumberOfViolations(countPerPolicyIdMap.getOrDefault(policy.getId(), 0L).intValue()));
-
-    List<Object[]> revisionCountPerId = pdpPolicyRepository.findRevisionCountPerId();
-    Map<Number, Number> revisionCountPerIdMap = revisionCountPerId.stream().collect(toMap((obj) -> (Number) obj[0], (obj) -> (Number) obj[1]));
-    policies.forEach(policy -> policy.setNumberOfRevisions(revisionCountPerIdMap.getOrDefault(policy.getId().intValue(), 0).intValue()));
+  public List<PdpPolicyDefinition> policyDefinitions(@RequestParam(required = false) String serviceProvider,
+                                                     @RequestParam(required = false) String identityProvider,
+                                                     @RequestParam(defaultValue = "0") int offset,
+                                                     @RequestParam(defaultValue = "2147483647") int limit) {
+    List<PdpPolicyDefinition> policies = policyDefinitionReadModel.find(serviceProvider, identityProvider);
+    return policyIdpAccessEnforcer.filterPdpPolicies(policies).stream()
+        .skip(offset)
+        .limit(limit)
+        .map(this::addAccessRulesAndViolations)
+        .collect(toList());
+  }
 
-    return policyIdpAccessEnforcer.filterPdpPolicies(policies);
+  //the read model is shared by all users
+  private PdpPolicyDefinition addAccessRulesAndViolations(PdpPolicyDefinition shared) {
+    PdpPolicyDefinition pd = new PdpPolicyDefinition(shared);
+    pd.setNumberOfViolations(policyDefinitionReadModel.numberOfViolations(pd.getId()));
+    policyDefinitionReadModel.policy(pd.getId()).ifPresent(policy -> pd.setActionsAllowed(
+        policyIdpAccessEnforcer.actionAllowedIndicator(policy, PolicyAccess.WRITE, pd.getServiceProviderId(), pd.getIdentityProviderIds())));
+    return pd;
   }
 
   @RequestMapping(method = GET, value = {"/internal/conflicts", "/protected/conflicts"})
   public Map<String, List<PdpPolicyDefinition>> conflicts() {
-    List<PdpPolicyDefinition> policies = stream(pdpPolicyRepository.findAll().spliterator(), false)
-        .map(policy -> addEntityMetaData(pdpPolicyDefinitionParser.parse(policy))).collect(toList());
-        
+    List<PdpPolicyDefinition> policies = policyDefinitionReadModel.all();
+
+
     Map<String, List<PdpPolicyDefinition>> conflicts = policyConflictService.conflicts(policies);
     List<PdpPolicyDefinition> invalid = policies.stream().filter(policy -> policy.isServiceProviderInvalidOrMissing()).collect(toList());
     if (!invalid.isEmpty()) {
@@ -202,6 +423,7 @@ public class PdpController implements JsonMapper {
     try {
       PdpPolicy saved = pdpPolicyRepository.save(policy);
       LOG.info("{} PdpPolicy {}", policy.getId() != null ? "Updated" : "Created", saved.getPolicyXml());
+      policyDefinitionReadModel.saved(ids(saved), latestRevision(saved));
       checkConflicts(pdpPolicyDefinition);
       return saved;
     } catch (DataIntegrityViolationException e) {
@@ -213,11 +435,18 @@ public class PdpController implements JsonMapper {
     }
   }
 
+  /*
+   * Only the saved policy is checked against the other policies of its SP - looked up in the read model and not loaded
+   * and parsed - all conflicts are only computed for the mail
+   */
   private void checkConflicts(PdpPolicyDefinition pdpPolicyDefinition) {
-    Map<String, List<PdpPolicyDefinition>> conflicts = conflicts();
     Optional<EntityMetaData> entityMetaData = serviceRegistry.serviceProviderOptionalByEntityId(pdpPolicyDefinition.getServiceProviderId());
-    if (entityMetaData.isPresent() && conflicts.containsKey(entityMetaData.get().getNameEn())) {
-      this.mailBox.sendConflictsMail(conflicts);
+    if (!entityMetaData.isPresent()) {
+      return;
+    }
+    List<PdpPolicyDefinition> policies = policyDefinitionReadModel.byServiceProvider(pdpPolicyDefinition.getServiceProviderId());
+    if (policyConflictService.conflicts(pdpPolicyDefinition, policies)) {
+      this.mailBox.sendConflictsMail(conflicts());
     }
   }
 
@@ -233,6 +462,16 @@ public class PdpController implements JsonMapper {
     LOG.info("Deleting PdpPolicy {}", policy.getName());
     policy = policy.getParentPolicy() != null ? policy.getParentPolicy() : policy;
     pdpPolicyRepository.delete(policy);
+    policyDefinitionReadModel.deleted(ids(policy));
+  }
+
+  //the ids of the policy and all its revisions
+  private List<Long> ids(PdpPolicy parent) {
+    return Stream.concat(Stream.of(parent), parent.getRevisions().stream()).map(PdpPolicy::getId).collect(toList());
+  }
+
+  private PdpPolicy latestRevision(PdpPolicy parent) {
+    return Stream.concat(Stream.of(parent), parent.getRevisions().stream()).filter(PdpPolicy::isLatestRevision).collect(singletonCollector());
   }
 
   @RequestMapping(method = GET, value = "/internal/default-policy")
@@ -242,23 +481,32 @@ public class PdpController implements JsonMapper {
 
   @RequestMapping(method = GET, value = "/internal/policies/sp")
   public List<PdpPolicyDefinition> policyDefinitionsByServiceProvider(@RequestParam String serviceProvider) {
-    List<PdpPolicyDefinition> policies = policyDefinitions();
-
-    List<PdpPolicyDefinition> filterBySp = stream(policies.spliterator(), false).filter(policy -> policy.getServiceProviderId().equals(serviceProvider)).collect(toList());
-
-    return policyIdpAccessEnforcer.filterPdpPolicies(filterBySp);
+    return policyDefinitions(serviceProvider, null, 0, Integer.MAX_VALUE);
   }
 
+  /*
+   * Streams the violations ordered by id. The next page starts after the id of the last violation of the previous page
+   */
   @RequestMapping(method = GET, value = "/internal/violations")
-  public Iterable<PdpPolicyViolation> violations() {
-    Iterable<PdpPolicyViolation> violations = pdpPolicyViolationRepository.findAll();
-    return policyIdpAccessEnforcer.filterViolations(violations);
+  public void violations(@RequestParam(defaultValue = "0") long after,
+                         @RequestParam(defaultValue = "2147483647") int limit,
+                         HttpServletResponse response) throws IOException {
+    streamViolations(Optional.empty(), after, limit, response);
   }
 
   @RequestMapping(method = GET, value = "/internal/violations/{id}")
-  public Iterable<PdpPolicyViolation> violationsByPolicyId(@PathVariable Long id) {
-    Set<PdpPolicyViolation> violations = findPolicyById(id, VIOLATIONS).getViolations();
-    return policyIdpAccessEnforcer.filterViolations(violations);
+  public void violationsByPolicyId(@PathVariable Long id,
+                                   @RequestParam(defaultValue = "0") long after,
+                                   @RequestParam(defaultValue = "2147483647") int limit,
+                                   HttpServletResponse response) throws IOException {
+    PdpPolicy policy = findPolicyById(id, VIOLATIONS);
+    streamViolations(Optional.of(policy.getId()), after, limit, response);
+  }
+
+  private void streamViolations(Optional<Long> policyRowId, long after, int limit, HttpServletResponse response) throws IOException {
+    Optional<Set<String>> identityProviders = policyIdpAccessEnforcer.violationsIdentityProviders();
+    response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+    jsonStreamingRepository.violations(policyRowId, identityProviders, after, limit, response.getOutputStream());
   }
 
   @RequestMapping(method = GET, value = {"/internal/revisions/{id}", "/protected/revisions/{id}"})
@@ -308,14 +556,7 @@ public class PdpController implements JsonMapper {
   }
 
   private PdpPolicyDefinition addEntityMetaData(PdpPolicyDefinition pd) {
-    Optional<EntityMetaData> sp = serviceRegistry.serviceProviderOptionalByEntityId(pd.getServiceProviderId());
-    pd.setServiceProviderInvalidOrMissing(!sp.isPresent());
-    if (sp.isPresent()) {
-    	pd.setServiceProviderName(sp.get().getNameEn());
-    	pd.setActivatedSr(sp.get().isPolicyEnforcementDecisionRequired());
-    }
-    pd.setIdentityProviderNames(serviceRegistry.identityProviderNames(pd.getIdentityProviderIds()));
-    return pd;
+    return policyDefinitionReadModel.addEntityMetaData(pd);
   }
 
   @RequestMapping(method = GET, value = "internal/users/me")
@@ -323,21 +564,8 @@ public class PdpController implements JsonMapper {
     return (FederatedUser) SecurityContextHolder.getContext().getAuthentication().getPrincipal();
   }
 
-  private void addStatsDetails(StatsContext stats, Request request) {
-    RequestAttributes req = request.getRequestAttributes().stream()
-        .filter(ra -> ra.getCategory().getUri().toString().equals("urn:oasis:names:tc:xacml:3.0:attribute-category:resource"))
-        .collect(singletonCollector());
-    Collection<Attribute> attributes = req.getAttributes();
-    stats.setIdentityProvider(getAttributeValue(attributes, "IDPentityID").orElse(""));
-    stats.setServiceProvicer(getAttributeValue(attributes, "SPentityID").orElse(""));
-  }
-
-  private Optional<String> getAttributeValue(Collection<Attribute> attributes, String attributeId) {
-    Optional<Attribute> attribute = attributes.stream().filter(attr -> attr.getAttributeId().getUri().toString().equals(attributeId)).collect(singletonOptionalCollector());
-    return attribute.map(attr -> (String) attr.getValues().iterator().next().getValue());
-  }
-
-  private Decision reportPolicyViolation(Response pdpResponse, String response, String payload, boolean isPlayground) {
+  private Decision reportPolicyViolation(Response pdpResponse, Supplier<String> response, Supplier<String> payload,
+                                         boolean isPlayground) {
     Collection<Result> results = pdpResponse.getResults();
 
     List<Result> deniesOrIndeterminates = results.stream().filter(result ->
@@ -346,10 +574,10 @@ public class PdpController implements JsonMapper {
       Optional<IdReference> idReferenceOptional = getPolicyId(deniesOrIndeterminates);
       if (idReferenceOptional.isPresent()) {
         String policyId = idReferenceOptional.get().getId().stringValue();
-        Optional<PdpPolicy> policyOptional = pdpPolicyRepository.findFirstByPolicyIdAndLatestRevision(policyId, true).stream().findFirst();
-        if (policyOptional.isPresent()) {
-          pdpPolicyViolationRepository.save(new PdpPolicyViolation(policyOptional.get(), payload, response, isPlayground));
-        }
+        //the engine that made the decision knows the policy, no need to query the database on the request thread
+        OpenConextPDPEngine engine = isPlayground ? playgroundPdpEngine : pdpEngine;
+        engine.policyRowId(policyId).ifPresent(policyRowId ->
+            policyViolationWriter.write(policyRowId, payload.get(), response.get(), isPlayground));
       }
     }
     return results.iterator().next().getDecision();
@@ -365,10 +593,7 @@ public class PdpController implements JsonMapper {
   }
 
   private void refreshPolicies() {
-    LOG.info("Starting reloading policies");
-    long start = System.currentTimeMillis();
-    this.pdpEngine = pdpEngineHolder.newPdpEngine(cachePolicies, false);
-    LOG.info("Finished reloading policies in {} ms", System.currentTimeMillis() - start);
+    pdpEngine.refreshPolicies();
   }
 
 }
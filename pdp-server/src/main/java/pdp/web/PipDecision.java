@@ -0,0 +1,111 @@
+package pdp.web;
+
+import org.springframework.web.context.request.async.DeferredResult;
+import pdp.DecisionUnavailableException;
+import pdp.stats.LatencyMetrics;
+import pdp.stats.StatsContext;
+import pdp.stats.StatsContextHolder;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+/*
+ * Thread-safe
+ *
+ * A decision on the pip-decision threads of the PdpController. Whichever comes first - the decision or the timeout -
+ * completes the DeferredResult and records the stats, the other one does nothing. The decision records the StatsContext
+ * it has filled on its own thread. The timeout never reads that context as the decision may still be filling it, it
+ * records a new context with the decision Unavailable and cancels the decision.
+ */
+class PipDecision implements Runnable {
+
+  static final String UNAVAILABLE = "Unavailable";
+
+  private final StatsContext stats;
+  private final String serviceProvider;
+  private final String identityProvider;
+  private final long start;
+  private final long timeoutMs;
+  private final StatsContextHolder statsContextHolder;
+  private final Decider decider;
+  private final DeferredResult<byte[]> result;
+  private final AtomicBoolean completed = new AtomicBoolean();
+  private volatile Future<?> future;
+
+  PipDecision(StatsContext stats, long start, long timeoutMs, StatsContextHolder statsContextHolder, Decider decider) {
+    this.stats = stats;
+    this.serviceProvider = stats.getServiceProvicer();
+    this.identityProvider = stats.getIdentityProvider();
+    this.start = start;
+    this.timeoutMs = timeoutMs;
+    this.statsContextHolder = statsContextHolder;
+    this.decider = decider;
+    this.result = new DeferredResult<>(timeoutMs);
+    this.result.onTimeout(this::timeout);
+  }
+
+  DeferredResult<byte[]> submit(ExecutorService executor) {
+    try {
+      future = executor.submit(this);
+      return result;
+    } catch (RejectedExecutionException e) {
+      completed.set(true);
+      recordUnavailable();
+      throw new DecisionUnavailableException("All PIP decision threads are busy");
+    }
+  }
+
+  @Override
+  public void run() {
+    //timed out while queued
+    if (completed.get()) {
+      return;
+    }
+    byte[] json = null;
+    Exception error = null;
+    try (StatsContextHolder.Binding binding = StatsContextHolder.bind(stats)) {
+      json = decider.decide(completed::get);
+    } catch (Exception e) {
+      error = e;
+    }
+    if (completed.compareAndSet(false, true)) {
+      if (error == null) {
+        result.setResult(json);
+      } else {
+        result.setErrorResult(error);
+      }
+      statsContextHolder.record(stats);
+    }
+  }
+
+  private void timeout() {
+    if (completed.compareAndSet(false, true)) {
+      future.cancel(true);
+      result.setErrorResult(new DecisionUnavailableException("The decision took longer than " + timeoutMs + " ms"));
+      recordUnavailable();
+    }
+  }
+
+  private void recordUnavailable() {
+    long took = System.nanoTime() - start;
+    StatsContext unavailable = new StatsContext();
+    unavailable.setServiceProvicer(serviceProvider);
+    unavailable.setIdentityProvider(identityProvider);
+    unavailable.setDecision(UNAVAILABLE);
+    unavailable.addTiming(LatencyMetrics.DECIDE, took);
+    unavailable.setResponseTimeMs(TimeUnit.NANOSECONDS.toMillis(took));
+    statsContextHolder.record(unavailable);
+  }
+
+  interface Decider {
+
+    /**
+     * Decides on the thread of the PipDecision, timedOut tells if the response has been sent already
+     */
+    byte[] decide(BooleanSupplier timedOut) throws Exception;
+  }
+}
@@ -2,31 +2,58 @@ package pdp.web;
 
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
-import pdp.domain.PdpDecision;
-import pdp.repositories.PdpDecisionRepository;
+import pdp.domain.PdpDecisionRollup;
+import pdp.repositories.JsonStreamingRepository;
+import pdp.stats.DecisionRollups;
 
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.Date;
 import java.util.List;
+import java.util.Optional;
 
 @RestController
 @RequestMapping(headers = {"Content-Type=application/json"}, produces = {"application/json"})
 public class StatsController {
 
-  //http://stackoverflow.com/questions/2447324/streaming-large-result-sets-with-mysql
+  @Autowired
+  private JsonStreamingRepository jsonStreamingRepository;
 
   @Autowired
-  private PdpDecisionRepository pdpDecisionRepository;
+  private DecisionRollups decisionRollups;
 
+  /*
+   * Streams the decisions ordered by id. The next page starts after the id of the last decision of the previous page
+   */
   @RequestMapping(method = RequestMethod.GET, value = "/internal/decisions")
-  public List<PdpDecision> decisions(@RequestParam("daysAgo") int daysAgo) {
+  public void decisions(@RequestParam("daysAgo") int daysAgo,
+                        @RequestParam(defaultValue = "0") long after,
+                        @RequestParam(defaultValue = "2147483647") int limit,
+                        HttpServletResponse response) throws IOException {
+    Date date = Date.from(Instant.now().minus(daysAgo, ChronoUnit.DAYS));
+    response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+    jsonStreamingRepository.decisions(date, after, limit, response.getOutputStream());
+  }
+
+  /*
+   * The decisions rolled up per MINUTE or HOUR, optionally only the ones of the SP, IdP and / or decision
+   */
+  @RequestMapping(method = RequestMethod.GET, value = "/internal/decisions/rollups")
+  public List<PdpDecisionRollup> rollups(@RequestParam("daysAgo") int daysAgo,
+                                         @RequestParam(defaultValue = DecisionRollups.HOUR) String granularity,
+                                         @RequestParam(required = false) String serviceProvider,
+                                         @RequestParam(required = false) String identityProvider,
+                                         @RequestParam(required = false) String decision) {
     Date date = Date.from(Instant.now().minus(daysAgo, ChronoUnit.DAYS));
-    return pdpDecisionRepository.findByCreatedAfter(date);
+    return decisionRollups.rollups(granularity, date, Optional.ofNullable(serviceProvider),
+        Optional.ofNullable(identityProvider), Optional.ofNullable(decision));
   }
 
 }
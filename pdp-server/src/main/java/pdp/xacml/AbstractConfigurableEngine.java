@@ -15,10 +15,13 @@ import org.apache.openaz.xacml.std.pip.engines.ConfigurableEngine;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.util.CollectionUtils;
+import pdp.stats.LatencyMetrics;
 import pdp.stats.StatsContext;
 import pdp.stats.StatsContextHolder;
 
 import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 import static java.util.stream.Collectors.toList;
 import static pdp.xacml.PdpPolicyDefinitionParser.NAME_ID;
@@ -67,6 +70,11 @@ public abstract class AbstractConfigurableEngine implements ConfigurableEngine {
       //this PIP requires a PIP dependent rule to be present in the Policy
       return empty;
     }
+    if (!ReferencedAttributes.isReferenced(getIdentifierProvidedAttribute())) {
+      //none of the candidate policies for the SP of the request has a rule on our attribute
+      LOG.debug("Skipping PIP {} as no candidate policy references {}", getName(), getIdentifierProvidedAttribute());
+      return empty;
+    }
     PIPResponse matchingAttributes = pipFinder.getMatchingAttributes(requiredAttribute, this);
     Optional<Attribute> nameAttributeOptional = matchingAttributes.getAttributes().stream().findFirst();
     if (!nameAttributeOptional.isPresent()) {
@@ -80,11 +88,13 @@ public abstract class AbstractConfigurableEngine implements ConfigurableEngine {
     String userUrn = (String) values.stream().findFirst().get().getValue();
 
     StatsContext stats = StatsContextHolder.getContext();
-    long start = System.currentTimeMillis();
+    long start = System.nanoTime();
 
-    List<String> result = getAttributes(userUrn);
+    List<String> result = PipLookupScope.lookup(getName(), userUrn, this::getAttributes);
 
-    stats.addPipResponse(getName(), System.currentTimeMillis() - start);
+    long took = System.nanoTime() - start;
+    stats.addPipResponse(getName(), TimeUnit.NANOSECONDS.toMillis(took));
+    stats.addTiming(LatencyMetrics.PIP + getName(), took);
 
     if (CollectionUtils.isEmpty(result)) {
       return empty;
@@ -96,6 +106,13 @@ public abstract class AbstractConfigurableEngine implements ConfigurableEngine {
     return new StdSinglePIPResponse(responseAttr);
   }
 
+  /**
+   * Starts looking up the attributes of the user on the executor, see PipLookupScope
+   */
+  public void prefetch(String userUrn, Executor executor) {
+    PipLookupScope.prefetch(getName(), userUrn, this::getAttributes, executor);
+  }
+
   protected abstract List<String> getAttributes(String userUrn);
 
   public abstract String getIdentifierProvidedAttribute() ;
@@ -0,0 +1,46 @@
+package pdp.xacml;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Thread-safe
+ *
+ * Maps the (category, attribute id, value) triples of the compiled policies to ints, so the compiled policies and the
+ * requests they decide on can be encoded as BitSets. Codes are never removed, so the policies that are changed or removed
+ * leave their codes behind: every full reload of the policies starts with a new dictionary, see
+ * OpenConextEvaluationContextFactory. Only the values of policies are added, the values of requests are looked up.
+ */
+public class AttributeDictionary {
+
+  public static final int UNKNOWN = -1;
+
+  private final Map<String, Map<String, Map<String, Integer>>> codes = new ConcurrentHashMap<>();
+  private final AtomicInteger nextCode = new AtomicInteger();
+
+  public int encode(String category, String attributeId, String value) {
+    return codes
+        .computeIfAbsent(category, key -> new ConcurrentHashMap<>())
+        .computeIfAbsent(attributeId, key -> new ConcurrentHashMap<>())
+        .computeIfAbsent(value, key -> nextCode.getAndIncrement());
+  }
+
+  /**
+   * Returns the values of the attribute with their codes, an empty Map if no policy has a value for the attribute
+   */
+  public Map<String, Integer> codes(String category, String attributeId) {
+    Map<String, Map<String, Integer>> attributes = codes.get(category);
+    Map<String, Integer> values = attributes != null ? attributes.get(attributeId) : null;
+    return values != null ? values : Collections.emptyMap();
+  }
+
+  public int code(String category, String attributeId, String value) {
+    return codes(category, attributeId).getOrDefault(value, UNKNOWN);
+  }
+
+  public int size() {
+    return nextCode.get();
+  }
+}
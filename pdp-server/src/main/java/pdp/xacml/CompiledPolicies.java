@@ -0,0 +1,105 @@
+package pdp.xacml;
+
+import org.apache.openaz.xacml.api.Decision;
+import org.apache.openaz.xacml.api.IdReference;
+import org.apache.openaz.xacml.api.Request;
+import org.apache.openaz.xacml.api.Response;
+import org.apache.openaz.xacml.std.StdMutableResponse;
+import org.apache.openaz.xacml.std.StdMutableResult;
+import org.apache.openaz.xacml.std.StdStatus;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/*
+ * Thread-safe and immutable
+ *
+ * The compiled candidate policies of a root PolicySet in the same order, combined with deny-overrides like the root
+ * PolicySet: the first Deny is the decision, otherwise Permit if any policy permits, otherwise NotApplicable. The
+ * Response has the same advice, policy identifiers and attributes to include in the result as the Response of OpenAZ.
+ *
+ * Without attributes to include in the result the Response only depends on the decision, the applicable policy and
+ * ReturnPolicyIdList. These Responses are created and serialized once per compiled policies, see SerializedResponse.
+ */
+public class CompiledPolicies {
+
+  private final List<CompiledPolicy> policies;
+  private final AttributeDictionary dictionary;
+  private final IdReference rootPolicySetReference;
+  //per policy a Deny and a single Permit, and NotApplicable, each with and without the policy identifiers
+  private final AtomicReferenceArray<SerializedResponse> serializedResponses;
+
+  /**
+   * The policies must be compiled with the dictionary
+   */
+  public CompiledPolicies(List<CompiledPolicy> policies, AttributeDictionary dictionary, IdReference rootPolicySetReference) {
+    this.policies = policies;
+    this.dictionary = dictionary;
+    this.rootPolicySetReference = rootPolicySetReference;
+    this.serializedResponses = new AtomicReferenceArray<>(policies.size() * 4 + 2);
+  }
+
+  /**
+   * Returns an empty Optional if the request or one of the policies can not be decided on without OpenAZ. The request
+   * is encoded once with the dictionary the policies were compiled with.
+   */
+  public Optional<Response> decide(Request request) {
+    Optional<CompiledRequest> compiledRequest = CompiledRequest.from(request, dictionary);
+    if (!compiledRequest.isPresent()) {
+      return Optional.empty();
+    }
+    List<CompiledPolicy> permits = new ArrayList<>(1);
+    int firstPermit = -1;
+    for (int i = 0; i < policies.size(); i++) {
+      CompiledPolicy policy = policies.get(i);
+      Optional<Decision> decision = policy.evaluate(compiledRequest.get());
+      if (!decision.isPresent()) {
+        return Optional.empty();
+      }
+      if (decision.get() == Decision.DENY) {
+        return Optional.of(response(request, Decision.DENY, Collections.singletonList(policy), i * 4));
+      }
+      if (decision.get() == Decision.PERMIT) {
+        firstPermit = permits.isEmpty() ? i : firstPermit;
+        permits.add(policy);
+      }
+    }
+    if (permits.isEmpty()) {
+      return Optional.of(response(request, Decision.NOTAPPLICABLE, permits, policies.size() * 4));
+    }
+    //the Response of more than one applicable Permit is not serialized in advance
+    return Optional.of(response(request, Decision.PERMIT, permits, permits.size() == 1 ? firstPermit * 4 + 2 : -1));
+  }
+
+  private Response response(Request request, Decision decision, List<CompiledPolicy> applicablePolicies, int slot) {
+    if (slot < 0 || !request.getRequestAttributesIncludedInResult().isEmpty()) {
+      return new StdMutableResponse(result(request, decision, applicablePolicies));
+    }
+    int index = slot + (request.getReturnPolicyIdList() ? 1 : 0);
+    SerializedResponse response = serializedResponses.get(index);
+    if (response == null) {
+      //created at most a few times concurrently, every instance is the same
+      response = new SerializedResponse(result(request, decision, applicablePolicies));
+      serializedResponses.set(index, response);
+    }
+    return response;
+  }
+
+  private StdMutableResult result(Request request, Decision decision, List<CompiledPolicy> applicablePolicies) {
+    StdMutableResult result = new StdMutableResult(decision, StdStatus.STATUS_OK);
+    if (decision == Decision.DENY) {
+      result.addAdvice(applicablePolicies.get(0).getDenyAdvice());
+    }
+    request.getRequestAttributesIncludedInResult().forEach(result::addAttributeCategory);
+    if (request.getReturnPolicyIdList()) {
+      result.addPolicySetIdentifier(rootPolicySetReference);
+      for (CompiledPolicy policy : applicablePolicies) {
+        result.addPolicyIdentifier(policy.getPolicyReference());
+      }
+    }
+    return result;
+  }
+}
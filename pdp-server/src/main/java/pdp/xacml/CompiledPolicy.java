@@ -0,0 +1,205 @@
+package pdp.xacml;
+
+import org.apache.openaz.xacml.api.Advice;
+import org.apache.openaz.xacml.api.Decision;
+import org.apache.openaz.xacml.api.IdReference;
+import org.apache.openaz.xacml.api.Identifier;
+import org.apache.openaz.xacml.api.Version;
+import org.apache.openaz.xacml.api.XACML3;
+import org.apache.openaz.xacml.std.IdentifierImpl;
+import org.apache.openaz.xacml.std.StdAttributeAssignment;
+import org.apache.openaz.xacml.std.StdAttributeValue;
+import org.apache.openaz.xacml.std.StdIdReference;
+import org.apache.openaz.xacml.std.StdMutableAdvice;
+import pdp.domain.PdpAttribute;
+import pdp.domain.PdpPolicyDefinition;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import static pdp.xacml.PdpPolicyDefinitionParser.ACCESS_SUBJECT_CATEGORY;
+import static pdp.xacml.PdpPolicyDefinitionParser.IDP_ENTITY_ID;
+import static pdp.xacml.PdpPolicyDefinitionParser.RESOURCE_CATEGORY;
+import static pdp.xacml.PdpPolicyDefinitionParser.SP_ENTITY_ID;
+
+/*
+ * Thread-safe and immutable
+ *
+ * A policy created from templates/policy-definition.xml compiled into plain predicates. The values of the policy are
+ * encoded with an AttributeDictionary: the SPentityID becomes a single code and the IDPentityIDs and the values of
+ * every attribute a BitSet of codes, that are matched against the codes of the request with word-wise operations. The
+ * attributes are string-regexp-match matches, values with regular expression characters are also precompiled into a
+ * Pattern. The attributes of policies created with a previous version of the template are string-equal matches and
+ * only have codes.
+ */
+public class CompiledPolicy {
+
+  private static final Optional<Decision> PERMIT = Optional.of(Decision.PERMIT);
+  private static final Optional<Decision> DENY = Optional.of(Decision.DENY);
+  private static final Optional<Decision> NOT_APPLICABLE = Optional.of(Decision.NOTAPPLICABLE);
+
+  private static final String REGEXP_CHARACTERS = "\\^$.|?*+()[]{}";
+
+  private final IdReference policyReference;
+  private final int serviceProviderCode;
+  private final BitSet identityProviderCodes = new BitSet();
+  private final boolean denyRule;
+  private final boolean allAttributesMustMatch;
+  private final List<AttributeMatcher> attributeMatchers;
+  //the codes of all attributes, if none of the attributes has a Pattern any match is a single intersection
+  private final BitSet attributeCodes = new BitSet();
+  private final boolean patterns;
+  private final Advice denyAdvice;
+
+  private CompiledPolicy(Identifier policyId, Version version, PdpPolicyDefinition definition,
+                         List<AttributeMatcher> attributeMatchers, AttributeDictionary dictionary) {
+    this.policyReference = new StdIdReference(policyId, version);
+    this.serviceProviderCode = dictionary.encode(RESOURCE_CATEGORY, SP_ENTITY_ID, definition.getServiceProviderId());
+    definition.getIdentityProviderIds().forEach(identityProviderId ->
+        identityProviderCodes.set(dictionary.encode(RESOURCE_CATEGORY, IDP_ENTITY_ID, identityProviderId)));
+    this.denyRule = definition.isDenyRule();
+    this.allAttributesMustMatch = definition.isAllAttributesMustMatch();
+    this.attributeMatchers = attributeMatchers;
+    attributeMatchers.forEach(matcher -> attributeCodes.or(matcher.codes));
+    this.patterns = attributeMatchers.stream().anyMatch(matcher -> !matcher.patterns.isEmpty());
+    //the advice id is the policy id, see OpenConextEvaluationContextFactory#convertToPolicyDef
+    this.denyAdvice = new StdMutableAdvice(policyId, Arrays.asList(
+        new StdAttributeAssignment(XACML3.ID_ATTRIBUTE_CATEGORY_RESOURCE, new IdentifierImpl("DenyMessage:en"), null,
+            new StdAttributeValue<>(XACML3.ID_DATATYPE_STRING, definition.getDenyAdvice())),
+        new StdAttributeAssignment(XACML3.ID_ATTRIBUTE_CATEGORY_RESOURCE, new IdentifierImpl("DenyMessage:nl"), null,
+            new StdAttributeValue<>(XACML3.ID_DATATYPE_STRING, definition.getDenyAdviceNl()))));
+  }
+
+  /**
+   * Compiles the definition of a template policy, see PdpPolicyDefinitionParser#templateDefinition. Definitions
+   * without attributes, with attributes provided by a PIP or with an invalid regular expression are not compiled.
+   */
+  public static Optional<CompiledPolicy> compile(Identifier policyId, Version version, PdpPolicyDefinition definition,
+                                                 boolean regularExpressions, Set<String> pipAttributeIds,
+                                                 AttributeDictionary dictionary) {
+    if (definition.getAttributes().isEmpty() ||
+        definition.getAttributes().stream().anyMatch(attribute -> pipAttributeIds.contains(attribute.getName()))) {
+      return Optional.empty();
+    }
+    Map<String, List<String>> valuesPerAttribute = new LinkedHashMap<>();
+    for (PdpAttribute attribute : definition.getAttributes()) {
+      valuesPerAttribute.computeIfAbsent(attribute.getName(), name -> new ArrayList<>()).add(attribute.getValue());
+    }
+    List<AttributeMatcher> attributeMatchers = new ArrayList<>();
+    try {
+      valuesPerAttribute.forEach((name, values) ->
+          attributeMatchers.add(new AttributeMatcher(name, values, regularExpressions, dictionary)));
+    } catch (PatternSyntaxException e) {
+      return Optional.empty();
+    }
+    return Optional.of(new CompiledPolicy(policyId, version, definition, attributeMatchers, dictionary));
+  }
+
+  /**
+   * Returns the decision of the policy or an empty Optional if the policy is Indeterminate for the request, e.g.
+   * because of a missing attribute that must be present
+   */
+  public Optional<Decision> evaluate(CompiledRequest request) {
+    if (!request.hasCode(serviceProviderCode)) {
+      return NOT_APPLICABLE;
+    }
+    if (!identityProviderCodes.isEmpty()) {
+      if (request.getIdentityProviderIds().isEmpty()) {
+        return Optional.empty();
+      }
+      if (!request.hasAnyCode(identityProviderCodes)) {
+        return NOT_APPLICABLE;
+      }
+    }
+    //the attributes of a deny rule must be present
+    if (denyRule) {
+      for (AttributeMatcher matcher : attributeMatchers) {
+        if (request.getSubjectAttribute(matcher.attributeId).isEmpty()) {
+          return Optional.empty();
+        }
+      }
+    }
+    boolean matches = allAttributesMustMatch ? allMatch(request) : anyMatch(request);
+    return matches == denyRule ? DENY : PERMIT;
+  }
+
+  private boolean allMatch(CompiledRequest request) {
+    for (AttributeMatcher matcher : attributeMatchers) {
+      if (!matcher.matches(request)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean anyMatch(CompiledRequest request) {
+    if (request.hasAnyCode(attributeCodes)) {
+      return true;
+    }
+    if (patterns) {
+      for (AttributeMatcher matcher : attributeMatchers) {
+        if (matcher.matchesPatterns(request)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  public IdReference getPolicyReference() {
+    return policyReference;
+  }
+
+  public Advice getDenyAdvice() {
+    return denyAdvice;
+  }
+
+  private static class AttributeMatcher {
+    private final String attributeId;
+    //a value with one of these codes matches, a value that has none must still be matched against the patterns
+    private final BitSet codes = new BitSet();
+    private final List<Pattern> patterns = new ArrayList<>();
+
+    private AttributeMatcher(String attributeId, List<String> regexps, boolean regularExpressions, AttributeDictionary dictionary) {
+      this.attributeId = attributeId;
+      for (String regexp : regexps) {
+        if (!regularExpressions || regexp.chars().noneMatch(c -> REGEXP_CHARACTERS.indexOf(c) > -1)) {
+          codes.set(dictionary.encode(ACCESS_SUBJECT_CATEGORY, attributeId, regexp));
+          continue;
+        }
+        Pattern pattern = Pattern.compile(regexp);
+        patterns.add(pattern);
+        //e.g. a value with dots matches itself, but also other values
+        if (pattern.matcher(regexp).matches()) {
+          codes.set(dictionary.encode(ACCESS_SUBJECT_CATEGORY, attributeId, regexp));
+        }
+      }
+    }
+
+    private boolean matches(CompiledRequest request) {
+      return request.hasAnyCode(codes) || matchesPatterns(request);
+    }
+
+    private boolean matchesPatterns(CompiledRequest request) {
+      if (patterns.isEmpty()) {
+        return false;
+      }
+      for (String value : request.getSubjectAttribute(attributeId)) {
+        for (Pattern pattern : patterns) {
+          if (pattern.matcher(value).matches()) {
+            return true;
+          }
+        }
+      }
+      return false;
+    }
+  }
+}
@@ -0,0 +1,134 @@
+package pdp.xacml;
+
+import org.apache.openaz.xacml.api.Attribute;
+import org.apache.openaz.xacml.api.AttributeValue;
+import org.apache.openaz.xacml.api.Request;
+import org.apache.openaz.xacml.api.RequestAttributes;
+import org.springframework.util.CollectionUtils;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static pdp.xacml.PdpPolicyDefinitionParser.ACCESS_SUBJECT_CATEGORY;
+import static pdp.xacml.PdpPolicyDefinitionParser.IDP_ENTITY_ID;
+import static pdp.xacml.PdpPolicyDefinitionParser.RESOURCE_CATEGORY;
+import static pdp.xacml.PdpPolicyDefinitionParser.SP_ENTITY_ID;
+import static pdp.xacml.PdpPolicyDefinitionParser.STRING_DATA_TYPE;
+
+/*
+ * Immutable
+ *
+ * The string values of the request the compiled policies match on: the SPentityID, the IDPentityIDs and the attributes
+ * of the access subject. The values are encoded once with the AttributeDictionary of the compiled policies, values that
+ * are not in the dictionary can only match a regular expression.
+ */
+public class CompiledRequest {
+
+  private final String serviceProviderId;
+  private final List<String> identityProviderIds;
+  private final Map<String, List<String>> subjectAttributes;
+  private final BitSet codes = new BitSet();
+
+  public CompiledRequest(String serviceProviderId, List<String> identityProviderIds,
+                         Map<String, List<String>> subjectAttributes, AttributeDictionary dictionary) {
+    this.serviceProviderId = serviceProviderId;
+    this.identityProviderIds = identityProviderIds;
+    this.subjectAttributes = subjectAttributes;
+    encode(dictionary.codes(RESOURCE_CATEGORY, SP_ENTITY_ID), Collections.singletonList(serviceProviderId));
+    encode(dictionary.codes(RESOURCE_CATEGORY, IDP_ENTITY_ID), identityProviderIds);
+    subjectAttributes.forEach((attributeId, values) -> encode(dictionary.codes(ACCESS_SUBJECT_CATEGORY, attributeId), values));
+  }
+
+  private void encode(Map<String, Integer> dictionaryCodes, List<String> values) {
+    if (dictionaryCodes.isEmpty()) {
+      return;
+    }
+    for (String value : values) {
+      Integer code = dictionaryCodes.get(value);
+      if (code != null) {
+        codes.set(code);
+      }
+    }
+  }
+
+  /**
+   * Returns an empty Optional for requests the compiled policies can not decide on the same way OpenAZ does, e.g.
+   * multiple decision requests, requests without exactly one SPentityID or with attribute values that are not strings
+   */
+  public static Optional<CompiledRequest> from(Request request, AttributeDictionary dictionary) {
+    if ((request.getStatus() != null && !request.getStatus().isOk()) || request.getCombinedDecision() ||
+        !CollectionUtils.isEmpty(request.getMultiRequests())) {
+      return Optional.empty();
+    }
+    Map<String, List<String>> resourceAttributes = null;
+    Map<String, List<String>> subjectAttributes = null;
+    for (RequestAttributes requestAttributes : request.getRequestAttributes()) {
+      String category = requestAttributes.getCategory().getUri().toString();
+      boolean resource = RESOURCE_CATEGORY.equals(category);
+      if (!resource && !ACCESS_SUBJECT_CATEGORY.equals(category)) {
+        continue;
+      }
+      if ((resource ? resourceAttributes : subjectAttributes) != null) {
+        return Optional.empty();
+      }
+      Optional<Map<String, List<String>>> values = stringValues(requestAttributes);
+      if (!values.isPresent()) {
+        return Optional.empty();
+      }
+      if (resource) {
+        resourceAttributes = values.get();
+      } else {
+        subjectAttributes = values.get();
+      }
+    }
+    List<String> serviceProviderIds = resourceAttributes != null ? resourceAttributes.get(SP_ENTITY_ID) : null;
+    if (serviceProviderIds == null || serviceProviderIds.size() != 1) {
+      return Optional.empty();
+    }
+    return Optional.of(new CompiledRequest(
+        serviceProviderIds.get(0),
+        resourceAttributes.getOrDefault(IDP_ENTITY_ID, Collections.emptyList()),
+        subjectAttributes != null ? subjectAttributes : Collections.emptyMap(),
+        dictionary));
+  }
+
+  private static Optional<Map<String, List<String>>> stringValues(RequestAttributes requestAttributes) {
+    Map<String, List<String>> result = new HashMap<>();
+    for (Attribute attribute : requestAttributes.getAttributes()) {
+      List<String> values = result.computeIfAbsent(attribute.getAttributeId().getUri().toString(), key -> new ArrayList<>());
+      for (AttributeValue<?> value : attribute.getValues()) {
+        if (!(value.getValue() instanceof String) || !STRING_DATA_TYPE.equals(value.getDataTypeId().stringValue())) {
+          return Optional.empty();
+        }
+        values.add((String) value.getValue());
+      }
+    }
+    return Optional.of(result);
+  }
+
+  public String getServiceProviderId() {
+    return serviceProviderId;
+  }
+
+  public List<String> getIdentityProviderIds() {
+    return identityProviderIds;
+  }
+
+  public boolean hasCode(int code) {
+    return codes.get(code);
+  }
+
+  public boolean hasAnyCode(BitSet otherCodes) {
+    return codes.intersects(otherCodes);
+  }
+
+  public List<String> getSubjectAttribute(String attributeId) {
+    return subjectAttributes.getOrDefault(attributeId, Collections.emptyList());
+  }
+
+}
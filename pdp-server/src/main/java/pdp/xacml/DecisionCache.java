@@ -0,0 +1,111 @@
+package pdp.xacml;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.apache.openaz.xacml.api.Request;
+import org.apache.openaz.xacml.api.RequestAttributes;
+import org.apache.openaz.xacml.api.Response;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.util.CollectionUtils;
+import pdp.util.CacheUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Thread-safe
+ *
+ * Caches decisions for requests with the same attributes regardless of the order of the attributes in the JSON. A cached
+ * decision is only valid for the policies it was made with. Decisions that needed a PIP - e.g. Teams or SAB - must not be
+ * cached as the outcome depends on more than the request, see PipLookupScope#isPipConsulted.
+ */
+public class DecisionCache implements PublicMetrics {
+
+  private final boolean enabled;
+  private final Cache<HashCode, CachedDecision> cache;
+
+  public DecisionCache(boolean enabled, long timeToLiveSeconds, long maximumSize) {
+    this.enabled = enabled;
+    this.cache = CacheBuilder.newBuilder()
+        .expireAfterWrite(timeToLiveSeconds, TimeUnit.SECONDS)
+        .maximumSize(maximumSize)
+        .recordStats()
+        .build();
+  }
+
+  /**
+   * Returns the canonical key of the request or empty if the request can not be cached
+   */
+  public Optional<HashCode> key(Request request) {
+    if (!enabled || !CollectionUtils.isEmpty(request.getMultiRequests()) || request.getRequestDefaults() != null) {
+      return Optional.empty();
+    }
+    List<String> parts = new ArrayList<>();
+    for (RequestAttributes requestAttributes : request.getRequestAttributes()) {
+      if (requestAttributes.getContentRoot() != null || requestAttributes.getXmlId() != null) {
+        return Optional.empty();
+      }
+      String category = requestAttributes.getCategory().stringValue();
+      requestAttributes.getAttributes().forEach(attribute -> {
+        String prefix = String.join("\u0000", category, attribute.getAttributeId().stringValue(),
+            String.valueOf(attribute.getIssuer()), String.valueOf(attribute.getIncludeInResults()));
+        parts.add(prefix);
+        attribute.getValues().forEach(value ->
+            parts.add(String.join("\u0000", prefix, value.getDataTypeId().stringValue(), String.valueOf(value.getValue()))));
+      });
+    }
+    Collections.sort(parts);
+    Hasher hasher = Hashing.sha256().newHasher()
+        .putBoolean(request.getReturnPolicyIdList())
+        .putBoolean(request.getCombinedDecision());
+    parts.forEach(part -> hasher.putInt(part.length()).putString(part, StandardCharsets.UTF_8));
+    return Optional.of(hasher.hash());
+  }
+
+  public Optional<CachedDecision> get(HashCode key, long policiesVersion) {
+    CachedDecision cachedDecision = cache.getIfPresent(key);
+    if (cachedDecision == null) {
+      return Optional.empty();
+    }
+    if (cachedDecision.policiesVersion != policiesVersion) {
+      cache.invalidate(key);
+      return Optional.empty();
+    }
+    return Optional.of(cachedDecision);
+  }
+
+  public void put(HashCode key, CachedDecision cachedDecision) {
+    cache.put(key, cachedDecision);
+  }
+
+  @Override
+  public Collection<Metric<?>> metrics() {
+    return CacheUtils.metrics("decisions.cache", cache);
+  }
+
+  public static class CachedDecision {
+    private final Response response;
+    //the XACML JSON of the response, the compact JSON is not cached, see ResponseSerializer
+    private final byte[] json;
+    private final long policiesVersion;
+
+    public CachedDecision(Response response, byte[] json, long policiesVersion) {
+      this.response = response;
+      this.json = json;
+      this.policiesVersion = policiesVersion;
+    }
+
+    public Response getResponse() {
+      return response;
+    }
+
+    public byte[] getJson() {
+      return json;
+    }
+  }
+}
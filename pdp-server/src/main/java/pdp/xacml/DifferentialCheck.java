@@ -0,0 +1,113 @@
+package pdp.xacml;
+
+import org.apache.openaz.xacml.api.Advice;
+import org.apache.openaz.xacml.api.IdReference;
+import org.apache.openaz.xacml.api.Request;
+import org.apache.openaz.xacml.api.Response;
+import org.apache.openaz.xacml.api.Result;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.joining;
+import static java.util.stream.Collectors.toList;
+
+/*
+ * Thread-safe
+ *
+ * Counts the decisions of the compiled policies and the decisions that fell back to OpenAZ. A sample of the requests
+ * the compiled policies decided on is also evaluated by OpenAZ, every difference is logged and counted. On a difference
+ * the decision of OpenAZ is returned.
+ */
+public class DifferentialCheck implements PublicMetrics {
+
+  private static final Logger LOG = LoggerFactory.getLogger(DifferentialCheck.class);
+
+  private final double sampleRate;
+
+  private final AtomicLong compiled = new AtomicLong();
+  private final AtomicLong fallbacks = new AtomicLong();
+  private final AtomicLong checked = new AtomicLong();
+  private final AtomicLong mismatches = new AtomicLong();
+
+  public DifferentialCheck(double sampleRate) {
+    this.sampleRate = sampleRate;
+  }
+
+  public void compiled() {
+    compiled.incrementAndGet();
+  }
+
+  public void fallback() {
+    fallbacks.incrementAndGet();
+  }
+
+  public boolean sample() {
+    return sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate;
+  }
+
+  /**
+   * Returns true if the Responses have the same decisions, status codes, advice, policy identifiers and number of
+   * attribute categories
+   */
+  public boolean compare(Request request, Response compiledResponse, Response response) {
+    checked.incrementAndGet();
+    String expected = summary(response);
+    String actual = summary(compiledResponse);
+    if (expected.equals(actual)) {
+      return true;
+    }
+    mismatches.incrementAndGet();
+    LOG.warn("Compiled policies decided {} and OpenAZ decided {} for request {}", actual, expected, request);
+    return false;
+  }
+
+  private String summary(Response response) {
+    return response.getResults().stream().map(this::summary).collect(joining(", ", "[", "]"));
+  }
+
+  private String summary(Result result) {
+    return result.getDecision() + " " +
+        (result.getStatus() != null ? result.getStatus().getStatusCode().getStatusCodeValue().stringValue() : null) +
+        " advice " + sorted(nullSafe(result.getAssociatedAdvice()).stream().map(this::summary)) +
+        " policies " + sorted(nullSafe(result.getPolicyIdentifiers()).stream().map(this::summary)) +
+        " policy sets " + sorted(nullSafe(result.getPolicySetIdentifiers()).stream().map(this::summary)) +
+        " categories " + nullSafe(result.getAttributes()).size();
+  }
+
+  private String summary(Advice advice) {
+    return advice.getId().stringValue() + nullSafe(advice.getAttributeAssignments()).stream()
+        .map(assignment -> assignment.getAttributeId().stringValue() + "=" + assignment.getAttributeValue().getValue())
+        .collect(toList());
+  }
+
+  private String summary(IdReference idReference) {
+    return idReference.getId().stringValue();
+  }
+
+  private String sorted(Stream<String> values) {
+    return values.sorted().collect(toList()).toString();
+  }
+
+  private <T> Collection<T> nullSafe(Collection<T> collection) {
+    return collection != null ? collection : Collections.emptyList();
+  }
+
+  @Override
+  public Collection<Metric<?>> metrics() {
+    return Arrays.asList(
+        new Metric<>("policies.compiled.decisions", compiled.get()),
+        new Metric<>("policies.compiled.fallbacks", fallbacks.get()),
+        new Metric<>("policies.compiled.checked", checked.get()),
+        new Metric<>("policies.compiled.mismatches", mismatches.get())
+    );
+  }
+}
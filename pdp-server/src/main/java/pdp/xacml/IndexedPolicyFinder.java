@@ -0,0 +1,274 @@
+package pdp.xacml;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import org.apache.openaz.xacml.api.Attribute;
+import org.apache.openaz.xacml.api.AttributeValue;
+import org.apache.openaz.xacml.api.IdReferenceMatch;
+import org.apache.openaz.xacml.api.Request;
+import org.apache.openaz.xacml.pdp.eval.EvaluationContext;
+import org.apache.openaz.xacml.pdp.policy.*;
+import org.apache.openaz.xacml.pdp.std.StdPolicyFinder;
+import org.apache.openaz.xacml.std.StdIdReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import static java.util.stream.Collectors.toList;
+import static pdp.xacml.PdpPolicyDefinitionParser.RESOURCE_CATEGORY;
+import static pdp.xacml.PdpPolicyDefinitionParser.SP_ENTITY_ID;
+
+/*
+ * Thread-safe and immutable
+ *
+ * All policies are combined in one root PolicySet with an empty Target. Evaluating that PolicySet means matching the
+ * Target of every policy, while almost all policies can only match for one SPentityID. We index the policies on the
+ * SPentityID of their Target and for each request we evaluate a root PolicySet containing only the candidate
+ * policies. As non-candidate policies would evaluate to NotApplicable the (deny-overrides) outcome is the same.
+ *
+ * For every set of candidate policies we also keep the ids of the attributes they match on, so we know up front which
+ * PIP attributes the evaluation of a request can need, and the compiled policies if every candidate policy could be
+ * compiled. The policies are compiled with the AttributeDictionary of the IndexedPolicyFinder.
+ *
+ * Changes result in a new IndexedPolicyFinder that shares the root PolicySets of all untouched SPentityIDs. The attribute
+ * ids of a policy are determined once for all IndexedPolicyFinders. The root PolicySet of all policies is only built
+ * when needed, and after a change of a policy that can not be indexed the root PolicySet of an SPentityID is rebuilt on
+ * the first request for it, so the cost of a change is proportional to the changed policies.
+ */
+public class IndexedPolicyFinder implements PolicyFinder {
+
+  private static final Logger LOG = LoggerFactory.getLogger(IndexedPolicyFinder.class);
+
+  private final Function<Policy, Set<String>> serviceProviderIds;
+  private final LoadingCache<Policy, Set<String>> attributeIds;
+  private final Function<Policy, Optional<CompiledPolicy>> compiledPolicy;
+  private final AttributeDictionary dictionary;
+  private final Function<Collection<PolicySetChild>, PolicySet> rootPolicySet;
+
+  private final List<Policy> policies;
+  private final List<Policy> unindexedPolicies;
+  private final Map<String, List<Policy>> indexedPolicies;
+
+  private final Supplier<Candidates> allPolicies;
+  private final Candidates unindexedPoliciesCandidates;
+  //the candidates of the SPentityIDs that are not in the map yet are built on the first request
+  private final ConcurrentHashMap<String, Candidates> serviceProviderCandidates;
+
+  public IndexedPolicyFinder(Collection<Policy> policies,
+                             Function<Policy, Set<String>> serviceProviderIds,
+                             Function<Policy, Set<String>> attributeIds,
+                             Function<Policy, Optional<CompiledPolicy>> compiledPolicy,
+                             AttributeDictionary dictionary,
+                             Function<Collection<PolicySetChild>, PolicySet> rootPolicySet) {
+    this.serviceProviderIds = serviceProviderIds;
+    //weak keys are compared on identity, the policies that are no longer loaded are garbage collected
+    this.attributeIds = CacheBuilder.newBuilder().weakKeys().build(CacheLoader.from(attributeIds::apply));
+    this.compiledPolicy = compiledPolicy;
+    this.dictionary = dictionary;
+    this.rootPolicySet = rootPolicySet;
+    this.policies = new ArrayList<>(policies);
+    this.unindexedPolicies = new ArrayList<>();
+    this.indexedPolicies = new HashMap<>();
+    policies.forEach(this::index);
+    this.unindexedPoliciesCandidates = candidates(unindexedPolicies);
+    this.allPolicies = Suppliers.memoize(() -> candidates(this.policies));
+    this.serviceProviderCandidates = new ConcurrentHashMap<>();
+    indexedPolicies.keySet().forEach(this::serviceProviderCandidates);
+
+    LOG.info("Indexed {} policies on {} SPentityIDs. Number of policies that can not be indexed {}",
+        policies.size(), indexedPolicies.size(), unindexedPolicies.size());
+  }
+
+  private IndexedPolicyFinder(Function<Policy, Set<String>> serviceProviderIds,
+                              LoadingCache<Policy, Set<String>> attributeIds,
+                              Function<Policy, Optional<CompiledPolicy>> compiledPolicy,
+                              AttributeDictionary dictionary,
+                              Function<Collection<PolicySetChild>, PolicySet> rootPolicySet,
+                              List<Policy> policies,
+                              List<Policy> unindexedPolicies,
+                              Map<String, List<Policy>> indexedPolicies,
+                              Candidates unindexedPoliciesCandidates,
+                              ConcurrentHashMap<String, Candidates> serviceProviderCandidates) {
+    this.serviceProviderIds = serviceProviderIds;
+    this.attributeIds = attributeIds;
+    this.compiledPolicy = compiledPolicy;
+    this.dictionary = dictionary;
+    this.rootPolicySet = rootPolicySet;
+    this.policies = policies;
+    this.unindexedPolicies = unindexedPolicies;
+    this.indexedPolicies = indexedPolicies;
+    this.unindexedPoliciesCandidates = unindexedPoliciesCandidates != null ?
+        unindexedPoliciesCandidates : candidates(unindexedPolicies);
+    this.allPolicies = Suppliers.memoize(() -> candidates(policies));
+    this.serviceProviderCandidates = serviceProviderCandidates;
+  }
+
+  /**
+   * Returns a new IndexedPolicyFinder with the removed policies taken out and the added policies indexed. Only the
+   * root PolicySets of the affected SPentityIDs are rebuilt. If a policy that can not be indexed changed the root
+   * PolicySets of all SPentityIDs are rebuilt on their first request. The added policies are compiled with the same
+   * AttributeDictionary.
+   */
+  public IndexedPolicyFinder withChanges(Collection<Policy> removed, Collection<Policy> added) {
+    Set<Policy> removedPolicies = Collections.newSetFromMap(new IdentityHashMap<>());
+    removedPolicies.addAll(removed);
+
+    List<Policy> newPolicies = policies.stream().filter(policy -> !removedPolicies.contains(policy)).collect(toList());
+    newPolicies.addAll(added);
+
+    List<Policy> newUnindexedPolicies = new ArrayList<>(unindexedPolicies);
+    Map<String, List<Policy>> newIndexedPolicies = new HashMap<>(indexedPolicies);
+    Set<String> changedServiceProviderIds = new HashSet<>();
+    boolean unindexedPoliciesChanged = false;
+
+    for (Policy policy : removed) {
+      Set<String> spEntityIds = serviceProviderIds.apply(policy);
+      if (spEntityIds.isEmpty()) {
+        unindexedPoliciesChanged |= newUnindexedPolicies.remove(policy);
+      }
+      spEntityIds.forEach(spEntityId -> {
+        List<Policy> candidates = new ArrayList<>(newIndexedPolicies.getOrDefault(spEntityId, Collections.emptyList()));
+        candidates.remove(policy);
+        newIndexedPolicies.put(spEntityId, candidates);
+        changedServiceProviderIds.add(spEntityId);
+      });
+    }
+    for (Policy policy : added) {
+      Set<String> spEntityIds = serviceProviderIds.apply(policy);
+      if (spEntityIds.isEmpty()) {
+        newUnindexedPolicies.add(policy);
+        unindexedPoliciesChanged = true;
+      }
+      spEntityIds.forEach(spEntityId -> {
+        List<Policy> candidates = new ArrayList<>(newIndexedPolicies.getOrDefault(spEntityId, Collections.emptyList()));
+        candidates.add(policy);
+        newIndexedPolicies.put(spEntityId, candidates);
+        changedServiceProviderIds.add(spEntityId);
+      });
+    }
+    newIndexedPolicies.values().removeIf(List::isEmpty);
+
+    //the unindexed policies are part of every root PolicySet
+    ConcurrentHashMap<String, Candidates> newCandidates = unindexedPoliciesChanged ?
+        new ConcurrentHashMap<>() : new ConcurrentHashMap<>(serviceProviderCandidates);
+    newCandidates.keySet().removeAll(changedServiceProviderIds);
+
+    IndexedPolicyFinder policyFinder = new IndexedPolicyFinder(serviceProviderIds, attributeIds, compiledPolicy, dictionary, rootPolicySet,
+        newPolicies, newUnindexedPolicies, newIndexedPolicies, unindexedPoliciesChanged ? null : unindexedPoliciesCandidates,
+        newCandidates);
+    if (unindexedPoliciesChanged) {
+      LOG.info("Removed {} and added {} policies. Policies that can not be indexed changed, the {} SPentityIDs are " +
+          "re-indexed on their first request", removed.size(), added.size(), newIndexedPolicies.size());
+    } else {
+      changedServiceProviderIds.stream().filter(newIndexedPolicies::containsKey).forEach(policyFinder::serviceProviderCandidates);
+      LOG.info("Removed {} and added {} policies. Re-indexed {} SPentityIDs",
+          removed.size(), added.size(), changedServiceProviderIds.size());
+    }
+    return policyFinder;
+  }
+
+  @Override
+  public PolicyFinderResult<PolicyDef> getRootPolicyDef(EvaluationContext evaluationContext) {
+    return candidates(evaluationContext.getRequest()).policyFinder.getRootPolicyDef(evaluationContext);
+  }
+
+  @Override
+  public PolicyFinderResult<Policy> getPolicy(IdReferenceMatch idReferenceMatch) {
+    return allPolicies.get().policyFinder.getPolicy(idReferenceMatch);
+  }
+
+  @Override
+  public PolicyFinderResult<PolicySet> getPolicySet(IdReferenceMatch idReferenceMatch) {
+    return allPolicies.get().policyFinder.getPolicySet(idReferenceMatch);
+  }
+
+  /**
+   * Returns the ids of the attributes the candidate policies for the request match on, see
+   * PdpPolicyDefinitionParser#attributeIds
+   */
+  public Set<String> referencedAttributeIds(Request request) {
+    return candidates(request).attributeIds;
+  }
+
+  /**
+   * Returns the compiled candidate policies for the request, empty if one of the candidate policies is not compiled
+   */
+  public Optional<CompiledPolicies> compiledPolicies(Request request) {
+    return candidates(request).compiledPolicies;
+  }
+
+  private Candidates candidates(Request request) {
+    Optional<String> spEntityId = serviceProviderId(request);
+    if (!spEntityId.isPresent()) {
+      //without a single SPentityID the Target of the policies decide, e.g. Indeterminate for a missing SPentityID
+      return allPolicies.get();
+    }
+    return indexedPolicies.containsKey(spEntityId.get()) ?
+        serviceProviderCandidates(spEntityId.get()) : unindexedPoliciesCandidates;
+  }
+
+  private Optional<String> serviceProviderId(Request request) {
+    List<AttributeValue<?>> values = request.getRequestAttributes().stream()
+        .filter(requestAttributes -> RESOURCE_CATEGORY.equals(requestAttributes.getCategory().getUri().toString()))
+        .flatMap(requestAttributes -> requestAttributes.getAttributes().stream())
+        .filter(attribute -> SP_ENTITY_ID.equals(attribute.getAttributeId().getUri().toString()))
+        .map(Attribute::getValues)
+        .flatMap(Collection::stream)
+        .collect(toList());
+    if (values.size() != 1 || !(values.get(0).getValue() instanceof String)) {
+      return Optional.empty();
+    }
+    return Optional.of((String) values.get(0).getValue());
+  }
+
+  private void index(Policy policy) {
+    Set<String> spEntityIds = serviceProviderIds.apply(policy);
+    if (spEntityIds.isEmpty()) {
+      unindexedPolicies.add(policy);
+    } else {
+      spEntityIds.forEach(spEntityId -> indexedPolicies.computeIfAbsent(spEntityId, key -> new ArrayList<>()).add(policy));
+    }
+  }
+
+  private Candidates serviceProviderCandidates(String spEntityId) {
+    return serviceProviderCandidates.computeIfAbsent(spEntityId, key -> {
+      //policies we can not index are candidates for every request
+      List<Policy> candidates = new ArrayList<>(indexedPolicies.get(key));
+      candidates.addAll(unindexedPolicies);
+      return candidates(candidates);
+    });
+  }
+
+  private Candidates candidates(List<Policy> candidates) {
+    Set<String> candidatesAttributeIds = new HashSet<>();
+    candidates.forEach(policy -> candidatesAttributeIds.addAll(attributeIds.getUnchecked(policy)));
+    PolicySet root = rootPolicySet.apply(new ArrayList<>(candidates));
+    //without candidates the root PolicySet decides, see OpenConextPDPEngine#processRequest
+    List<CompiledPolicy> compiledPolicies = candidates.stream().map(compiledPolicy)
+        .filter(Optional::isPresent).map(Optional::get).collect(toList());
+    Optional<CompiledPolicies> compiledCandidates = !candidates.isEmpty() && compiledPolicies.size() == candidates.size() ?
+        Optional.of(new CompiledPolicies(compiledPolicies, dictionary, new StdIdReference(root.getIdentifier(), root.getVersion()))) :
+        Optional.empty();
+    return new Candidates(new StdPolicyFinder(root, null), Collections.unmodifiableSet(candidatesAttributeIds),
+        compiledCandidates);
+  }
+
+  private static class Candidates {
+    private final PolicyFinder policyFinder;
+    private final Set<String> attributeIds;
+    private final Optional<CompiledPolicies> compiledPolicies;
+
+    private Candidates(PolicyFinder policyFinder, Set<String> attributeIds, Optional<CompiledPolicies> compiledPolicies) {
+      this.policyFinder = policyFinder;
+      this.attributeIds = attributeIds;
+      this.compiledPolicies = compiledPolicies;
+    }
+  }
+
+}
@@ -0,0 +1,313 @@
+package pdp.xacml;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.common.collect.ImmutableMap;
+import org.apache.openaz.xacml.api.Attribute;
+import org.apache.openaz.xacml.api.AttributeValue;
+import org.apache.openaz.xacml.api.Identifier;
+import org.apache.openaz.xacml.api.Request;
+import org.apache.openaz.xacml.api.RequestAttributes;
+import org.apache.openaz.xacml.api.XACML3;
+import org.apache.openaz.xacml.std.IdentifierImpl;
+import org.apache.openaz.xacml.std.StdAttribute;
+import org.apache.openaz.xacml.std.StdAttributeValue;
+import org.apache.openaz.xacml.std.StdMutableRequest;
+import org.apache.openaz.xacml.std.StdMutableRequestAttributes;
+import org.apache.openaz.xacml.std.json.JSONRequest;
+import org.apache.openaz.xacml.std.json.JSONStructureException;
+import pdp.JsonMapper;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static pdp.xacml.PdpPolicyDefinitionParser.IDP_ENTITY_ID;
+import static pdp.xacml.PdpPolicyDefinitionParser.RESOURCE_CATEGORY;
+import static pdp.xacml.PdpPolicyDefinitionParser.SP_ENTITY_ID;
+import static pdp.xacml.PdpPolicyDefinitionParser.STRING_DATA_TYPE;
+
+/*
+ * Thread-safe
+ *
+ * Reads a XACML JSON request in one pass with the streaming JsonParser of Jackson and creates the Request directly
+ * from the payload bytes, the SPentityID and the IDPentityID for the stats are read in the same pass. Only the shape the
+ * PEPs send is read: the shorthand categories with attributes that have string values. Every other request - e.g.
+ * MultiRequests, Content, other data types or invalid JSON - is loaded by JSONRequest like before.
+ *
+ * A JSON array of requests is read in the same pass, only an element of another shape is loaded by JSONRequest.
+ */
+public class JsonRequestReader implements JsonMapper {
+
+  private static final Map<String, Identifier> CATEGORIES = ImmutableMap.of(
+      "AccessSubject", XACML3.ID_SUBJECT_CATEGORY_ACCESS_SUBJECT,
+      "Resource", XACML3.ID_ATTRIBUTE_CATEGORY_RESOURCE,
+      "Action", XACML3.ID_ATTRIBUTE_CATEGORY_ACTION,
+      "Environment", XACML3.ID_ATTRIBUTE_CATEGORY_ENVIRONMENT);
+
+  //the PEPs send the same attribute ids over and over again, but we don't want to cache every id someone sends
+  private static final int MAX_ATTRIBUTE_IDENTIFIERS = 1024;
+
+  private final Map<String, Identifier> attributeIdentifiers = new ConcurrentHashMap<>();
+
+  public ParsedRequest read(byte[] payload) throws JSONStructureException {
+    try (JsonParser parser = objectMapper.getFactory().createParser(payload)) {
+      StdMutableRequest request = new StdMutableRequest();
+      ParsedRequest parsedRequest = new ParsedRequest(request, payload);
+      readRoot(parser, request, parsedRequest);
+      return parsedRequest;
+    } catch (IOException e) {
+      //not the shape we read or invalid JSON, JSONRequest either loads it or reports the error like it always did
+      return fallback(payload);
+    }
+  }
+
+  /**
+   * Reads a JSON array of XACML JSON requests, every element like #read. Returns an empty Optional if the payload is
+   * not an array. Invalid JSON is reported as a JSONStructureException.
+   */
+  public Optional<List<ParsedRequest>> readBatch(byte[] payload) throws JSONStructureException {
+    try (JsonParser parser = objectMapper.getFactory().createParser(payload)) {
+      if (parser.nextToken() != JsonToken.START_ARRAY) {
+        return Optional.empty();
+      }
+      JsonStreamContext arrayContext = parser.getParsingContext();
+      List<ParsedRequest> parsedRequests = new ArrayList<>();
+      JsonToken token;
+      while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+        //the token location of an element can include the separator before it
+        int start = (int) parser.getTokenLocation().getByteOffset();
+        while (payload[start] == ',' || Character.isWhitespace(payload[start])) {
+          start++;
+        }
+        StdMutableRequest request = new StdMutableRequest();
+        ParsedRequest parsedRequest = new ParsedRequest(request, null);
+        try {
+          expect(token, JsonToken.START_OBJECT, parser);
+          readRequests(parser, request, parsedRequest);
+        } catch (UnsupportedRequestException e) {
+          //skip the rest of the element
+          while (parser.getParsingContext() != arrayContext) {
+            parser.nextToken();
+          }
+          parsedRequest = null;
+        }
+        byte[] element = Arrays.copyOfRange(payload, start, (int) parser.getCurrentLocation().getByteOffset());
+        if (parsedRequest == null) {
+          parsedRequest = fallback(element);
+        }
+        parsedRequest.payload = element;
+        parsedRequests.add(parsedRequest);
+      }
+      return Optional.of(parsedRequests);
+    } catch (IOException e) {
+      throw new JSONStructureException(e.getMessage());
+    }
+  }
+
+  private void readRoot(JsonParser parser, StdMutableRequest request, ParsedRequest parsedRequest) throws IOException {
+    expect(parser.nextToken(), JsonToken.START_OBJECT, parser);
+    readRequests(parser, request, parsedRequest);
+    if (parser.nextToken() != null) {
+      throw new UnsupportedRequestException("trailing content");
+    }
+  }
+
+  private void readRequests(JsonParser parser, StdMutableRequest request, ParsedRequest parsedRequest) throws IOException {
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      if (!"Request".equals(parser.getCurrentName())) {
+        throw new UnsupportedRequestException(parser.getCurrentName());
+      }
+      expect(parser.nextToken(), JsonToken.START_OBJECT, parser);
+      readRequest(parser, request, parsedRequest);
+    }
+  }
+
+  private void readRequest(JsonParser parser, StdMutableRequest request, ParsedRequest parsedRequest) throws IOException {
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      JsonToken token = parser.nextToken();
+      if ("ReturnPolicyIdList".equals(name)) {
+        request.setReturnPolicyIdList(booleanValue(token, parser));
+      } else if ("CombinedDecision".equals(name)) {
+        request.setCombinedDecision(booleanValue(token, parser));
+      } else if (CATEGORIES.containsKey(name)) {
+        Identifier category = CATEGORIES.get(name);
+        boolean resource = "Resource".equals(name);
+        if (token == JsonToken.START_ARRAY) {
+          while (parser.nextToken() == JsonToken.START_OBJECT) {
+            request.add(readCategory(parser, category, resource, parsedRequest));
+          }
+        } else {
+          expect(token, JsonToken.START_OBJECT, parser);
+          request.add(readCategory(parser, category, resource, parsedRequest));
+        }
+      } else {
+        throw new UnsupportedRequestException(name);
+      }
+    }
+  }
+
+  private RequestAttributes readCategory(JsonParser parser, Identifier category, boolean resource,
+                                        ParsedRequest parsedRequest) throws IOException {
+    List<Attribute> attributes = new ArrayList<>();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      if (!"Attribute".equals(parser.getCurrentName())) {
+        throw new UnsupportedRequestException(parser.getCurrentName());
+      }
+      JsonToken token = parser.nextToken();
+      if (token == JsonToken.START_ARRAY) {
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+          attributes.add(readAttribute(parser, category, resource, parsedRequest));
+        }
+      } else {
+        expect(token, JsonToken.START_OBJECT, parser);
+        attributes.add(readAttribute(parser, category, resource, parsedRequest));
+      }
+    }
+    return new StdMutableRequestAttributes(category, attributes, null, null);
+  }
+
+  private Attribute readAttribute(JsonParser parser, Identifier category, boolean resource, ParsedRequest parsedRequest) throws IOException {
+    String attributeId = null;
+    String issuer = null;
+    boolean includeInResult = false;
+    String firstValue = null;
+    List<AttributeValue<?>> values = new ArrayList<>(1);
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      JsonToken token = parser.nextToken();
+      if ("AttributeId".equals(name)) {
+        attributeId = stringValue(token, parser);
+      } else if ("Value".equals(name)) {
+        if (token == JsonToken.START_ARRAY) {
+          while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            String value = stringValue(token, parser);
+            firstValue = firstValue == null ? value : firstValue;
+            values.add(new StdAttributeValue<>(XACML3.ID_DATATYPE_STRING, value));
+          }
+        } else {
+          String value = stringValue(token, parser);
+          firstValue = firstValue == null ? value : firstValue;
+          values.add(new StdAttributeValue<>(XACML3.ID_DATATYPE_STRING, value));
+        }
+      } else if ("DataType".equals(name)) {
+        String dataType = stringValue(token, parser);
+        if (!"string".equals(dataType) && !STRING_DATA_TYPE.equals(dataType)) {
+          throw new UnsupportedRequestException(dataType);
+        }
+      } else if ("Issuer".equals(name)) {
+        issuer = stringValue(token, parser);
+      } else if ("IncludeInResult".equals(name)) {
+        includeInResult = booleanValue(token, parser);
+      } else {
+        throw new UnsupportedRequestException(name);
+      }
+    }
+    if (attributeId == null || values.isEmpty()) {
+      throw new UnsupportedRequestException("attribute without id or values");
+    }
+    if (resource) {
+      parsedRequest.statsDetail(attributeId, firstValue);
+    }
+    return new StdAttribute(category, attributeIdentifier(attributeId), values, issuer, includeInResult);
+  }
+
+  private Identifier attributeIdentifier(String attributeId) {
+    Identifier identifier = attributeIdentifiers.get(attributeId);
+    if (identifier != null) {
+      return identifier;
+    }
+    identifier = new IdentifierImpl(attributeId);
+    if (attributeIdentifiers.size() < MAX_ATTRIBUTE_IDENTIFIERS) {
+      attributeIdentifiers.putIfAbsent(attributeId, identifier);
+    }
+    return identifier;
+  }
+
+  private String stringValue(JsonToken token, JsonParser parser) throws IOException {
+    expect(token, JsonToken.VALUE_STRING, parser);
+    return parser.getText();
+  }
+
+  private boolean booleanValue(JsonToken token, JsonParser parser) throws IOException {
+    if (token != JsonToken.VALUE_TRUE && token != JsonToken.VALUE_FALSE) {
+      throw new UnsupportedRequestException(parser.getCurrentName());
+    }
+    return token == JsonToken.VALUE_TRUE;
+  }
+
+  private void expect(JsonToken token, JsonToken expected, JsonParser parser) throws IOException {
+    if (token != expected) {
+      throw new UnsupportedRequestException(expected + " expected for " + parser.getCurrentName() + " but got " + token);
+    }
+  }
+
+  private ParsedRequest fallback(byte[] payload) throws JSONStructureException {
+    Request request = JSONRequest.load(new String(payload, StandardCharsets.UTF_8));
+    ParsedRequest parsedRequest = new ParsedRequest(request, payload);
+    request.getRequestAttributes().stream()
+        .filter(requestAttributes -> RESOURCE_CATEGORY.equals(requestAttributes.getCategory().getUri().toString()))
+        .flatMap(requestAttributes -> requestAttributes.getAttributes().stream())
+        .filter(attribute -> !attribute.getValues().isEmpty() && attribute.getValues().iterator().next().getValue() instanceof String)
+        .forEach(attribute -> parsedRequest.statsDetail(attribute.getAttributeId().getUri().toString(),
+            (String) attribute.getValues().iterator().next().getValue()));
+    return parsedRequest;
+  }
+
+  public static class ParsedRequest {
+    private final Request request;
+    private byte[] payload;
+    private String serviceProvider = "";
+    private String identityProvider = "";
+    private boolean serviceProviderRead;
+    private boolean identityProviderRead;
+
+    private ParsedRequest(Request request, byte[] payload) {
+      this.request = request;
+      this.payload = payload;
+    }
+
+    //only the first SPentityID and IDPentityID are used for the stats
+    private void statsDetail(String attributeId, String value) {
+      if (SP_ENTITY_ID.equals(attributeId) && !serviceProviderRead) {
+        serviceProvider = value;
+        serviceProviderRead = true;
+      } else if (IDP_ENTITY_ID.equals(attributeId) && !identityProviderRead) {
+        identityProvider = value;
+        identityProviderRead = true;
+      }
+    }
+
+    public Request getRequest() {
+      return request;
+    }
+
+    /**
+     * The JSON the request is read from, for a request of a batch only the element
+     */
+    public byte[] getPayload() {
+      return payload;
+    }
+
+    public String getServiceProvider() {
+      return serviceProvider;
+    }
+
+    public String getIdentityProvider() {
+      return identityProvider;
+    }
+  }
+
+  private static class UnsupportedRequestException extends IOException {
+    private UnsupportedRequestException(String message) {
+      super(message);
+    }
+  }
+}
@@ -1,5 +1,8 @@
 package pdp.xacml;
 
+import org.apache.openaz.xacml.api.Attribute;
+import org.apache.openaz.xacml.api.AttributeValue;
+import org.apache.openaz.xacml.api.Request;
 import org.apache.openaz.xacml.api.pip.PIPEngine;
 import org.apache.openaz.xacml.std.pip.finders.ConfigurableEngineFinder;
 import pdp.sab.SabClient;
@@ -7,10 +10,33 @@ import pdp.sab.SabClientAware;
 import pdp.teams.VootClient;
 import pdp.teams.VootClientAware;
 
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
+import static pdp.xacml.PdpPolicyDefinitionParser.NAME_ID;
+
 public class OpenConextConfigurableEngineFinder extends ConfigurableEngineFinder {
 
+  private static final String ACCESS_SUBJECT_CATEGORY = "urn:oasis:names:tc:xacml:1.0:subject-category:access-subject";
+
   private final VootClient vootClient;
   private final SabClient sabClient;
+  private final List<AbstractConfigurableEngine> configurableEngines = new CopyOnWriteArrayList<>();
+
+  //no queue, if all threads are busy the PIP is called on the request thread
+  private final ExecutorService prefetchExecutor = new ThreadPoolExecutor(0, 64, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), runnable -> {
+    Thread thread = new Thread(runnable, "pip-prefetch");
+    thread.setDaemon(true);
+    return thread;
+  });
 
   public OpenConextConfigurableEngineFinder(VootClient vootClient, SabClient sabClient) {
     this.vootClient = vootClient;
@@ -25,7 +51,45 @@ public class OpenConextConfigurableEngineFinder extends ConfigurableEngineFinder
     if (pipEngine instanceof SabClientAware) {
       ((SabClientAware) pipEngine).setSabClient(this.sabClient);
     }
+    if (pipEngine instanceof AbstractConfigurableEngine) {
+      configurableEngines.add((AbstractConfigurableEngine) pipEngine);
+    }
     super.register(pipEngine);
   }
 
+  /**
+   * Calls the PIPs providing the referenced attributes concurrently for the subject of the request before the
+   * evaluation asks for them one after another. One PIP is simply called when asked for and policies that may need any
+   * attribute do not trigger a prefetch.
+   */
+  public void prefetch(Request request, Set<String> referencedAttributeIds) {
+    List<AbstractConfigurableEngine> engines = configurableEngines.stream()
+        .filter(engine -> referencedAttributeIds.contains(engine.getIdentifierProvidedAttribute()))
+        .collect(toList());
+    if (engines.size() < 2) {
+      return;
+    }
+    nameId(request).ifPresent(userUrn -> engines.forEach(engine -> engine.prefetch(userUrn, prefetchExecutor)));
+  }
+
+  /**
+   * The ids of the attributes the PIPs provide
+   */
+  public Set<String> providedAttributeIds() {
+    return configurableEngines.stream().map(AbstractConfigurableEngine::getIdentifierProvidedAttribute).collect(toSet());
+  }
+
+  private Optional<String> nameId(Request request) {
+    return request.getRequestAttributes().stream()
+        .filter(requestAttributes -> ACCESS_SUBJECT_CATEGORY.equals(requestAttributes.getCategory().getUri().toString()))
+        .flatMap(requestAttributes -> requestAttributes.getAttributes().stream())
+        .filter(attribute -> NAME_ID.equals(attribute.getAttributeId().getUri().toString()))
+        .map(Attribute::getValues)
+        .flatMap(values -> values.stream())
+        .map(AttributeValue::getValue)
+        .filter(value -> value instanceof String)
+        .map(value -> (String) value)
+        .findFirst();
+  }
+
 }
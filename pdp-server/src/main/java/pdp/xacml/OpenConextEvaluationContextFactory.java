@@ -1,10 +1,13 @@
 package pdp.xacml;
 
-import org.apache.openaz.xacml.api.Decision;
-import org.apache.openaz.xacml.api.pip.PIPFinder;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import org.apache.openaz.xacml.api.Request;
+import org.apache.openaz.xacml.api.Response;
+import org.apache.openaz.xacml.pdp.eval.EvaluationContext;
 import org.apache.openaz.xacml.pdp.policy.*;
 import org.apache.openaz.xacml.pdp.std.StdEvaluationContextFactory;
-import org.apache.openaz.xacml.pdp.std.StdPolicyFinder;
 import org.apache.openaz.xacml.pdp.util.OpenAZPDPProperties;
 import org.apache.openaz.xacml.std.IdentifierImpl;
 import org.apache.openaz.xacml.std.StdVersion;
@@ -19,10 +22,11 @@ import pdp.teams.VootClient;
 
 import java.io.IOException;
 import java.text.ParseException;
-import java.util.ArrayList;
-import java.util.Collection;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import static java.util.stream.Collectors.toCollection;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toMap;
 import static java.util.stream.StreamSupport.stream;
 import static pdp.xacml.PolicyTemplateEngine.getPolicyId;
 
@@ -30,79 +34,231 @@ public class OpenConextEvaluationContextFactory extends StdEvaluationContextFact
 
   private static Logger LOG = LoggerFactory.getLogger(OpenConextEvaluationContextFactory.class);
 
-  private final PdpPolicyDefinitionParser policyDefinitionParser = new PdpPolicyDefinitionParser();
+  private static final String DENY_OVERRIDES = "urn:oasis:names:tc:xacml:3.0:policy-combining-algorithm:deny-overrides";
 
+  private final PdpPolicyDefinitionParser policyDefinitionParser;
   private final PdpPolicyRepository pdpPolicyRepository;
   private final boolean cachePolicies;
   private final boolean includeInactivePolicies;
+  private final boolean compilePolicies;
+  private final OpenConextConfigurableEngineFinder pipFinder;
+  private final ThreadLocal<IndexedPolicyFinder> evaluationPolicyFinder = new ThreadLocal<>();
+  private CombiningAlgorithm<PolicySetChild> algorithm;
+  private boolean compile;
+
+  // Swapped on refresh, the IndexedPolicyFinder itself is immutable
+  private volatile IndexedPolicyFinder policyFinder;
+  // The policies compiled since the last full reload, only used under the lock of refreshPolicies
+  private PolicyCompilation policyCompilation;
+  private volatile Map<Long, LoadedPolicy> loadedPolicies;
+  private volatile Map<String, Long> policyRowIds;
+  private volatile long policiesVersion;
 
   public OpenConextEvaluationContextFactory(PdpPolicyRepository pdpPolicyRepository,
+                                            PdpPolicyDefinitionParser policyDefinitionParser,
                                             VootClient vootClient,
                                             SabClient sabClient,
                                             boolean cachePolicies,
-                                            boolean includeInactivePolicies) throws IOException {
+                                            boolean includeInactivePolicies,
+                                            boolean compilePolicies) throws IOException {
     this.pdpPolicyRepository = pdpPolicyRepository;
+    this.policyDefinitionParser = policyDefinitionParser;
     this.cachePolicies = cachePolicies;
     this.includeInactivePolicies = includeInactivePolicies;
-    setPolicyFinder(loadPolicyFinder());
-    setPIPFinder(loadPIPFinder(vootClient, sabClient));
+    this.compilePolicies = compilePolicies;
+    //the policies that need the attributes of the PIPs are not compiled
+    this.pipFinder = loadPIPFinder(vootClient, sabClient);
+    setPIPFinder(pipFinder);
+    loadPolicyFinder();
+  }
+
+  /**
+   * Refreshes the policies if they are not cached, called once per decision before the compiled policies or OpenAZ
+   * decide
+   */
+  public void refreshUncachedPolicies() {
+    if (!cachePolicies) {
+      refreshPolicies();
+    }
+  }
+
+  /**
+   * Decides with the compiled candidate policies for the request, empty if the request must be evaluated by OpenAZ
+   */
+  public Optional<Response> compiledDecision(Request request) {
+    return policyFinder.compiledPolicies(request).flatMap(compiledPolicies -> compiledPolicies.decide(request));
+  }
+
+  @Override
+  public EvaluationContext getEvaluationContext(Request request) {
+    IndexedPolicyFinder finder = this.policyFinder;
+    Set<String> referencedAttributeIds = finder.referencedAttributeIds(request);
+    ReferencedAttributes.set(referencedAttributeIds);
+    pipFinder.prefetch(request, referencedAttributeIds);
+    //a concurrent refresh must not give the evaluation other policies than the ones the referenced attributes are of
+    evaluationPolicyFinder.set(finder);
+    try {
+      return super.getEvaluationContext(request);
+    } finally {
+      evaluationPolicyFinder.remove();
+    }
   }
 
   @Override
   protected PolicyFinder getPolicyFinder() {
-    if (cachePolicies) {
-      return super.getPolicyFinder();
+    IndexedPolicyFinder finder = evaluationPolicyFinder.get();
+    return finder != null ? finder : policyFinder;
+  }
+
+  /**
+   * True if one of the candidate policies of the request may need an attribute of a PIP, the evaluation of the request
+   * may then wait for a remote call
+   */
+  public boolean needsPip(Request request) {
+    Set<String> referencedAttributeIds = policyFinder.referencedAttributeIds(request);
+    return referencedAttributeIds.contains(PdpPolicyDefinitionParser.ANY_ATTRIBUTE_ID) ||
+        pipFinder.providedAttributeIds().stream().anyMatch(referencedAttributeIds::contains);
+  }
+
+  /**
+   * Changes every time the loaded policies change
+   */
+  public long getPoliciesVersion() {
+    return policiesVersion;
+  }
+
+  /**
+   * Returns the database id of the policy with the given XACML PolicyId as loaded in the current snapshot
+   */
+  public Optional<Long> policyRowId(String policyId) {
+    return Optional.ofNullable(policyRowIds.get(policyId));
+  }
+
+  /**
+   * Only (re)-parses the policies that are new or have a new revision since the last refresh and only re-indexes the
+   * SPentityIDs of the changed policies. Evaluations in progress keep using the previous IndexedPolicyFinder.
+   *
+   * The changed policies are compiled with the AttributeDictionary of the last full reload, which keeps the codes of
+   * the replaced policies. Once more than twice the number of loaded policies has been compiled with it, all loaded
+   * policies are indexed and compiled again with a new AttributeDictionary.
+   */
+  public synchronized void refreshPolicies() {
+    long start = System.currentTimeMillis();
+    Map<Long, Integer> revisionNbrPerId = pdpPolicyRepository.findRevisionNbrAndActivePerId().stream()
+        .filter(row -> (Boolean) row[2] || includeInactivePolicies)
+        .collect(toMap(row -> (Long) row[0], row -> (Integer) row[1]));
+
+    Map<Long, LoadedPolicy> newLoadedPolicies = new HashMap<>(loadedPolicies);
+    List<Policy> removed = new ArrayList<>();
+    newLoadedPolicies.keySet().stream().filter(id -> !revisionNbrPerId.containsKey(id)).collect(toList())
+        .forEach(id -> removed.add(newLoadedPolicies.remove(id).policy));
+
+    List<Long> changedIds = revisionNbrPerId.entrySet().stream()
+        .filter(entry -> !newLoadedPolicies.containsKey(entry.getKey()) || newLoadedPolicies.get(entry.getKey()).revisionNbr != entry.getValue())
+        .map(Map.Entry::getKey)
+        .collect(toList());
+    if (removed.isEmpty() && changedIds.isEmpty()) {
+      LOG.debug("No changed policies in the database");
+      return;
+    }
+
+    List<Policy> added = new ArrayList<>();
+    if (!changedIds.isEmpty()) {
+      pdpPolicyRepository.findAll(changedIds).forEach(pdpPolicy -> {
+        LoadedPolicy loadedPolicy = new LoadedPolicy(pdpPolicy);
+        LoadedPolicy previous = newLoadedPolicies.put(pdpPolicy.getId(), loadedPolicy);
+        if (previous != null) {
+          removed.add(previous.policy);
+        }
+        added.add(loadedPolicy.policy);
+      });
+    }
+    if (policyCompilation.compiled.get() + added.size() > 2 * newLoadedPolicies.size()) {
+      LOG.info("Compiled {} policies since the last full reload, re-indexing all policies", policyCompilation.compiled.get());
+      this.policyFinder = newPolicyFinder(newLoadedPolicies.values().stream().map(loadedPolicy -> loadedPolicy.policy).collect(toList()));
     } else {
-      return loadPolicyFinder();
+      this.policyFinder = policyFinder.withChanges(removed, added);
     }
+    setLoadedPolicies(newLoadedPolicies);
+    LOG.info("Refreshed policies from the database in {} ms. Removed {} and (re)-loaded {} policies",
+        System.currentTimeMillis() - start, removed.size(), added.size());
   }
 
-  private PolicyFinder loadPolicyFinder() {
-    Collection<PolicySetChild> policies =
+  private synchronized void loadPolicyFinder() {
+    List<LoadedPolicy> policies =
         stream(pdpPolicyRepository.findAll().spliterator(), false)
             .filter(policy -> policy.isActive() || includeInactivePolicies)
-            .map(policy -> (PolicySetChild) convertToPolicyDef(policy))
-            .collect(toCollection(ArrayList::new));
-    LOG.info("(Re)-loaded {} policies from the database", policies.size());
+            .map(LoadedPolicy::new)
+            .collect(toList());
+    LOG.info("Loaded {} policies from the database", policies.size());
     try {
-      return new StdPolicyFinder(combinePolicies(policies), null);
+      this.algorithm = combiningAlgorithm();
+      //the compiled policies are combined with deny-overrides
+      this.compile = compilePolicies && DENY_OVERRIDES.equals(algorithm.getId().stringValue());
+      this.policyFinder = newPolicyFinder(policies.stream().map(loadedPolicy -> loadedPolicy.policy).collect(toList()));
+      Map<Long, LoadedPolicy> loadedPolicies = new HashMap<>();
+      policies.forEach(loadedPolicy -> loadedPolicies.put(loadedPolicy.id, loadedPolicy));
+      setLoadedPolicies(loadedPolicies);
     } catch (Exception e) {
       throw new RuntimeException(e);
     }
   }
 
-  private PolicySet combinePolicies(Collection<PolicySetChild> policies) throws IOException, FactoryException, ParseException {
+  private IndexedPolicyFinder newPolicyFinder(List<Policy> policies) {
+    PolicyCompilation compilation = new PolicyCompilation();
+    this.policyCompilation = compilation;
+    return new IndexedPolicyFinder(policies, policyDefinitionParser::serviceProviderIds,
+        policyDefinitionParser::attributeIds,
+        policy -> compile ? compilation.compiledPolicies.getUnchecked(policy) : Optional.empty(),
+        compilation.dictionary,
+        children -> combinePolicies(children, algorithm));
+  }
+
+  private void setLoadedPolicies(Map<Long, LoadedPolicy> loadedPolicies) {
+    Map<String, Long> policyRowIds = new HashMap<>();
+    loadedPolicies.values().forEach(loadedPolicy -> policyRowIds.put(loadedPolicy.policyId, loadedPolicy.id));
+    this.policyRowIds = policyRowIds;
+    this.loadedPolicies = loadedPolicies;
+    this.policiesVersion++;
+  }
+
+  private CombiningAlgorithm<PolicySetChild> combiningAlgorithm() throws IOException, FactoryException {
     String combiningAlgorithm = XACMLProperties.getProperties().getProperty(
-        OpenAZPDPProperties.PROP_POLICYFINDERFACTORY_COMBINEROOTPOLICIES, "urn:oasis:names:tc:xacml:3.0:policy-combining-algorithm:deny-overrides");
+        OpenAZPDPProperties.PROP_POLICYFINDERFACTORY_COMBINEROOTPOLICIES, DENY_OVERRIDES);
     CombiningAlgorithm<PolicySetChild> algorithm = CombiningAlgorithmFactory.newInstance()
         .getPolicyCombiningAlgorithm(new IdentifierImpl(combiningAlgorithm));
 
     LOG.info("Combining root policies with " + algorithm);
+    return algorithm;
+  }
 
+  private PolicySet combinePolicies(Collection<PolicySetChild> policies, CombiningAlgorithm<PolicySetChild> algorithm) {
     PolicySet root = new PolicySet();
     root.setIdentifier(new IdentifierImpl("urn:openconext:pdp:root:policyset"));
-    root.setVersion(StdVersion.newInstance("1.0"));
+    try {
+      root.setVersion(StdVersion.newInstance("1.0"));
+    } catch (ParseException e) {
+      throw new RuntimeException(e);
+    }
     root.setTarget(new Target());
     root.setPolicyCombiningAlgorithm(algorithm);
     root.setChildren(policies);
     return root;
   }
 
-  private PolicyDef convertToPolicyDef(PdpPolicy pdpPolicy) {
-    Policy policyDef = policyDefinitionParser.parsePolicy(pdpPolicy.getPolicyXml());
-    policyDef.setIdentifier(new IdentifierImpl(getPolicyId(pdpPolicy.getName())));
-    policyDef.getRules().forEachRemaining(rule -> {
-          if (rule.getRuleEffect().getDecision().equals(Decision.DENY)) {
-            rule.getAdviceExpressions().forEachRemaining(adviceExpression ->
-                    adviceExpression.setAdviceId(new IdentifierImpl(getPolicyId(pdpPolicy.getName())))
-            );
-          }
-        }
-    );
-    return policyDef;
+  private Optional<CompiledPolicy> compile(Policy policy, AttributeDictionary attributeDictionary) {
+    try {
+      return policyDefinitionParser.templateDefinition(policy).flatMap(definition ->
+          CompiledPolicy.compile(policy.getIdentifier(), policy.getVersion(), definition,
+              policyDefinitionParser.isRegularExpressionMatch(policy), pipFinder.providedAttributeIds(),
+              attributeDictionary));
+    } catch (RuntimeException e) {
+      LOG.warn("Failed to compile policy {}, it is evaluated by OpenAZ", policy.getIdentifier(), e);
+      return Optional.empty();
+    }
   }
 
-  private PIPFinder loadPIPFinder(VootClient vootClient, SabClient sabClient) {
+  private OpenConextConfigurableEngineFinder loadPIPFinder(VootClient vootClient, SabClient sabClient) {
     OpenConextConfigurableEngineFinder pipFinder = new OpenConextConfigurableEngineFinder(vootClient, sabClient);
     try {
       pipFinder.configure(XACMLProperties.getProperties());
@@ -111,4 +267,29 @@ public class OpenConextEvaluationContextFactory extends StdEvaluationContextFact
       throw new RuntimeException(ex);
     }
   }
+
+  private class PolicyCompilation {
+    private final AttributeDictionary dictionary = new AttributeDictionary();
+    private final AtomicInteger compiled = new AtomicInteger();
+    //weak keys are compared on identity, the policies that are no longer loaded are garbage collected
+    private final LoadingCache<Policy, Optional<CompiledPolicy>> compiledPolicies =
+        CacheBuilder.newBuilder().weakKeys().build(CacheLoader.from(policy -> {
+          compiled.incrementAndGet();
+          return compile(policy, dictionary);
+        }));
+  }
+
+  private class LoadedPolicy {
+    private final Long id;
+    private final String policyId;
+    private final int revisionNbr;
+    private final Policy policy;
+
+    private LoadedPolicy(PdpPolicy pdpPolicy) {
+      this.id = pdpPolicy.getId();
+      this.policyId = getPolicyId(pdpPolicy.getName());
+      this.revisionNbr = pdpPolicy.getRevisionNbr();
+      this.policy = policyDefinitionParser.parsePolicy(pdpPolicy);
+    }
+  }
 }
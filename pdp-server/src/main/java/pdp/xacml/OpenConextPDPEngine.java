@@ -1,17 +1,81 @@
 package pdp.xacml;
 
 import org.apache.openaz.xacml.api.Decision;
+import org.apache.openaz.xacml.api.Request;
+import org.apache.openaz.xacml.api.Response;
 import org.apache.openaz.xacml.api.Result;
+import org.apache.openaz.xacml.api.pdp.PDPException;
 import org.apache.openaz.xacml.api.pdp.ScopeResolver;
 import org.apache.openaz.xacml.pdp.OpenAZPDPEngine;
 import org.apache.openaz.xacml.pdp.eval.EvaluationContext;
-import org.apache.openaz.xacml.pdp.eval.EvaluationContextFactory;
 import org.apache.openaz.xacml.std.StdMutableResult;
 
+import java.util.Optional;
+
 public class OpenConextPDPEngine extends OpenAZPDPEngine {
 
-  public OpenConextPDPEngine(EvaluationContextFactory evaluationContextFactoryIn, Decision defaultDecisionIn, ScopeResolver scopeResolverIn) {
+  private final OpenConextEvaluationContextFactory evaluationContextFactory;
+  private final Optional<DifferentialCheck> differentialCheck;
+
+  public OpenConextPDPEngine(OpenConextEvaluationContextFactory evaluationContextFactoryIn, Decision defaultDecisionIn, ScopeResolver scopeResolverIn) {
+    this(evaluationContextFactoryIn, defaultDecisionIn, scopeResolverIn, Optional.empty());
+  }
+
+  /**
+   * With a DifferentialCheck the compiled policies decide and the requests they can not decide on are evaluated by
+   * OpenAZ
+   */
+  public OpenConextPDPEngine(OpenConextEvaluationContextFactory evaluationContextFactoryIn, Decision defaultDecisionIn,
+                             ScopeResolver scopeResolverIn, Optional<DifferentialCheck> differentialCheck) {
     super(evaluationContextFactoryIn, defaultDecisionIn, scopeResolverIn);
+    this.evaluationContextFactory = evaluationContextFactoryIn;
+    this.differentialCheck = differentialCheck;
+  }
+
+  public void refreshPolicies() {
+    evaluationContextFactory.refreshPolicies();
+  }
+
+  public long getPoliciesVersion() {
+    return evaluationContextFactory.getPoliciesVersion();
+  }
+
+  public Optional<Long> policyRowId(String policyId) {
+    return evaluationContextFactory.policyRowId(policyId);
+  }
+
+  public boolean needsPip(Request request) {
+    return evaluationContextFactory.needsPip(request);
+  }
+
+  @Override
+  public Response decide(Request request) throws PDPException {
+    //once for both the compiled policies and the evaluation of all the individual requests by OpenAZ
+    evaluationContextFactory.refreshUncachedPolicies();
+    if (!differentialCheck.isPresent()) {
+      return evaluate(request);
+    }
+    DifferentialCheck check = differentialCheck.get();
+    Optional<Response> compiledResponse = evaluationContextFactory.compiledDecision(request);
+    if (!compiledResponse.isPresent()) {
+      check.fallback();
+      return evaluate(request);
+    }
+    check.compiled();
+    if (!check.sample()) {
+      return compiledResponse.get();
+    }
+    Response response = evaluate(request);
+    return check.compare(request, compiledResponse.get(), response) ? compiledResponse.get() : response;
+  }
+
+  private Response evaluate(Request request) throws PDPException {
+    try {
+      return super.decide(request);
+    } finally {
+      //set by the evaluation context factory for each (individual) request
+      ReferencedAttributes.clear();
+    }
   }
 
   @Override
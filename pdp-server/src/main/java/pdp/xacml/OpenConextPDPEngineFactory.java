@@ -1,24 +1,38 @@
 package pdp.xacml;
 
-import org.apache.openaz.xacml.api.pdp.PDPEngine;
 import org.apache.openaz.xacml.pdp.OpenAZPDPEngineFactory;
-import org.apache.openaz.xacml.pdp.eval.EvaluationContextFactory;
 import org.apache.openaz.xacml.util.FactoryException;
 import pdp.repositories.PdpPolicyRepository;
 import pdp.sab.SabClient;
 import pdp.teams.VootClient;
 
 import java.io.IOException;
+import java.util.Optional;
 
 public class OpenConextPDPEngineFactory extends OpenAZPDPEngineFactory {
 
-  public PDPEngine newEngine(boolean cachePolicies,
-                             boolean includeInactivePolicies,
-                             PdpPolicyRepository pdpPolicyRepository,
-                             VootClient vootClient,
-                             SabClient sabClient) throws FactoryException, IOException {
-    EvaluationContextFactory evaluationContextFactory = new OpenConextEvaluationContextFactory(pdpPolicyRepository, vootClient, sabClient, cachePolicies, includeInactivePolicies);
-    return new OpenConextPDPEngine(evaluationContextFactory, this.getDefaultBehavior(), this.getScopeResolver());
+  public OpenConextPDPEngine newEngine(boolean cachePolicies,
+                                       boolean includeInactivePolicies,
+                                       PdpPolicyRepository pdpPolicyRepository,
+                                       PdpPolicyDefinitionParser pdpPolicyDefinitionParser,
+                                       VootClient vootClient,
+                                       SabClient sabClient) throws FactoryException, IOException {
+    return newEngine(cachePolicies, includeInactivePolicies, pdpPolicyRepository, pdpPolicyDefinitionParser, vootClient, sabClient, Optional.empty());
+  }
+
+  /*
+   * With a DifferentialCheck the template policies are compiled
+   */
+  public OpenConextPDPEngine newEngine(boolean cachePolicies,
+                                       boolean includeInactivePolicies,
+                                       PdpPolicyRepository pdpPolicyRepository,
+                                       PdpPolicyDefinitionParser pdpPolicyDefinitionParser,
+                                       VootClient vootClient,
+                                       SabClient sabClient,
+                                       Optional<DifferentialCheck> differentialCheck) throws FactoryException, IOException {
+    OpenConextEvaluationContextFactory evaluationContextFactory = new OpenConextEvaluationContextFactory(pdpPolicyRepository,
+        pdpPolicyDefinitionParser, vootClient, sabClient, cachePolicies, includeInactivePolicies, differentialCheck.isPresent());
+    return new OpenConextPDPEngine(evaluationContextFactory, this.getDefaultBehavior(), this.getScopeResolver(), differentialCheck);
   }
 
 }
@@ -1,6 +1,5 @@
 package pdp.xacml;
 
-import org.apache.openaz.xacml.api.pdp.PDPEngine;
 import org.apache.openaz.xacml.util.FactoryException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -9,6 +8,7 @@ import pdp.sab.SabClient;
 import pdp.teams.VootClient;
 
 import java.io.IOException;
+import java.util.Optional;
 
 public class PDPEngineHolder {
 
@@ -16,18 +16,27 @@ public class PDPEngineHolder {
   private final SabClient sabClient;
 
   private PdpPolicyRepository pdpPolicyRepository;
+  private PdpPolicyDefinitionParser pdpPolicyDefinitionParser;
   private VootClient vootClient;
+  private Optional<DifferentialCheck> differentialCheck;
 
-  public PDPEngineHolder(PdpPolicyRepository pdpPolicyRepository, VootClient vootClient, SabClient sabClient) {
+  public PDPEngineHolder(PdpPolicyRepository pdpPolicyRepository, PdpPolicyDefinitionParser pdpPolicyDefinitionParser, VootClient vootClient, SabClient sabClient) {
+    this(pdpPolicyRepository, pdpPolicyDefinitionParser, vootClient, sabClient, Optional.empty());
+  }
+
+  public PDPEngineHolder(PdpPolicyRepository pdpPolicyRepository, PdpPolicyDefinitionParser pdpPolicyDefinitionParser, VootClient vootClient, SabClient sabClient,
+                         Optional<DifferentialCheck> differentialCheck) {
     this.pdpPolicyRepository = pdpPolicyRepository;
+    this.pdpPolicyDefinitionParser = pdpPolicyDefinitionParser;
     this.vootClient = vootClient;
     this.sabClient = sabClient;
+    this.differentialCheck = differentialCheck;
   }
 
-  public PDPEngine newPdpEngine(boolean cachePolicies, boolean includeInactivePolicies) {
+  public OpenConextPDPEngine newPdpEngine(boolean cachePolicies, boolean includeInactivePolicies) {
     try {
       OpenConextPDPEngineFactory factory = new OpenConextPDPEngineFactory();
-      return factory.newEngine(cachePolicies, includeInactivePolicies, pdpPolicyRepository, vootClient, sabClient);
+      return factory.newEngine(cachePolicies, includeInactivePolicies, pdpPolicyRepository, pdpPolicyDefinitionParser, vootClient, sabClient, differentialCheck);
     } catch (IOException | FactoryException e) {
       LOG.error("Exception while re-creating PDPEngine", e);
       throw new RuntimeException(e);
@@ -0,0 +1,42 @@
+package pdp.xacml;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.apache.openaz.xacml.pdp.policy.Policy;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import pdp.domain.PdpPolicy;
+import pdp.util.CacheUtils;
+
+import java.util.Collection;
+import java.util.function.Supplier;
+
+/*
+ * Thread-safe
+ *
+ * Every change of a policy results in a new pdp_policies row, so the policy_xml of (id, revision_nbr) never changes
+ * and the parsed Policy can be shared by the PDPEngines and the REST layer. The cached Policy is read-only, the
+ * identifiers derived from the name of the policy are set by the parser before it is cached, see
+ * PdpPolicyDefinitionParser#parsePolicy.
+ */
+public class ParsedPolicyCache implements PublicMetrics {
+
+  private final Cache<String, Policy> cache;
+
+  public ParsedPolicyCache(long maximumSize) {
+    this.cache = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+  }
+
+  public Policy get(PdpPolicy pdpPolicy, Supplier<Policy> parser) {
+    if (pdpPolicy.getId() == null) {
+      //not saved yet, so the policy_xml can still change
+      return parser.get();
+    }
+    return CacheUtils.get(cache, pdpPolicy.getId() + ":" + pdpPolicy.getRevisionNbr(), parser::get);
+  }
+
+  @Override
+  public Collection<Metric<?>> metrics() {
+    return CacheUtils.metrics("policies.parsed.cache", cache);
+  }
+}
@@ -1,10 +1,12 @@
 package pdp.xacml;
 
 import org.apache.openaz.xacml.api.Decision;
+import org.apache.openaz.xacml.api.Identifier;
 import org.apache.openaz.xacml.pdp.policy.*;
 import org.apache.openaz.xacml.pdp.policy.dom.DOMPolicyDef;
 import org.apache.openaz.xacml.pdp.policy.expressions.AttributeDesignator;
 import org.apache.openaz.xacml.pdp.policy.expressions.AttributeValueExpression;
+import org.apache.openaz.xacml.std.IdentifierImpl;
 import org.apache.openaz.xacml.std.dom.DOMStructureException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -13,13 +15,19 @@ import pdp.domain.PdpPolicy;
 import pdp.domain.PdpPolicyDefinition;
 
 import java.io.ByteArrayInputStream;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
 import static pdp.util.StreamUtils.iteratorToList;
+import static pdp.xacml.PolicyTemplateEngine.getPolicyId;
 import static pdp.util.StreamUtils.singletonCollector;
 
 /*
@@ -32,12 +40,30 @@ public class PdpPolicyDefinitionParser {
   public static final String SP_ENTITY_ID = "SPentityID";
   public static final String IDP_ENTITY_ID = "IDPentityID";
   public static final String NAME_ID = "urn:oasis:names:tc:SAML:1.1:nameid-format:unspecified";
+  public static final String RESOURCE_CATEGORY = "urn:oasis:names:tc:xacml:3.0:attribute-category:resource";
+  public static final String STRING_EQUAL = "urn:oasis:names:tc:xacml:1.0:function:string-equal";
+  public static final String STRING_REGEXP_MATCH = "urn:oasis:names:tc:xacml:1.0:function:string-regexp-match";
+  public static final String ACCESS_SUBJECT_CATEGORY = "urn:oasis:names:tc:xacml:1.0:subject-category:access-subject";
+  public static final String STRING_DATA_TYPE = "http://www.w3.org/2001/XMLSchema#string";
+  public static final String FIRST_APPLICABLE = "urn:oasis:names:tc:xacml:1.0:rule-combining-algorithm:first-applicable";
+  //the policy may need any attribute, e.g. because of a Condition
+  public static final String ANY_ATTRIBUTE_ID = "*";
+
+  private final ParsedPolicyCache parsedPolicyCache;
+
+  public PdpPolicyDefinitionParser() {
+    this(new ParsedPolicyCache(0));
+  }
+
+  public PdpPolicyDefinitionParser(ParsedPolicyCache parsedPolicyCache) {
+    this.parsedPolicyCache = parsedPolicyCache;
+  }
 
   public PdpPolicyDefinition parse(PdpPolicy pdpPolicy) {
     PdpPolicyDefinition definition = new PdpPolicyDefinition();
     String policyXml = pdpPolicy.getPolicyXml();
 
-    Policy policy = parsePolicy(policyXml);
+    Policy policy = parsePolicy(pdpPolicy);
 
     definition.setId(pdpPolicy.getId());
     definition.setName(pdpPolicy.getName());
@@ -47,21 +73,41 @@ public class PdpPolicyDefinitionParser {
     definition.setRevisionNbr(pdpPolicy.getRevisionNbr());
     definition.setActive(pdpPolicy.isActive());
 
-    parseTargets(policyXml, definition, policy);
+    parse(policyXml, definition, policy);
+    return definition;
+  }
+
+  /**
+   * Returns the definition of a policy that has exactly the shape of a policy created by the PolicyTemplateEngine
+   * from templates/policy-definition.xml, so the definition evaluates the same as the policy. For any other policy -
+   * e.g. one uploaded as XACML - an empty Optional is returned. Only the shape is checked, so a policy created with a
+   * previous version of the template has a definition as long as it has the same shape.
+   */
+  public Optional<PdpPolicyDefinition> templateDefinition(Policy policy) {
+    if (!isTemplatePolicy(policy)) {
+      return Optional.empty();
+    }
+    PdpPolicyDefinition definition = new PdpPolicyDefinition();
+    definition.setDescription(policy.getDescription());
+    parse("policy " + policy.getIdentifier().stringValue(), definition, policy);
+    return Optional.of(definition);
+  }
+
+  //the policyDescription - the XML or the id of the policy - is only used in the error messages
+  private void parse(String policyDescription, PdpPolicyDefinition definition, Policy policy) {
+    parseTargets(policyDescription, definition, policy);
 
     List<Rule> rules = iteratorToList(policy.getRules());
-    definition.setDenyRule(!isPermitRule(policyXml, rules));
+    definition.setDenyRule(!isPermitRule(rules));
 
-    parsePermit(policyXml, definition, rules);
-    parseDeny(policyXml, definition, rules);
+    parsePermit(definition, rules);
+    parseDeny(definition, rules);
 
     //we need to sort to get a consistent attribute list for testing - run-time it makes no difference
     Collections.sort(definition.getAttributes(), (a1, a2) -> a1.getName().compareTo(a2.getName()));
-
-    return definition;
   }
 
-  private void parseDeny(String policyXml, PdpPolicyDefinition definition, List<Rule> rules) {
+  private void parseDeny(PdpPolicyDefinition definition, List<Rule> rules) {
     Rule denyRule = getRule(rules, Decision.DENY);
 
     parseAdviceExpression(definition, denyRule);
@@ -72,7 +118,7 @@ public class PdpPolicyDefinitionParser {
     parseAttributes(definition, denyRule, Decision.DENY);
   }
 
-  private void parsePermit(String policyXml, PdpPolicyDefinition definition, List<Rule> rules) {
+  private void parsePermit(PdpPolicyDefinition definition, List<Rule> rules) {
     if (definition.isDenyRule()) {
       return;
     }
@@ -80,7 +126,7 @@ public class PdpPolicyDefinitionParser {
     parseAttributes(definition, permitRule, Decision.PERMIT);
   }
 
-  private boolean isPermitRule(String policyXml, List<Rule> rules) {
+  private boolean isPermitRule(List<Rule> rules) {
     Rule rule = getRule(rules, Decision.PERMIT);
     return rule.getTarget().getAnyOfs() != null;
   }
@@ -104,24 +150,215 @@ public class PdpPolicyDefinitionParser {
     definition.setAttributes(pdpAttributes);
   }
 
-  private void parseTargets(String policyXml, PdpPolicyDefinition definition, Policy policy) {
+  private void parseTargets(String policyDescription, PdpPolicyDefinition definition, Policy policy) {
     List<AnyOf> targetAnyOfs = iteratorToList(policy.getTarget().getAnyOfs());
     targetAnyOfs.forEach(anyOf -> {
-      List<AllOf> targetAllOfs = iteratorToList(anyOf.getAllOfs());
-      List<Match> targetMatches = targetAllOfs.stream().map(allOf -> iteratorToList(allOf.getMatches())).flatMap(Collection::stream).collect(toList());
-      Optional<Match> spEntityID = targetMatches.stream().filter(match -> ((AttributeDesignator) match.getAttributeRetrievalBase()).getAttributeId().getUri().toString().equalsIgnoreCase(SP_ENTITY_ID)).findFirst();
+      List<Match> targetMatches = targetMatches(anyOf);
+      Optional<Match> spEntityID = targetMatches.stream().filter(match -> isAttributeMatch(match, SP_ENTITY_ID)).findFirst();
       if (spEntityID.isPresent()) {
         definition.setServiceProviderId((String) spEntityID.get().getAttributeValue().getValue());
       }
-      List<String> idpEntityIDs = targetMatches.stream().filter(match ->
-          ((AttributeDesignator) match.getAttributeRetrievalBase()).getAttributeId().getUri().toString().equalsIgnoreCase(IDP_ENTITY_ID))
+      List<String> idpEntityIDs = targetMatches.stream().filter(match -> isAttributeMatch(match, IDP_ENTITY_ID))
           .map(match -> (String) match.getAttributeValue().getValue()).collect(toList());
       definition.setIdentityProviderIds(idpEntityIDs);
     });
 
     if (definition.getServiceProviderId() == null) {
-      throw new PdpParseException("SPentityID is required " + policyXml);
+      throw new PdpParseException("SPentityID is required " + policyDescription);
+    }
+  }
+
+  /**
+   * Returns the SPentityID values of which one must be equal to the SPentityID of the request for the Target of the
+   * policy to match. An empty Set is returned if the Target of the policy does not restrict the SPentityID in a way
+   * we can index on, which means the policy must be evaluated for every request.
+   */
+  public Set<String> serviceProviderIds(Policy policy) {
+    Set<String> serviceProviderIds = new HashSet<>();
+    List<AnyOf> targetAnyOfs = iteratorToList(policy.getTarget().getAnyOfs());
+    targetAnyOfs.forEach(anyOf -> {
+      List<AllOf> targetAllOfs = iteratorToList(anyOf.getAllOfs());
+      List<List<Match>> spEntityIDMatches = targetAllOfs.stream().map(allOf -> iteratorToList(allOf.getMatches()).stream()
+          .filter(this::isIndexableServiceProviderMatch).collect(toList())).collect(toList());
+      //all of the AllOf's of this AnyOf must require a SPentityID otherwise there is a way to match without the SPentityID
+      if (!spEntityIDMatches.isEmpty() && spEntityIDMatches.stream().noneMatch(List::isEmpty)) {
+        spEntityIDMatches.stream().flatMap(Collection::stream)
+            .forEach(match -> serviceProviderIds.add((String) match.getAttributeValue().getValue()));
+      }
+    });
+    return serviceProviderIds;
+  }
+
+  /**
+   * Returns the ids of the attributes the Targets of the policy and its rules match on. A policy with a rule Condition
+   * or an AttributeSelector can need any attribute, for such a policy ANY_ATTRIBUTE_ID is returned.
+   */
+  public Set<String> attributeIds(Policy policy) {
+    Set<String> attributeIds = new HashSet<>();
+    List<Rule> rules = iteratorToList(policy.getRules());
+    if (rules.stream().anyMatch(rule -> rule.getCondition() != null)) {
+      return Collections.singleton(ANY_ATTRIBUTE_ID);
+    }
+    List<Target> targets = rules.stream().map(Rule::getTarget).collect(toList());
+    targets.add(policy.getTarget());
+    List<Match> matches = targets.stream()
+        .filter(target -> target != null && target.getAnyOfs() != null)
+        .flatMap(target -> iteratorToList(target.getAnyOfs()).stream())
+        .flatMap(anyOf -> targetMatches(anyOf).stream())
+        .collect(toList());
+    for (Match match : matches) {
+      if (!(match.getAttributeRetrievalBase() instanceof AttributeDesignator)) {
+        //e.g. an AttributeSelector
+        return Collections.singleton(ANY_ATTRIBUTE_ID);
+      }
+      attributeIds.add(((AttributeDesignator) match.getAttributeRetrievalBase()).getAttributeId().getUri().toString());
+    }
+    return attributeIds;
+  }
+
+  private boolean isTemplatePolicy(Policy policy) {
+    CombiningAlgorithm<Rule> ruleCombiningAlgorithm = policy.getRuleCombiningAlgorithm();
+    if (ruleCombiningAlgorithm == null || !FIRST_APPLICABLE.equals(ruleCombiningAlgorithm.getId().stringValue()) ||
+        !isEmpty(policy.getAdviceExpressions()) || !isEmpty(policy.getObligationExpressions()) ||
+        !isTemplatePolicyTarget(policy.getTarget())) {
+      return false;
+    }
+    List<Rule> rules = iteratorToList(policy.getRules());
+    if (rules.size() != 2 || rules.stream().anyMatch(rule -> rule.getCondition() != null || !isEmpty(rule.getObligationExpressions()))) {
+      return false;
+    }
+    //the rule with the attributes is followed by the rule that applies when the attributes do not match
+    Rule attributesRule = rules.get(0);
+    Rule otherwiseRule = rules.get(1);
+    boolean denyRule = attributesRule.getRuleEffect() == RuleEffect.DENY;
+    Rule denyAdviceRule = denyRule ? attributesRule : otherwiseRule;
+    Rule permitRule = denyRule ? otherwiseRule : attributesRule;
+    return otherwiseRule.getRuleEffect() == (denyRule ? RuleEffect.PERMIT : RuleEffect.DENY) &&
+        isEmpty(otherwiseRule.getTarget() != null ? otherwiseRule.getTarget().getAnyOfs() : null) &&
+        isEmpty(permitRule.getAdviceExpressions()) &&
+        isTemplateDenyAdvice(denyAdviceRule) &&
+        isTemplateAttributesTarget(attributesRule.getTarget(), denyRule);
+  }
+
+  //one AnyOf with the SPentityID and optionally one AnyOf with the IDPentityIDs
+  private boolean isTemplatePolicyTarget(Target target) {
+    List<AnyOf> anyOfs = target != null && target.getAnyOfs() != null ? iteratorToList(target.getAnyOfs()) : Collections.emptyList();
+    if (anyOfs.isEmpty() || anyOfs.size() > 2) {
+      return false;
+    }
+    List<List<Match>> spEntityIDMatches = singleMatches(anyOfs.get(0));
+    if (spEntityIDMatches.size() != 1 || spEntityIDMatches.get(0).size() != 1 ||
+        !isTemplateMatch(spEntityIDMatches.get(0).get(0), SP_ENTITY_ID, RESOURCE_CATEGORY, STRING_EQUAL, true)) {
+      return false;
     }
+    return anyOfs.size() == 1 || singleMatches(anyOfs.get(1)).stream().allMatch(matches -> matches.size() == 1 &&
+        isTemplateMatch(matches.get(0), IDP_ENTITY_ID, RESOURCE_CATEGORY, STRING_EQUAL, true));
+  }
+
+  /*
+   * Either one AnyOf with any attributes (or) or one AnyOf per attribute (and). An attribute in more than one AnyOf can
+   * not be grouped by name without changing the outcome. Previous versions of the template matched the attributes
+   * with string-equal instead of string-regexp-match.
+   */
+  private boolean isTemplateAttributesTarget(Target target, boolean denyRule) {
+    List<AnyOf> anyOfs = target != null && target.getAnyOfs() != null ? iteratorToList(target.getAnyOfs()) : Collections.emptyList();
+    Optional<String> matchId = attributesMatchId(target);
+    if (anyOfs.isEmpty() || !matchId.isPresent() ||
+        !(STRING_REGEXP_MATCH.equals(matchId.get()) || STRING_EQUAL.equals(matchId.get()))) {
+      return false;
+    }
+    Set<String> attributeIdsPerAnyOf = new HashSet<>();
+    for (AnyOf anyOf : anyOfs) {
+      List<List<Match>> matches = singleMatches(anyOf);
+      if (matches.isEmpty() || matches.stream().anyMatch(allOf -> allOf.size() != 1 ||
+          !isTemplateMatch(allOf.get(0), null, ACCESS_SUBJECT_CATEGORY, matchId.get(), denyRule))) {
+        return false;
+      }
+      Set<String> attributeIds = matches.stream().map(allOf -> attributeId(allOf.get(0))).collect(toSet());
+      if (anyOfs.size() > 1 && (attributeIds.size() != 1 || !attributeIdsPerAnyOf.addAll(attributeIds))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns true if the attributes of the template policy are matched as regular expressions, see
+   * #templateDefinition
+   */
+  public boolean isRegularExpressionMatch(Policy policy) {
+    return iteratorToList(policy.getRules()).stream()
+        .map(rule -> attributesMatchId(rule.getTarget()))
+        .anyMatch(matchId -> matchId.isPresent() && STRING_REGEXP_MATCH.equals(matchId.get()));
+  }
+
+  //the MatchId of the first Match of the Target
+  private Optional<String> attributesMatchId(Target target) {
+    if (target == null || target.getAnyOfs() == null) {
+      return Optional.empty();
+    }
+    return iteratorToList(target.getAnyOfs()).stream()
+        .flatMap(anyOf -> targetMatches(anyOf).stream())
+        .map(match -> match.getMatchId().stringValue())
+        .findFirst();
+  }
+
+  private boolean isTemplateDenyAdvice(Rule rule) {
+    List<AdviceExpression> adviceExpressions = rule.getAdviceExpressions() != null ? iteratorToList(rule.getAdviceExpressions()) : Collections.emptyList();
+    if (adviceExpressions.size() != 1 || adviceExpressions.get(0).getAppliesTo() != RuleEffect.DENY) {
+      return false;
+    }
+    List<AttributeAssignmentExpression> assignments = iteratorToList(adviceExpressions.get(0).getAttributeAssignmentExpressions());
+    List<String> attributeIds = assignments.stream().map(ase -> ase.getAttributeId().stringValue()).collect(toList());
+    return attributeIds.equals(Arrays.asList("DenyMessage:en", "DenyMessage:nl")) && assignments.stream().allMatch(ase ->
+        ase.getCategory() != null && RESOURCE_CATEGORY.equals(ase.getCategory().stringValue()) &&
+            ase.getExpression() instanceof AttributeValueExpression &&
+            ((AttributeValueExpression) ase.getExpression()).getAttributeValue().getValue() instanceof String);
+  }
+
+  private boolean isTemplateMatch(Match match, String attributeId, String category, String matchId, boolean mustBePresent) {
+    if (!(match.getAttributeRetrievalBase() instanceof AttributeDesignator)) {
+      return false;
+    }
+    AttributeDesignator designator = (AttributeDesignator) match.getAttributeRetrievalBase();
+    return (attributeId == null || attributeId.equals(attributeId(match))) &&
+        category.equals(designator.getCategory().stringValue()) &&
+        STRING_DATA_TYPE.equals(designator.getDataTypeId().stringValue()) &&
+        designator.getMustBePresent() == mustBePresent &&
+        matchId.equals(match.getMatchId().stringValue()) &&
+        match.getAttributeValue().getValue() instanceof String &&
+        //the definition has the trimmed value, see PdpAttribute
+        match.getAttributeValue().getValue().equals(((String) match.getAttributeValue().getValue()).trim());
+  }
+
+  private List<List<Match>> singleMatches(AnyOf anyOf) {
+    return iteratorToList(anyOf.getAllOfs()).stream().map(allOf -> iteratorToList(allOf.getMatches())).collect(toList());
+  }
+
+  private String attributeId(Match match) {
+    return ((AttributeDesignator) match.getAttributeRetrievalBase()).getAttributeId().getUri().toString();
+  }
+
+  private boolean isEmpty(Iterator<?> iterator) {
+    return iterator == null || !iterator.hasNext();
+  }
+
+  private List<Match> targetMatches(AnyOf anyOf) {
+    List<AllOf> targetAllOfs = iteratorToList(anyOf.getAllOfs());
+    return targetAllOfs.stream().map(allOf -> iteratorToList(allOf.getMatches())).flatMap(Collection::stream).collect(toList());
+  }
+
+  private boolean isAttributeMatch(Match match, String attributeId) {
+    return ((AttributeDesignator) match.getAttributeRetrievalBase()).getAttributeId().getUri().toString().equalsIgnoreCase(attributeId);
+  }
+
+  //the index lookup is exact, so we only index on what the engine would match exactly
+  private boolean isIndexableServiceProviderMatch(Match match) {
+    AttributeDesignator designator = (AttributeDesignator) match.getAttributeRetrievalBase();
+    return SP_ENTITY_ID.equals(designator.getAttributeId().getUri().toString()) &&
+        RESOURCE_CATEGORY.equals(designator.getCategory().getUri().toString()) &&
+        STRING_EQUAL.equals(match.getMatchId().getUri().toString()) &&
+        match.getAttributeValue().getValue() instanceof String;
   }
 
   private void parseAdviceExpression(PdpPolicyDefinition definition, Rule denyRule) {
@@ -142,6 +379,29 @@ public class PdpPolicyDefinitionParser {
         .collect(singletonCollector());
   }
 
+  /**
+   * The Policy is shared, see ParsedPolicyCache. Its PolicyId and the AdviceId of its Deny rules are the id derived from
+   * the name of the policy, set before the Policy is published and never changed afterwards.
+   */
+  public Policy parsePolicy(PdpPolicy pdpPolicy) {
+    return parsedPolicyCache.get(pdpPolicy, () -> {
+      Policy policy = parsePolicy(pdpPolicy.getPolicyXml());
+      if (pdpPolicy.getName() != null) {
+        setPolicyId(policy, new IdentifierImpl(getPolicyId(pdpPolicy.getName())));
+      }
+      return policy;
+    });
+  }
+
+  private void setPolicyId(Policy policy, Identifier policyId) {
+    policy.setIdentifier(policyId);
+    policy.getRules().forEachRemaining(rule -> {
+      if (rule.getRuleEffect().getDecision().equals(Decision.DENY)) {
+        rule.getAdviceExpressions().forEachRemaining(adviceExpression -> adviceExpression.setAdviceId(policyId));
+      }
+    });
+  }
+
   public Policy parsePolicy(String policyXml) {
     String cleanedXml = policyXml.trim().replaceAll("\n", "").replaceAll(" +", " ");
     try {
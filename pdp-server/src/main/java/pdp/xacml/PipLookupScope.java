@@ -0,0 +1,112 @@
+package pdp.xacml;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+
+/*
+ * Not thread-safe, a scope is bound to the thread that opened it
+ *
+ * Within a scope - e.g. all decisions of one batch request - the PIP lookups for the same subject are done only once.
+ * A scope opened within another scope - e.g. for one decision of a batch request - shares the lookups of the enclosing
+ * scope, but knows whether a PIP was consulted within itself.
+ *
+ * Lookups can be prefetched on another thread, so multiple PIPs are called concurrently. A lookup of a prefetched
+ * subject waits for the prefetch, or does it on the calling thread if no thread has picked it up yet.
+ */
+public class PipLookupScope implements AutoCloseable {
+
+  private static final ThreadLocal<PipLookupScope> currentScope = new ThreadLocal<>();
+
+  private final PipLookupScope enclosingScope;
+  private final Map<String, List<String>> lookups;
+  private final Map<String, FutureTask<List<String>>> prefetches;
+  private boolean pipConsulted;
+
+  private PipLookupScope(PipLookupScope enclosingScope) {
+    this.enclosingScope = enclosingScope;
+    this.lookups = enclosingScope != null ? enclosingScope.lookups : new HashMap<>();
+    this.prefetches = enclosingScope != null ? enclosingScope.prefetches : new HashMap<>();
+  }
+
+  public static PipLookupScope open() {
+    PipLookupScope scope = new PipLookupScope(currentScope.get());
+    currentScope.set(scope);
+    return scope;
+  }
+
+  public static List<String> lookup(String pipName, String userUrn, Function<String, List<String>> pip) {
+    PipLookupScope scope = currentScope.get();
+    if (scope == null) {
+      return pip.apply(userUrn);
+    }
+    scope.pipConsulted = true;
+    String key = pipName + ":" + userUrn;
+    List<String> attributes = scope.lookups.get(key);
+    if (attributes == null) {
+      //no computeIfAbsent as an exception must not leave the scope in an inconsistent state
+      FutureTask<List<String>> prefetch = scope.prefetches.remove(key);
+      attributes = prefetch != null ? await(prefetch) : pip.apply(userUrn);
+      scope.lookups.put(key, attributes);
+    }
+    return attributes;
+  }
+
+  /**
+   * Starts the lookup on the executor if there is a scope and the subject has not been looked up yet
+   */
+  public static void prefetch(String pipName, String userUrn, Function<String, List<String>> pip, Executor executor) {
+    PipLookupScope scope = currentScope.get();
+    if (scope == null) {
+      return;
+    }
+    String key = pipName + ":" + userUrn;
+    if (scope.lookups.containsKey(key) || scope.prefetches.containsKey(key)) {
+      return;
+    }
+    FutureTask<List<String>> prefetch = new FutureTask<>(() -> pip.apply(userUrn));
+    scope.prefetches.put(key, prefetch);
+    try {
+      executor.execute(prefetch);
+    } catch (RejectedExecutionException e) {
+      //the lookup will run the prefetch on the calling thread
+    }
+  }
+
+  private static List<String> await(FutureTask<List<String>> prefetch) {
+    //does nothing if the prefetch is already running or done
+    prefetch.run();
+    try {
+      return prefetch.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+    }
+  }
+
+  /**
+   * True if any PIP was asked for attributes within this scope, even if the lookup failed
+   */
+  public boolean isPipConsulted() {
+    return pipConsulted;
+  }
+
+  @Override
+  public void close() {
+    if (enclosingScope != null) {
+      currentScope.set(enclosingScope);
+      return;
+    }
+    //nobody is waiting for the prefetches that were not needed
+    prefetches.values().forEach(prefetch -> prefetch.cancel(false));
+    currentScope.remove();
+  }
+}
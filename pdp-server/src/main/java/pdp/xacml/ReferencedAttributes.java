@@ -0,0 +1,32 @@
+package pdp.xacml;
+
+import java.util.Set;
+
+import static pdp.xacml.PdpPolicyDefinitionParser.ANY_ATTRIBUTE_ID;
+
+/*
+ * Thread-safe, the referenced attributes are bound to the thread that evaluates the request
+ *
+ * The ids of the attributes the candidate policies of the request that is being evaluated match on, so the PIPs know
+ * up front that their attribute is not needed. Without an evaluation in progress every attribute may be needed.
+ */
+public class ReferencedAttributes {
+
+  private static final ThreadLocal<Set<String>> referencedAttributeIds = new ThreadLocal<>();
+
+  private ReferencedAttributes() {
+  }
+
+  public static void set(Set<String> attributeIds) {
+    referencedAttributeIds.set(attributeIds);
+  }
+
+  public static void clear() {
+    referencedAttributeIds.remove();
+  }
+
+  public static boolean isReferenced(String attributeId) {
+    Set<String> attributeIds = referencedAttributeIds.get();
+    return attributeIds == null || attributeIds.contains(ANY_ATTRIBUTE_ID) || attributeIds.contains(attributeId);
+  }
+}
@@ -0,0 +1,87 @@
+package pdp.xacml;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.apache.openaz.xacml.api.Advice;
+import org.apache.openaz.xacml.api.IdReference;
+import org.apache.openaz.xacml.api.Response;
+import org.apache.openaz.xacml.api.Result;
+import org.apache.openaz.xacml.api.Status;
+import org.apache.openaz.xacml.std.json.JSONResponse;
+import pdp.JsonMapper;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static java.util.stream.Collectors.toList;
+
+/*
+ * The JSON of a Response: the XACML JSON of JSONResponse or the compact JSON with per result only the decision, the
+ * policy ids and the advice - and the status code if it is not ok:
+ *
+ * {"Response":[{"Decision":"Deny","PolicyIds":["..."],"Advice":[{"Id":"...","Attributes":{"DenyMessage:en":"..."}}]}]}
+ *
+ * The JSON of a SerializedResponse is not serialized again.
+ */
+public abstract class ResponseSerializer {
+
+  public static byte[] json(Response response, boolean pretty) {
+    if (response instanceof SerializedResponse && !pretty) {
+      return ((SerializedResponse) response).getJson();
+    }
+    return serialize(response, pretty);
+  }
+
+  public static byte[] compactJson(Response response) {
+    if (response instanceof SerializedResponse) {
+      return ((SerializedResponse) response).getCompactJson();
+    }
+    return serializeCompact(response);
+  }
+
+  static byte[] serialize(Response response, boolean pretty) {
+    try {
+      return JSONResponse.toString(response, pretty).getBytes(StandardCharsets.UTF_8);
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  static byte[] serializeCompact(Response response) {
+    try {
+      return JsonMapper.objectMapper.writeValueAsBytes(Collections.singletonMap("Response",
+          response.getResults().stream().map(ResponseSerializer::compact).collect(toList())));
+    } catch (JsonProcessingException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static Map<String, Object> compact(Result result) {
+    Map<String, Object> compact = new LinkedHashMap<>();
+    compact.put("Decision", result.getDecision().toString());
+    Status status = result.getStatus();
+    if (status != null && !status.isOk()) {
+      compact.put("Status", status.getStatusCode().getStatusCodeValue().stringValue());
+    }
+    compact.put("PolicyIds", nullSafe(result.getPolicyIdentifiers()).stream()
+        .map(IdReference::getId).map(id -> id.stringValue()).collect(toList()));
+    compact.put("Advice", nullSafe(result.getAssociatedAdvice()).stream().map(ResponseSerializer::compact).collect(toList()));
+    return compact;
+  }
+
+  private static Map<String, Object> compact(Advice advice) {
+    Map<String, Object> attributes = new LinkedHashMap<>();
+    nullSafe(advice.getAttributeAssignments()).forEach(assignment ->
+        attributes.put(assignment.getAttributeId().stringValue(), assignment.getAttributeValue().getValue()));
+    Map<String, Object> compact = new LinkedHashMap<>();
+    compact.put("Id", advice.getId().stringValue());
+    compact.put("Attributes", attributes);
+    return compact;
+  }
+
+  private static <T> Collection<T> nullSafe(Collection<T> collection) {
+    return collection != null ? collection : Collections.emptyList();
+  }
+}
@@ -0,0 +1,31 @@
+package pdp.xacml;
+
+import org.apache.openaz.xacml.api.Result;
+import org.apache.openaz.xacml.std.StdResponse;
+import org.apache.openaz.xacml.std.StdResult;
+
+/*
+ * Thread-safe and immutable, the Result is wrapped in an immutable StdResult
+ *
+ * A Response of the compiled policies with its XACML JSON and compact JSON serialized once, see ResponseSerializer.
+ * The same instance is the Response of every request with the same decision of the same compiled policies.
+ */
+public class SerializedResponse extends StdResponse {
+
+  private final byte[] json;
+  private final byte[] compactJson;
+
+  public SerializedResponse(Result result) {
+    super(new StdResult(result));
+    this.json = ResponseSerializer.serialize(this, false);
+    this.compactJson = ResponseSerializer.serializeCompact(this);
+  }
+
+  public byte[] getJson() {
+    return json;
+  }
+
+  public byte[] getCompactJson() {
+    return compactJson;
+  }
+}
@@ -0,0 +1,2 @@
+ALTER TABLE pdp_policy_violations ADD idp_entity_id VARCHAR(255) NULL;
+ALTER TABLE pdp_policy_violations ADD INDEX pdp_policy_violations_idp_entity_id (idp_entity_id, id);
@@ -0,0 +1,41 @@
+CREATE TABLE pdp_decision_log (
+  id               BIGINT        NOT NULL AUTO_INCREMENT PRIMARY KEY,
+  created          TIMESTAMP     NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  sp_entity_id     VARCHAR(255)  NOT NULL,
+  idp_entity_id    VARCHAR(255)  NOT NULL,
+  decision         VARCHAR(20)   NOT NULL,
+  response_time_ms INT           NOT NULL,
+  teams_pip_ms     INT           NULL,
+  sab_pip_ms       INT           NULL
+)
+  ENGINE = InnoDB
+  DEFAULT CHARSET = latin1
+  COLLATE = latin1_general_cs;
+
+ALTER TABLE pdp_decision_log ADD INDEX pdp_decision_log_created (created);
+
+CREATE TABLE pdp_decision_rollups (
+  granularity            VARCHAR(10)   NOT NULL,
+  period_start           DATETIME      NOT NULL,
+  sp_entity_id           VARCHAR(255)  NOT NULL,
+  idp_entity_id          VARCHAR(255)  NOT NULL,
+  decision               VARCHAR(20)   NOT NULL,
+  decisions              INT           NOT NULL,
+  response_time_total_ms BIGINT        NOT NULL,
+  response_time_max_ms   INT           NOT NULL,
+  le_10_ms               INT           NOT NULL,
+  le_50_ms               INT           NOT NULL,
+  le_100_ms              INT           NOT NULL,
+  le_250_ms              INT           NOT NULL,
+  le_500_ms              INT           NOT NULL,
+  le_1000_ms             INT           NOT NULL,
+  gt_1000_ms             INT           NOT NULL,
+  teams_pip_calls        INT           NOT NULL,
+  teams_pip_total_ms     BIGINT        NOT NULL,
+  sab_pip_calls          INT           NOT NULL,
+  sab_pip_total_ms       BIGINT        NOT NULL,
+  PRIMARY KEY (granularity, period_start, sp_entity_id, idp_entity_id, decision)
+)
+  ENGINE = InnoDB
+  DEFAULT CHARSET = latin1
+  COLLATE = latin1_general_cs;
@@ -0,0 +1 @@
+ALTER TABLE pdp_decisions ADD INDEX pdp_decisions_created (created);
@@ -0,0 +1 @@
+ALTER TABLE pdp_policy_violations ADD occurrences INT NOT NULL DEFAULT 1;
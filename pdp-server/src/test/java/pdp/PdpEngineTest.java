@@ -5,6 +5,7 @@ import org.apache.openaz.xacml.api.Response;
 import org.apache.openaz.xacml.api.Result;
 import org.apache.openaz.xacml.std.json.JSONResponse;
 import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.TestRestTemplate;
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.util.CollectionUtils;
@@ -12,8 +13,10 @@ import org.springframework.util.StringUtils;
 import org.springframework.web.client.RestTemplate;
 import pdp.domain.*;
 import pdp.policies.PolicyLoader;
+import pdp.stats.PolicyViolationWriter;
 import pdp.teams.TeamsPIP;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -36,6 +39,9 @@ public class PdpEngineTest extends AbstractPdpIntegrationTest {
 
   private RestTemplate restTemplate = new TestRestTemplate();
 
+  @Autowired
+  private PolicyViolationWriter policyViolationWriter;
+
   @Test
   public void testAllPolicies() throws Exception {
     addShibHeaders();
@@ -58,6 +64,44 @@ public class PdpEngineTest extends AbstractPdpIntegrationTest {
     assertEquals("Expected CSRF token not found. Has your session expired?", jsonResponse.get("message"));
   }
 
+  @Test
+  public void testDecideBatch() throws Exception {
+    becomeAnApiClientSoWeDontNeedACSRFToken();
+
+    JsonPolicyRequest policyRequest = getJsonPolicyRequest();
+    JsonPolicyRequest notApplicablePolicyRequest = policyRequest.copy();
+    notApplicablePolicyRequest.addOrReplaceResourceAttribute(SP_ENTITY_ID, UUID.randomUUID().toString());
+
+    String jsonResponse = post("/decide/policies", Arrays.asList(policyRequest, notApplicablePolicyRequest)).getBody();
+    List<Object> responses = objectMapper.readValue(jsonResponse, List.class);
+    assertEquals(2, responses.size());
+
+    Decision expected = decision(post("/decide/policy", policyRequest).getBody());
+    assertEquals(expected, decision(objectMapper.writeValueAsString(responses.get(0))));
+    assertEquals(Decision.NOTAPPLICABLE, decision(objectMapper.writeValueAsString(responses.get(1))));
+  }
+
+  @Test
+  public void testDecideTeamsPolicyAsynchronously() throws Exception {
+    becomeAnApiClientSoWeDontNeedACSRFToken();
+
+    PdpPolicyDefinition definition = policyLoader.getPolicies().stream().map(policyDefinitionParser::parse)
+        .filter(def -> def.getIdentityProviderIds().isEmpty() &&
+            def.getAttributes().stream().anyMatch(attr -> attr.getName().equals(TeamsPIP.GROUP_URN)))
+        .findFirst().get();
+    JsonPolicyRequest policyRequest = getJsonPolicyRequest();
+    policyRequest.addOrReplaceResourceAttribute(SP_ENTITY_ID, definition.getServiceProviderId());
+    policyRequest.deleteAttribute(IDP_ENTITY_ID);
+    policyRequest.addOrReplaceAccessSubjectAttribute(NAME_ID, URN_COLLAB_PERSON_EXAMPLE_COM_ADMIN);
+
+    //the request needs the Teams PIP and is decided on the PIP decision threads of the PdpController, see PipDecisionTest
+    assertEquals(Decision.PERMIT, decision(post("/decide/policy", policyRequest).getBody()));
+  }
+
+  private Decision decision(String jsonResponse) throws Exception {
+    return JSONResponse.load(jsonResponse).getResults().iterator().next().getDecision();
+  }
+
   @Override
   public RestTemplate getRestTemplate() {
     return restTemplate;
@@ -132,6 +176,7 @@ public class PdpEngineTest extends AbstractPdpIntegrationTest {
     if (!System.getProperty("os.name").toLowerCase().contains("mac os x")) {
       return;
     }
+    policyViolationWriter.flush();
     List<PdpPolicyViolation> violations = stream(pdpPolicyViolationRepository.findAll().spliterator(), false).filter(violation -> violation.getPolicy().getPolicyId().equals(policyId)).collect(toList());
     assertFalse("Policy " + policyId + " must have violations", CollectionUtils.isEmpty(violations));
     violations.forEach(violation -> assertTrue(isValid(violation)));
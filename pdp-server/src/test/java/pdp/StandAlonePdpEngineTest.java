@@ -3,7 +3,6 @@ package pdp;
 import net.jcip.annotations.NotThreadSafe;
 import org.apache.commons.io.IOUtils;
 import org.apache.openaz.xacml.api.*;
-import org.apache.openaz.xacml.api.pdp.PDPEngine;
 import org.apache.openaz.xacml.std.json.JSONRequest;
 import org.apache.openaz.xacml.std.json.JSONResponse;
 import org.apache.openaz.xacml.util.FactoryException;
@@ -13,6 +12,7 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.metrics.Metric;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.core.io.Resource;
 import pdp.domain.PdpPolicy;
@@ -25,16 +25,24 @@ import pdp.teams.TeamsPIP;
 import pdp.teams.VootClient;
 import pdp.teams.VootClientConfig;
 import pdp.web.PdpController;
+import pdp.xacml.DifferentialCheck;
+import pdp.xacml.OpenConextPDPEngine;
 import pdp.xacml.OpenConextPDPEngineFactory;
+import pdp.xacml.PdpPolicyDefinitionParser;
 import pdp.xacml.PolicyTemplateEngine;
 
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 
 import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toMap;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 import static pdp.util.StreamUtils.singletonCollector;
@@ -44,7 +52,7 @@ public class StandAlonePdpEngineTest extends AbstractXacmlTest {
 
   private static Logger LOG = LoggerFactory.getLogger(PdpController.class);
 
-  private PDPEngine pdpEngine;
+  private OpenConextPDPEngine pdpEngine;
 
   private PdpPolicyRepository pdpPolicyRepository;
 
@@ -70,7 +78,7 @@ public class StandAlonePdpEngineTest extends AbstractXacmlTest {
     when(pdpPolicyRepository.findAll()).thenReturn(pdpPolicies);
 
     OpenConextPDPEngineFactory pdpEngineFactory = new OpenConextPDPEngineFactory();
-    this.pdpEngine = pdpEngineFactory.newEngine(true, false, pdpPolicyRepository, vootClient, sabClient);
+    this.pdpEngine = pdpEngineFactory.newEngine(true, false, pdpPolicyRepository, new PdpPolicyDefinitionParser(), vootClient, sabClient);
   }
 
   private PdpPolicy loadPolicy(String policyFile) {
@@ -157,14 +165,62 @@ public class StandAlonePdpEngineTest extends AbstractXacmlTest {
     doDecideTest("json_policy_request.json", Decision.NOTAPPLICABLE, "OpenConext.pdp.test.unknown.SP.Policy.xml");
   }
 
+  @Test
+  public void testRefreshPolicies() throws Exception {
+    doDecideTest("test_request_deny_policy_deny.json", Decision.DENY, "OpenConext.pdp.test.deny.Policy.xml");
+
+    //policy is deleted
+    when(pdpPolicyRepository.findRevisionNbrAndActivePerId()).thenReturn(Collections.emptyList());
+    pdpEngine.refreshPolicies();
+    assertResponse(Decision.NOTAPPLICABLE, decide("test_request_deny_policy_deny.json"));
+
+    //policy is re-created
+    PdpPolicy pdpPolicy = loadPolicy("OpenConext.pdp.test.deny.Policy.xml");
+    pdpPolicy.setId(2L);
+    when(pdpPolicyRepository.findRevisionNbrAndActivePerId()).thenReturn(Collections.singletonList(new Object[]{2L, 0, true}));
+    when(pdpPolicyRepository.findAll(Collections.singletonList(2L))).thenReturn(Collections.singletonList(pdpPolicy));
+    pdpEngine.refreshPolicies();
+    assertResponse(Decision.DENY, decide("test_request_deny_policy_deny.json"));
+  }
+
+  @Test
+  public void testCompiledPoliciesDecideLikeOpenAZ() throws Exception {
+    String[][] requestAndPolicyFiles = {
+        {"test_request_multiple_and.json", "OpenConext.pdp.test.multiple.and.Policy.xml"},
+        {"test_request_deny_policy_permit.json", "OpenConext.pdp.test.deny.Policy.xml"},
+        {"test_request_deny_policy_deny.json", "OpenConext.pdp.test.deny.Policy.xml"},
+        {"test_request_deny_policy_missing_attribute.json", "OpenConext.pdp.test.deny.Policy.xml"},
+        {"test_request_multivalued_attribute.json", "OpenConext.pdp.test.multivalued.attribute.Policy.xml"},
+        {"test_request_no_matching_target.json", "OpenConext.pdp.test.deny.Policy.xml"},
+        {"test_request_multiple_or.json", "OpenConext.pdp.test.multiple.or.Policy.xml"},
+        {"test_request_conflicting_policies.json", "OpenConext.pdp.test.conflicting.policies.1.Policy.xml",
+            "OpenConext.pdp.test.conflicting.policies.2.Policy.xml"},
+        {"test_request_teams_policy.json", "OpenConext.pdp.test.teams.Policy.xml"}
+    };
+    //every compiled decision is also evaluated by OpenAZ
+    DifferentialCheck differentialCheck = new DifferentialCheck(1);
+    for (String[] files : requestAndPolicyFiles) {
+      setUp(Arrays.copyOfRange(files, 1, files.length));
+      this.pdpEngine = new OpenConextPDPEngineFactory().newEngine(true, false, pdpPolicyRepository,
+          new PdpPolicyDefinitionParser(), vootClient, sabClient, Optional.of(differentialCheck));
+      decide(files[0]);
+    }
+    Map<String, Number> metrics = differentialCheck.metrics().stream().collect(toMap(Metric::getName, Metric::getValue));
+    assertEquals(0L, metrics.get("policies.compiled.mismatches"));
+    assertTrue(metrics.get("policies.compiled.checked").longValue() > 0);
+    //the teams policy needs the PIP
+    assertTrue(metrics.get("policies.compiled.fallbacks").longValue() > 0);
+  }
+
   private Result doDecideTest(final String requestFile, Decision decision, String... policyFiles) throws Exception {
     setUp(policyFiles);
+    return assertResponse(decision, decide(requestFile));
+  }
 
+  private Response decide(String requestFile) throws Exception {
     String payload = IOUtils.toString(new ClassPathResource("xacml/requests/" + requestFile).getInputStream());
     Request pdpRequest = JSONRequest.load(payload);
-
-    Response pdpResponse = pdpEngine.decide(pdpRequest);
-    return assertResponse(decision, pdpResponse);
+    return pdpEngine.decide(pdpRequest);
   }
 
   private Result assertResponse(Decision decision, Response pdpResponse) throws Exception {
@@ -27,6 +27,7 @@ import static java.util.stream.Collectors.toSet;
 import static java.util.stream.StreamSupport.stream;
 import static junit.framework.TestCase.assertTrue;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static pdp.util.StreamUtils.singletonCollector;
 
 @SuppressWarnings("unchecked")
@@ -140,6 +141,19 @@ public class PolicyIdpAccessEnforcerTest implements JsonMapper {
     assertEquals(2, stream(filtered.spliterator(), false).count());
   }
 
+  @Test
+  public void violationsIdentityProviders() throws Exception {
+    Set<String> identityProviders = this.subject.violationsIdentityProviders().get();
+    assertTrue(identityProviders.contains(authenticatingAuthority));
+    assertFalse(identityProviders.contains(notOwnedIdp));
+  }
+
+  @Test
+  public void violationsIdentityProvidersNotEnforced() throws Exception {
+    setupSecurityContext(false, entityMetadata(identityProviderIds), entityMetadata(serviceProviderIds));
+
+    assertFalse(this.subject.violationsIdentityProviders().isPresent());
+  }
 
   @Test
   public void filterPdpPolicies() throws Exception {
@@ -7,6 +7,8 @@ import java.util.*;
 
 import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static pdp.domain.PdpPolicyDefinition.policyDefinition;
 
 public class PolicyConflictServiceTest {
@@ -43,5 +45,39 @@ public class PolicyConflictServiceTest {
 
   }
 
+  @Test
+  public void testConflictsDuplicateIdentityProvidersInOnePolicy() throws Exception {
+    Map<String, List<PdpPolicyDefinition>> conflicts = subject.conflicts(asList(
+        policyDefinition("sp1", asList("idp1", "idp1")),
+        policyDefinition("sp1", asList("idp2"))
+    ));
+    assertTrue(conflicts.isEmpty());
+  }
+
+  @Test
+  public void testConflictsIncremental() throws Exception {
+    List<PdpPolicyDefinition> policies = asList(
+        named("p1", policyDefinition("sp1", asList("idp1", "idp2"))),
+        named("p2", policyDefinition("sp1", asList("idp3"))),
+        named("p3", policyDefinition("sp2", Collections.emptyList())),
+        named("p4", policyDefinition("sp3", asList("idp1")))
+    );
+    //overlapping IdP
+    assertTrue(subject.conflicts(named("new", policyDefinition("sp1", asList("idp2"))), policies));
+    //no IdP's conflicts with every policy of the same SP
+    assertTrue(subject.conflicts(named("new", policyDefinition("sp1", Collections.emptyList())), policies));
+    //the other policy has no IdP's
+    assertTrue(subject.conflicts(named("new", policyDefinition("sp2", asList("idp1"))), policies));
+    //no overlap with the same SP, overlap with another SP
+    assertFalse(subject.conflicts(named("new", policyDefinition("sp1", asList("idp4"))), policies));
+    assertFalse(subject.conflicts(named("new", policyDefinition("sp3", asList("idp2"))), policies));
+    //the policy itself is ignored
+    assertFalse(subject.conflicts(named("p4", policyDefinition("sp3", asList("idp1"))), policies));
+  }
+
+  private PdpPolicyDefinition named(String name, PdpPolicyDefinition definition) {
+    definition.setName(name);
+    return definition;
+  }
 
 }
\ No newline at end of file
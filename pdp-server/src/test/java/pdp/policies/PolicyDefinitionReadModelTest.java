@@ -0,0 +1,167 @@
+package pdp.policies;
+
+import org.junit.Before;
+import org.junit.Test;
+import pdp.domain.EntityMetaData;
+import pdp.domain.PdpPolicy;
+import pdp.domain.PdpPolicyDefinition;
+import pdp.repositories.PdpPolicyRepository;
+import pdp.repositories.PdpPolicyViolationRepository;
+import pdp.serviceregistry.ServiceRegistry;
+import pdp.xacml.PdpPolicyDefinitionParser;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class PolicyDefinitionReadModelTest {
+
+  private PdpPolicyRepository pdpPolicyRepository = mock(PdpPolicyRepository.class);
+  private PdpPolicyViolationRepository pdpPolicyViolationRepository = mock(PdpPolicyViolationRepository.class);
+  private PdpPolicyDefinitionParser pdpPolicyDefinitionParser = mock(PdpPolicyDefinitionParser.class);
+  private ServiceRegistry serviceRegistry = mock(ServiceRegistry.class);
+
+  private List<PdpPolicy> policies = new ArrayList<>();
+
+  private PolicyDefinitionReadModel subject =
+      new PolicyDefinitionReadModel(pdpPolicyRepository, pdpPolicyViolationRepository, pdpPolicyDefinitionParser, serviceRegistry, 60);
+
+  @Before
+  public void before() {
+    policies.addAll(asList(
+        policy(1L, "sp1", "idp1", "idp2"),
+        policy(2L, "sp1"),
+        policy(3L, "sp2", "idp2"),
+        policy(4L, "unknown", "idp1")));
+    when(pdpPolicyRepository.findAll()).thenAnswer(invocation -> new ArrayList<>(policies));
+    when(pdpPolicyRepository.findRevisionNbrAndActivePerId()).thenAnswer(invocation -> policies.stream()
+        .map(policy -> new Object[]{policy.getId(), policy.getRevisionNbr(), policy.isActive()}).collect(toList()));
+    when(pdpPolicyRepository.findAll(any(Iterable.class))).thenAnswer(invocation -> {
+      Collection<?> ids = (Collection<?>) invocation.getArguments()[0];
+      return policies.stream().filter(policy -> ids.contains(policy.getId())).collect(toList());
+    });
+
+    serviceProviders("SP one", "sp1", "sp2");
+    when(serviceRegistry.identityProviders()).thenReturn(Collections.emptyList());
+    when(serviceRegistry.identityProviderByEntityId(anyString())).thenReturn(entity("idp", "IdP"));
+    when(serviceRegistry.identityProviderNames(any())).thenReturn(Collections.emptyList());
+  }
+
+  @Test
+  public void testFind() {
+    assertEquals(asList(1L, 2L, 3L), ids(subject.find(null, null)));
+    assertEquals(asList(1L, 2L), ids(subject.find("sp1", null)));
+    assertEquals(asList(1L, 3L), ids(subject.find(null, "idp2")));
+    assertEquals(asList(1L), ids(subject.find("sp1", "idp1")));
+    assertEquals(Collections.emptyList(), ids(subject.find("sp3", null)));
+
+    //including the policies with an unknown SP
+    assertEquals(asList(1L, 2L, 3L, 4L), ids(subject.all()));
+    assertEquals(asList(4L), ids(subject.byServiceProvider("unknown")));
+
+    PdpPolicyDefinition definition = subject.find("sp1", null).get(0);
+    assertEquals("SP one", definition.getServiceProviderName());
+    assertEquals("IdP", definition.getAuthenticatingAuthorityName());
+  }
+
+  @Test
+  public void testSavedAndDeleted() {
+    subject.find(null, null);
+
+    subject.saved(asList(2L), policy(5L, "sp2"));
+    assertEquals(asList(1L, 3L, 5L), ids(subject.find(null, null)));
+    assertEquals(asList(3L, 5L), ids(subject.find("sp2", null)));
+
+    subject.deleted(asList(1L, 3L));
+    assertEquals(asList(5L), ids(subject.find(null, null)));
+    assertFalse(subject.policy(1L).isPresent());
+    assertTrue(subject.policy(5L).isPresent());
+  }
+
+  @Test
+  public void testRefreshOnlyParsesNewPolicies() {
+    subject.find(null, null);
+    verify(pdpPolicyDefinitionParser, times(4)).parse(any(PdpPolicy.class));
+
+    policies.remove(0);
+    policies.add(policy(5L, "sp2"));
+    subject.refresh();
+
+    assertEquals(asList(2L, 3L, 5L), ids(subject.find(null, null)));
+    verify(pdpPolicyDefinitionParser, times(5)).parse(any(PdpPolicy.class));
+    verify(pdpPolicyRepository, times(1)).findAll();
+  }
+
+  @Test
+  public void testRefreshReloadsPoliciesUpdatedInPlace() {
+    assertTrue(subject.policy(2L).get().isActive());
+
+    PdpPolicy deactivated = policy(2L, "sp1");
+    deactivated.setActive(false);
+    policies.set(1, deactivated);
+    subject.refresh();
+
+    assertFalse(subject.policy(2L).get().isActive());
+    verify(pdpPolicyDefinitionParser, times(5)).parse(any(PdpPolicy.class));
+  }
+
+  @Test
+  public void testMetaDataRefresh() {
+    assertEquals("SP one", subject.find("sp1", null).get(0).getServiceProviderName());
+
+    serviceProviders("SP changed", "sp1", "sp2", "unknown");
+
+    assertEquals("SP changed", subject.find("sp1", null).get(0).getServiceProviderName());
+    assertEquals(asList(1L, 2L, 3L, 4L), ids(subject.find(null, null)));
+    //no parsing needed
+    verify(pdpPolicyDefinitionParser, times(4)).parse(any(PdpPolicy.class));
+  }
+
+  @Test
+  public void testNumberOfViolations() {
+    when(pdpPolicyViolationRepository.findCountPerPolicyId()).thenReturn(Collections.singletonList(new Object[]{1L, 3L}));
+
+    assertEquals(3, subject.numberOfViolations(1L));
+    assertEquals(0, subject.numberOfViolations(2L));
+    verify(pdpPolicyViolationRepository, times(1)).findCountPerPolicyId();
+  }
+
+  private void serviceProviders(String name, String... entityIds) {
+    List<EntityMetaData> serviceProviders = asList(entityIds).stream().map(entityId -> entity(entityId, name)).collect(toList());
+    when(serviceRegistry.serviceProviders()).thenReturn(serviceProviders);
+    when(serviceRegistry.serviceProviderOptionalByEntityId(anyString())).thenAnswer(invocation ->
+        serviceProviders.stream().filter(sp -> sp.getEntityId().equals(invocation.getArguments()[0])).findFirst());
+  }
+
+  private EntityMetaData entity(String entityId, String name) {
+    return new EntityMetaData(entityId, null, name, name, name, name, true, true, Collections.emptySet());
+  }
+
+  private PdpPolicy policy(Long id, String serviceProviderId, String... identityProviderIds) {
+    PdpPolicy policy = new PdpPolicy();
+    policy.setId(id);
+    policy.setAuthenticatingAuthority("idp");
+    policy.setActive(true);
+
+    PdpPolicyDefinition definition = new PdpPolicyDefinition();
+    definition.setId(id);
+    definition.setServiceProviderId(serviceProviderId);
+    definition.setIdentityProviderIds(asList(identityProviderIds));
+    when(pdpPolicyDefinitionParser.parse(policy)).thenReturn(definition);
+    return policy;
+  }
+
+  private List<Long> ids(List<PdpPolicyDefinition> definitions) {
+    return definitions.stream().map(PdpPolicyDefinition::getId).collect(toList());
+  }
+}
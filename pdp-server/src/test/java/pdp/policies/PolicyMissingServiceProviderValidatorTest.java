@@ -0,0 +1,60 @@
+package pdp.policies;
+
+import org.junit.Test;
+import pdp.domain.PdpPolicy;
+import pdp.domain.PdpPolicyDefinition;
+import pdp.mail.MailBox;
+import pdp.repositories.PdpPolicyRepository;
+import pdp.serviceregistry.ServiceRegistry;
+import pdp.xacml.PdpPolicyDefinitionParser;
+
+import java.util.Collections;
+import java.util.Optional;
+
+import static java.util.Arrays.asList;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class PolicyMissingServiceProviderValidatorTest {
+
+  private MailBox mailBox = mock(MailBox.class);
+  private ServiceRegistry serviceRegistry = mock(ServiceRegistry.class);
+  private PdpPolicyRepository pdpPolicyRepository = mock(PdpPolicyRepository.class);
+  private PdpPolicyDefinitionParser pdpPolicyDefinitionParser = mock(PdpPolicyDefinitionParser.class);
+
+  private PolicyMissingServiceProviderValidator subject =
+      new PolicyMissingServiceProviderValidator(mailBox, serviceRegistry, pdpPolicyRepository, pdpPolicyDefinitionParser);
+
+  @Test
+  public void testValidateOnlyParsesPoliciesOfRemovedServiceProviders() {
+    PdpPolicy removed = policy(1L, "<AttributeValue>https://removed-sp?id=1&amp;x=2</AttributeValue>");
+    PdpPolicy other = policy(2L, "<AttributeValue>https://other-sp</AttributeValue>");
+    when(pdpPolicyRepository.findAll()).thenReturn(asList(removed, other));
+    when(pdpPolicyRepository.findOne(1L)).thenReturn(removed);
+    when(pdpPolicyDefinitionParser.parse(removed)).thenReturn(definition(1L, "https://removed-sp?id=1&x=2"));
+    when(serviceRegistry.serviceProviderOptionalByEntityId(anyString())).thenReturn(Optional.empty());
+    when(serviceRegistry.identityProviderNames(any())).thenReturn(Collections.emptyList());
+
+    subject.validate(Collections.singleton("https://removed-sp?id=1&x=2"));
+
+    verify(pdpPolicyDefinitionParser, never()).parse(other);
+    verify(mailBox).sendInvalidPoliciesMail(any());
+    verify(pdpPolicyRepository).save(removed);
+  }
+
+  private PdpPolicy policy(Long id, String policyXml) {
+    PdpPolicy policy = new PdpPolicy(policyXml, "name" + id, true, "uid", "http://mock-idp", "John Doe", true);
+    policy.setId(id);
+    return policy;
+  }
+
+  private PdpPolicyDefinition definition(Long id, String serviceProviderId) {
+    PdpPolicyDefinition definition = new PdpPolicyDefinition();
+    definition.setId(id);
+    definition.setServiceProviderId(serviceProviderId);
+    definition.setIdentityProviderIds(Collections.emptyList());
+    definition.setActive(true);
+    return definition;
+  }
+}
@@ -0,0 +1,89 @@
+package pdp.sab;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.google.common.base.Ticker;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.springframework.core.io.ClassPathResource;
+import pdp.util.CircuitBreaker;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CachingSabClientTest {
+
+  @Rule
+  public WireMockRule wireMockRule = new WireMockRule(8889);
+
+  private String response;
+
+  private final AtomicLong nanos = new AtomicLong();
+
+  @Before
+  public void before() throws IOException {
+    response = IOUtils.toString(new ClassPathResource("sab/response_success.xml").getInputStream());
+  }
+
+  @Test
+  public void testRolesAreCached() throws Exception {
+    CachingSabClient subject = subject(60, new CircuitBreaker(5, 30000, 2000));
+    stubFor(post(urlEqualTo("/sab")).willReturn(aResponse().withStatus(200).withBody(response)));
+
+    List<String> roles = subject.roles("id1");
+    assertEquals(roles, subject.roles("id1"));
+
+    verify(1, postRequestedFor(urlEqualTo("/sab")));
+  }
+
+  @Test
+  public void testStaleRolesAreServedWhenRefreshFails() throws Exception {
+    CachingSabClient subject = subject(1, new CircuitBreaker(5, 30000, 2000));
+    stubFor(post(urlEqualTo("/sab")).willReturn(aResponse().withStatus(200).withBody(response)));
+    List<String> roles = subject.roles("id1");
+
+    nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(1100));
+    stubFor(post(urlEqualTo("/sab")).willReturn(aResponse().withStatus(500)));
+
+    assertEquals(roles, subject.roles("id1"));
+  }
+
+  @Test
+  public void testOpenCircuitBreakerFailsFast() throws Exception {
+    CachingSabClient subject = subject(60, new CircuitBreaker(1, 30000, 2000));
+    stubFor(post(urlEqualTo("/sab")).willReturn(aResponse().withStatus(500)));
+
+    try {
+      subject.roles("id1");
+      fail();
+    } catch (RuntimeException e) {
+      //expected
+    }
+    try {
+      subject.roles("id2");
+      fail();
+    } catch (IOException e) {
+      assertTrue(e.getMessage().startsWith("Circuit breaker for SAB is open"));
+    }
+    verify(1, postRequestedFor(urlEqualTo("/sab")));
+  }
+
+  private CachingSabClient subject(long timeToLiveSeconds, CircuitBreaker circuitBreaker) {
+    return new CachingSabClient("user", "password", "http://localhost:8889/sab", timeToLiveSeconds, 3600, 100,
+        circuitBreaker, new Ticker() {
+          @Override
+          public long read() {
+            return nanos.get();
+          }
+        });
+  }
+
+}
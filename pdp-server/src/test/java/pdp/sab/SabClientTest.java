@@ -18,7 +18,7 @@ import static pdp.teams.VootClientConfig.URN_COLLAB_PERSON_EXAMPLE_COM_ADMIN;
 
 public class SabClientTest {
 
-  private SabClient subject = new SabClientConfig().sabClient("user", "password", "http://localhost:8889/sab");
+  private SabClient subject = new SabClient("user", "password", "http://localhost:8889/sab");
 
   @Rule
   public WireMockRule wireMockRule = new WireMockRule(8889);
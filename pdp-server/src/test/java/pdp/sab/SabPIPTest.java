@@ -1,9 +1,24 @@
 package pdp.sab;
 
+import org.apache.openaz.xacml.api.Identifier;
+import org.apache.openaz.xacml.api.pip.PIPEngine;
+import org.apache.openaz.xacml.api.pip.PIPFinder;
+import org.apache.openaz.xacml.api.pip.PIPRequest;
 import org.junit.Before;
 import org.junit.Test;
+import pdp.teams.TeamsPIP;
+import pdp.xacml.ReferencedAttributes;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.Properties;
 
 import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 public class SabPIPTest {
 
@@ -12,7 +27,7 @@ public class SabPIPTest {
   @Before
   public void setUp() throws Exception {
     sabPIP = new SabPIP();
-    sabPIP.setSabClient(new SabClientConfig().sabClient("userName", "password", "http://nope"));
+    sabPIP.setSabClient(new SabClient("userName", "password", "http://nope"));
   }
 
   @Test
@@ -20,6 +35,25 @@ public class SabPIPTest {
     assertEquals("Sab Policy Information Point",sabPIP.getDescription());
   }
 
+  @Test
+  public void testGetAttributesNotReferenced() throws Exception {
+    sabPIP.configure("sab", new Properties());
+    PIPRequest pipRequest = mock(PIPRequest.class);
+    Identifier attributeId = mock(Identifier.class);
+    when(attributeId.getUri()).thenReturn(URI.create(SabPIP.SAB_URN));
+    when(pipRequest.getAttributeId()).thenReturn(attributeId);
+    PIPFinder pipFinder = mock(PIPFinder.class);
+
+    ReferencedAttributes.set(Collections.singleton(TeamsPIP.GROUP_URN));
+    try {
+      sabPIP.getAttributes(pipRequest, pipFinder);
+    } finally {
+      ReferencedAttributes.clear();
+    }
+    //the name id is not even looked up
+    verify(pipFinder, never()).getMatchingAttributes(any(PIPRequest.class), any(PIPEngine.class));
+  }
+
   @Test(expected = RuntimeException.class)
   public void testGetAttributes() throws Exception {
     sabPIP.getAttributes("urn");
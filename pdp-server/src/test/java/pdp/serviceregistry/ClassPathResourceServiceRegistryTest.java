@@ -11,6 +11,7 @@ import java.util.Set;
 import static java.util.Arrays.asList;
 import static java.util.stream.Collectors.toList;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 public class ClassPathResourceServiceRegistryTest {
@@ -69,5 +70,16 @@ public class ClassPathResourceServiceRegistryTest {
     assertEquals(0, sps.size());
   }
 
+  @Test
+  public void testIdentityProviderNames() {
+    //sorted by name and unknown IdPs are ignored
+    List<String> names = serviceRegistry.identityProviderNames(asList("https://idp.surfnet.nl", "http://mock-idp", "unknown", "http://mock-idp"));
+    assertEquals(asList("OpenConext Mujina IDP", "SURFnet B.V."), names);
+  }
+
+  @Test
+  public void testServiceProviderOptionalByEntityIdUnknown() {
+    assertFalse(serviceRegistry.serviceProviderOptionalByEntityId("unknown").isPresent());
+  }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,55 @@
+package pdp.serviceregistry;
+
+import org.junit.Test;
+import pdp.domain.EntityMetaData;
+
+import java.util.Collections;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class EntityIndexTest {
+
+  private EntityMetaData sp1 = entity("sp1", "SURFNET");
+  private EntityMetaData sp2 = entity("sp2", "SURFNET");
+  private EntityMetaData sp3 = entity("sp3", "AVANS");
+
+  private EntityIndex subject = new EntityIndex(asList(sp1, sp2, sp3));
+
+  @Test
+  public void testUnchangedEntities() {
+    EntityIndex index = subject.withEntities(asList(entity("sp1", "SURFNET"), entity("sp2", "SURFNET"), entity("sp3", "AVANS")));
+    assertSame(subject, index);
+  }
+
+  @Test
+  public void testChangedEntities() {
+    EntityMetaData newSp2 = entity("sp2", "AVANS");
+    EntityIndex index = subject.withEntities(asList(entity("sp1", "SURFNET"), newSp2));
+
+    //unchanged entities keep their identity
+    assertSame(sp1, index.byEntityId("sp1").get());
+    assertSame(newSp2, index.byEntityId("sp2").get());
+    assertFalse(index.byEntityId("sp3").isPresent());
+
+    assertEquals(Collections.singleton(sp1), index.byInstitutionId("SURFNET"));
+    assertEquals(Collections.singleton(newSp2), index.byInstitutionId("AVANS"));
+    assertEquals(Collections.singleton("sp3"), subject.removedEntityIds(index));
+    assertTrue(index.removedEntityIds(subject).isEmpty());
+  }
+
+  @Test
+  public void testByEntityIds() {
+    List<EntityMetaData> entities = subject.byEntityIds(asList("sp3", "unknown", "sp1", "sp3"));
+    assertEquals(asList(sp1, sp3), entities);
+  }
+
+  private EntityMetaData entity(String entityId, String institutionId) {
+    return new EntityMetaData(entityId, institutionId, entityId, entityId, entityId, entityId, false, true, Collections.emptySet());
+  }
+
+}
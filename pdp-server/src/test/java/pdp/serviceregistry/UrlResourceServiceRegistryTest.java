@@ -5,6 +5,7 @@ import org.apache.commons.io.IOUtils;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.springframework.boot.actuate.health.Health;
 import org.springframework.boot.actuate.health.Status;
 import org.springframework.core.io.ClassPathResource;
@@ -16,15 +17,20 @@ import java.util.List;
 import static com.github.tomakehurst.wiremock.client.WireMock.*;
 import static junit.framework.TestCase.assertEquals;
 import static org.springframework.http.HttpHeaders.IF_MODIFIED_SINCE;
+import static org.springframework.http.HttpHeaders.IF_NONE_MATCH;
 import static pdp.util.StreamUtils.singletonCollector;
 
 public class UrlResourceServiceRegistryTest {
 
   private UrlResourceServiceRegistry subject;
+  private String snapshotDirectory;
 
   @Rule
   public WireMockRule wireMockRule = new WireMockRule(8889);
 
+  @Rule
+  public TemporaryFolder snapshotFolder = new TemporaryFolder();
+
 
   @Before
   public void before() throws IOException {
@@ -38,9 +44,9 @@ public class UrlResourceServiceRegistryTest {
     String spResponse = IOUtils.toString(new ClassPathResource(spPath).getInputStream());
     stubFor(get(urlEqualTo("/sp")).willReturn(aResponse().withStatus(200).withHeader("Content-Type", "application/json").withBody(spResponse)));
 
-    stubFor(head(urlEqualTo("/idp")).withHeader(IF_MODIFIED_SINCE, notMatching("X")).willReturn(aResponse().withStatus(200)));
-
-    this.subject = new UrlResourceServiceRegistry("user", "password", "http://localhost:8889/idp", "http://localhost:8889/sp", 10);
+    //a new snapshot, otherwise the new registry starts with the metadata of the previous one
+    this.snapshotDirectory = snapshotFolder.newFolder().getAbsolutePath();
+    this.subject = newServiceRegistry();
   }
 
   @Test
@@ -52,8 +58,6 @@ public class UrlResourceServiceRegistryTest {
   @Test
   public void testInitializeMetaDataNotModifed() throws Exception {
     stubFor(get(urlEqualTo("/sp")).willReturn(aResponse().withStatus(500)));
-    stubFor(head(urlEqualTo("/idp")).withHeader(IF_MODIFIED_SINCE, notMatching("X")).willReturn(aResponse().withStatus(304)));
-    stubFor(head(urlEqualTo("/sp")).withHeader(IF_MODIFIED_SINCE, notMatching("X")).willReturn(aResponse().withStatus(304)));
     subject.initializeMetadata();
     testMetaData();
   }
@@ -61,7 +65,35 @@ public class UrlResourceServiceRegistryTest {
   @Test
   public void testInitializeMetaDataNoEndpoint() throws IOException {
     stubFor(get(urlEqualTo("/sp")).willReturn(aResponse().withStatus(500)));
-    new UrlResourceServiceRegistry("u", "p", "http://localhost:9999/bogus", "http://localhost:9999/bogus", 10);
+    new UrlResourceServiceRegistry("u", "p", "http://localhost:9999/bogus", "http://localhost:9999/bogus", 10, snapshotFolder.newFolder().getAbsolutePath());
+  }
+
+  @Test
+  public void testInitializeFromSnapshot() throws Exception {
+    stubFor(get(urlEqualTo("/idp")).willReturn(aResponse().withStatus(500)));
+    stubFor(get(urlEqualTo("/sp")).willReturn(aResponse().withStatus(500)));
+
+    //same snapshot directory as the current registry
+    this.subject = newServiceRegistry();
+    testMetaData();
+  }
+
+  @Test
+  public void testInitializeMetaDataNotModifiedETag() throws Exception {
+    String spResponse = IOUtils.toString(new ClassPathResource("service-registry-test/service-providers.json").getInputStream());
+    stubFor(get(urlEqualTo("/sp")).willReturn(aResponse().withStatus(200).withHeader("ETag", "\"v2\"").withBody(spResponse)));
+    subject.initializeMetadata();
+    int serviceProviders = subject.serviceProviders().size();
+
+    stubFor(get(urlEqualTo("/sp")).withHeader(IF_NONE_MATCH, equalTo("\"v2\"")).willReturn(aResponse().withStatus(304)));
+    subject.initializeMetadata();
+
+    assertEquals(serviceProviders, subject.serviceProviders().size());
+    verify(1, getRequestedFor(urlEqualTo("/sp")).withHeader(IF_NONE_MATCH, equalTo("\"v2\"")).withHeader(IF_MODIFIED_SINCE, matching(".+")));
+  }
+
+  private UrlResourceServiceRegistry newServiceRegistry() throws IOException {
+    return new UrlResourceServiceRegistry("user", "password", "http://localhost:8889/idp", "http://localhost:8889/sp", 10, snapshotDirectory);
   }
 
 
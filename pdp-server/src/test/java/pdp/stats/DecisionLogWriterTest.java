@@ -0,0 +1,54 @@
+package pdp.stats;
+
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class DecisionLogWriterTest {
+
+  private JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+
+  //the scheduled flush will not kick in during the test
+  private DecisionLogWriter subject = new DecisionLogWriter(jdbcTemplate, 3, 2, 0, 60 * 60 * 1000);
+
+  @After
+  public void after() throws Exception {
+    subject.destroy();
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testDecisionIsWrittenAsColumns() throws Exception {
+    StatsContext context = new StatsContext();
+    context.setServiceProvicer("sp");
+    context.setDecision("Permit");
+    context.setResponseTimeMs(15);
+    context.addPipResponse(DecisionLogWriter.TEAMS_PIP, 10);
+
+    subject.write(context);
+    subject.flush();
+
+    ArgumentCaptor<List> captor = ArgumentCaptor.forClass(List.class);
+    verify(jdbcTemplate).batchUpdate(anyString(), captor.capture());
+    Object[] arguments = (Object[]) captor.getValue().get(0);
+
+    assertEquals("sp", arguments[1]);
+    //unknown IdP
+    assertEquals("", arguments[2]);
+    assertEquals("Permit", arguments[3]);
+    assertEquals(15L, arguments[4]);
+    assertEquals(10L, arguments[5]);
+    //the SAB PIP was not called
+    assertNull(arguments[6]);
+  }
+
+}
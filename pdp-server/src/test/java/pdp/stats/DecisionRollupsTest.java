@@ -0,0 +1,48 @@
+package pdp.stats;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.contains;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.*;
+
+public class DecisionRollupsTest {
+
+  private JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+
+  private DecisionRollups subject = new DecisionRollups(jdbcTemplate, mock(PlatformTransactionManager.class), 7, 10, false);
+
+  @Test
+  public void testTrailingMinutesAreRolledUpAgain() {
+    Instant now = Instant.parse("2016-08-01T12:30:30Z");
+    when(jdbcTemplate.queryForObject(startsWith("SELECT MAX(period_start)"), eq(Timestamp.class))).thenReturn(timestamp("12:28"));
+
+    subject.rollUp(now);
+    subject.rollUp(now.plus(1, ChronoUnit.MINUTES));
+
+    //the first roll up after a restart continues after the last rolled up minute, but not later than the trailing minutes
+    assertEquals(asList(timestamp("12:19"), timestamp("12:29"), timestamp("12:20"), timestamp("12:30")), minuteRollupPeriods());
+  }
+
+  //the from and until of every minute roll up
+  private List<Object> minuteRollupPeriods() {
+    ArgumentCaptor<Object> captor = ArgumentCaptor.forClass(Object.class);
+    verify(jdbcTemplate, times(2)).update(contains("SELECT 'MINUTE'"), captor.capture(), captor.capture());
+    return captor.getAllValues();
+  }
+
+  private Timestamp timestamp(String time) {
+    return Timestamp.from(Instant.parse("2016-08-01T" + time + ":00Z"));
+  }
+}
@@ -0,0 +1,44 @@
+package pdp.stats;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyMetricsTest {
+
+  private LatencyMetrics subject = new LatencyMetrics(60);
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testRecordPerPhaseAndDecision() {
+    subject.record(context("Permit", 2000000L));
+    subject.record(context("Permit", 4000000L));
+    subject.record(context(null, 1000000L));
+
+    Map<String, Object> percentiles = subject.percentiles();
+    Map<String, Map<String, Object>> sinceStart = (Map<String, Map<String, Object>>) percentiles.get("sinceStart");
+
+    Map<String, Object> permits = sinceStart.get("decide.Permit");
+    assertEquals(2L, permits.get("count"));
+    assertEquals(3.0, permits.get("mean"));
+    assertEquals(4.0, permits.get("max"));
+    assertEquals(1L, sinceStart.get("pip.teams_pip.Permit").get("count"));
+    assertEquals(1L, sinceStart.get("decide.Error").get("count"));
+
+    //the first interval is not complete yet
+    assertTrue(((Map) percentiles.get("lastInterval")).isEmpty());
+  }
+
+  private StatsContext context(String decision, long decideNanos) {
+    StatsContext context = new StatsContext();
+    context.setDecision(decision);
+    context.addTiming(LatencyMetrics.DECIDE, decideNanos);
+    if (decision != null && decideNanos > 3000000L) {
+      context.addTiming(LatencyMetrics.PIP + DecisionLogWriter.TEAMS_PIP, 1000000L);
+    }
+    return context;
+  }
+}
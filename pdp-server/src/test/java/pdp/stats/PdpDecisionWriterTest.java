@@ -0,0 +1,65 @@
+package pdp.stats;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import pdp.domain.PdpDecision;
+
+import java.util.Map;
+
+import static java.util.stream.Collectors.toMap;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class PdpDecisionWriterTest {
+
+  private JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+
+  //the scheduled flush will not kick in during the test
+  private PdpDecisionWriter subject = new PdpDecisionWriter(jdbcTemplate, 3, 2, 0, 60 * 60 * 1000);
+
+  @After
+  public void after() throws Exception {
+    subject.destroy();
+  }
+
+  @Test
+  public void testDecisionsAreWrittenInBatches() throws Exception {
+    subject.write(new PdpDecision("{}"));
+    subject.write(new PdpDecision("{}"));
+    subject.write(new PdpDecision("{}"));
+    subject.flush();
+
+    verify(jdbcTemplate, times(2)).batchUpdate(anyString(), anyListOf(Object[].class));
+    assertEquals(3L, metrics().get("stats.decisions.written"));
+    assertEquals(0, metrics().get("stats.decisions.queue.depth"));
+  }
+
+  @Test
+  public void testDecisionsAreDroppedWhenQueueIsFull() throws Exception {
+    for (int i = 0; i < 5; i++) {
+      subject.write(new PdpDecision("{}"));
+    }
+    assertEquals(2L, metrics().get("stats.decisions.dropped"));
+    assertEquals(3, metrics().get("stats.decisions.queue.depth"));
+  }
+
+  @Test
+  public void testFailedBatchesAreCounted() throws Exception {
+    when(jdbcTemplate.batchUpdate(anyString(), anyListOf(Object[].class))).thenThrow(new DataAccessResourceFailureException("down"));
+    subject.write(new PdpDecision("{}"));
+    subject.flush();
+
+    assertEquals(1L, metrics().get("stats.decisions.failed"));
+    assertEquals(0L, metrics().get("stats.decisions.written"));
+  }
+
+  private Map<String, Number> metrics() {
+    return subject.metrics().stream().collect(toMap(Metric::getName, Metric::getValue));
+  }
+
+}
@@ -0,0 +1,73 @@
+package pdp.stats;
+
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class PolicyViolationWriterTest {
+
+  private JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+
+  //the scheduled flush will not kick in during the test
+  private PolicyViolationWriter subject = new PolicyViolationWriter(jdbcTemplate, 10, 10, 0, 60 * 60 * 1000, true);
+
+  @After
+  public void after() throws Exception {
+    subject.destroy();
+  }
+
+  @Test
+  public void testIdenticalViolationsAreCollapsed() throws Exception {
+    subject.write(1L, "request", "response", false);
+    subject.write(1L, "request", "response", false);
+    subject.write(1L, "request", "response", true);
+    subject.write(1L, "other request", "response", false);
+    subject.write(2L, "request", "response", false);
+    subject.flush();
+
+    List<Object[]> rows = insertedRows();
+    assertEquals(4, rows.size());
+    assertEquals(2, rows.get(0)[4]);
+    rows.subList(1, 4).forEach(row -> assertEquals(1, row[4]));
+  }
+
+  @Test
+  public void testViolationsAreNotCollapsed() throws Exception {
+    PolicyViolationWriter writer = new PolicyViolationWriter(jdbcTemplate, 10, 10, 0, 60 * 60 * 1000, false);
+    writer.write(1L, "request", "response", false);
+    writer.write(1L, "request", "response", false);
+    writer.destroy();
+
+    assertEquals(2, insertedRows().size());
+  }
+
+  @Test
+  public void testIdentityProviderEntityId() throws Exception {
+    String request = "{\"Request\":{\"Resource\":{\"Attribute\":[{\"AttributeId\":\"SPentityID\",\"Value\":\"http://sp\"}," +
+        "{\"AttributeId\":\"IDPentityID\",\"Value\":\"http://idp\"}]}}}";
+    subject.write(1L, request, "response", false);
+    subject.write(1L, "not json", "response", false);
+    subject.flush();
+
+    List<Object[]> rows = insertedRows();
+    assertEquals("http://idp", rows.get(0)[5]);
+    assertNull(rows.get(1)[5]);
+  }
+
+  @SuppressWarnings("unchecked")
+  private List<Object[]> insertedRows() {
+    ArgumentCaptor<List> captor = ArgumentCaptor.forClass(List.class);
+    verify(jdbcTemplate).batchUpdate(anyString(), captor.capture());
+    return captor.getValue();
+  }
+
+}
@@ -0,0 +1,65 @@
+package pdp.stats;
+
+import org.junit.Test;
+import pdp.domain.PdpDecision;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class StatsContextHolderTest {
+
+  private PdpDecisionWriter decisionWriter = mock(PdpDecisionWriter.class);
+  private DecisionLogWriter decisionLogWriter = mock(DecisionLogWriter.class);
+
+  private StatsContextHolder subject = new StatsContextHolder(decisionWriter, decisionLogWriter, new LatencyMetrics(60));
+
+  @Test
+  public void testBind() throws Exception {
+    StatsContext outer = new StatsContext();
+    StatsContext inner = new StatsContext();
+    try (StatsContextHolder.Binding binding = StatsContextHolder.bind(outer)) {
+      try (StatsContextHolder.Binding innerBinding = StatsContextHolder.bind(inner)) {
+        assertSame(inner, StatsContextHolder.getContext());
+      }
+      assertSame(outer, StatsContextHolder.getContext());
+    }
+    assertNotSame(outer, StatsContextHolder.getContext());
+  }
+
+  @Test
+  public void testBindOnAnotherThread() throws Exception {
+    StatsContext context = new StatsContext();
+    StatsContext[] boundContext = new StatsContext[1];
+    Thread thread = new Thread(() -> {
+      try (StatsContextHolder.Binding binding = StatsContextHolder.bind(context)) {
+        boundContext[0] = StatsContextHolder.getContext();
+      }
+    });
+    thread.start();
+    thread.join();
+
+    assertSame(context, boundContext[0]);
+  }
+
+  @Test
+  public void testRecord() {
+    StatsContext context = new StatsContext();
+    context.setServiceProvicer("http://mock-sp");
+    subject.record(context);
+
+    verify(decisionLogWriter).write(context);
+    verify(decisionWriter).write(any(PdpDecision.class));
+  }
+
+  @Test
+  public void testRecordWithoutServiceProvider() {
+    subject.record(new StatsContext());
+
+    verify(decisionLogWriter, never()).write(any(StatsContext.class));
+    verify(decisionWriter, never()).write(any(PdpDecision.class));
+  }
+}
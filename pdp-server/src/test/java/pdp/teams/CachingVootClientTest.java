@@ -0,0 +1,53 @@
+package pdp.teams;
+
+import org.junit.Test;
+import org.springframework.web.client.RestClientException;
+
+import java.util.Collections;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.*;
+
+public class CachingVootClientTest {
+
+  private VootClient vootClient = mock(VootClient.class);
+
+  @Test
+  public void testGroupsAreCached() throws Exception {
+    when(vootClient.groups("id1")).thenReturn(asList("group1", "group2"));
+    CachingVootClient subject = new CachingVootClient(vootClient, 60, 10, true);
+
+    assertEquals(asList("group1", "group2"), subject.groups("id1"));
+    assertEquals(asList("group1", "group2"), subject.groups("id1"));
+
+    verify(vootClient, times(1)).groups("id1");
+  }
+
+  @Test
+  public void testEmptyGroupsAreNotCached() throws Exception {
+    when(vootClient.groups("id1")).thenReturn(Collections.emptyList());
+    CachingVootClient subject = new CachingVootClient(vootClient, 60, 10, false);
+
+    subject.groups("id1");
+    subject.groups("id1");
+
+    verify(vootClient, times(2)).groups("id1");
+  }
+
+  @Test
+  public void testExceptionsAreNotCached() throws Exception {
+    when(vootClient.groups("id1")).thenThrow(new RestClientException("VOOT down")).thenReturn(asList("group1"));
+    CachingVootClient subject = new CachingVootClient(vootClient, 60, 10, true);
+
+    try {
+      subject.groups("id1");
+      fail();
+    } catch (RestClientException e) {
+      assertEquals("VOOT down", e.getMessage());
+    }
+    assertEquals(asList("group1"), subject.groups("id1"));
+  }
+
+}
@@ -0,0 +1,44 @@
+package pdp.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+  private LatencyHistogram subject = new LatencyHistogram();
+
+  @Test
+  public void testBucketsAreContiguous() {
+    for (long value = 0; value < 100000; value++) {
+      int index = LatencyHistogram.index(value);
+      assertTrue(value <= LatencyHistogram.highestValue(index));
+      assertTrue(index == 0 || value > LatencyHistogram.highestValue(index - 1));
+    }
+    assertEquals(Long.MAX_VALUE, LatencyHistogram.highestValue(LatencyHistogram.index(Long.MAX_VALUE)));
+  }
+
+  @Test
+  public void testPercentiles() {
+    for (long ms = 1; ms <= 1000; ms++) {
+      subject.record(ms * 1000000);
+    }
+    assertEquals(1000, subject.count());
+    assertEquals(1000000000L, subject.max());
+    assertEquals(500.5 * 1000000, subject.mean(), 0.1);
+    assertWithinPrecision(500 * 1000000L, subject.percentile(50));
+    assertWithinPrecision(990 * 1000000L, subject.percentile(99));
+    assertEquals(1000000000L, subject.percentile(100));
+  }
+
+  @Test
+  public void testEmpty() {
+    assertEquals(0, subject.percentile(99));
+    assertEquals(0, subject.mean(), 0);
+  }
+
+  private void assertWithinPrecision(long expected, long actual) {
+    assertTrue(actual >= expected && actual <= expected + expected / 32);
+  }
+}
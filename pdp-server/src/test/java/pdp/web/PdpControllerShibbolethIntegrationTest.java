@@ -94,6 +94,22 @@ public class PdpControllerShibbolethIntegrationTest extends AbstractPdpIntegrati
     assertViolations(violations, 2);
   }
 
+  @Test
+  public void testViolationsPaginated() {
+    setUpViolation(policyId);
+    setUpViolation(policyId);
+    ParameterizedTypeReference<List<PdpPolicyViolation>> violationsType = new ParameterizedTypeReference<List<PdpPolicyViolation>>() {
+    };
+    List<PdpPolicyViolation> firstPage = getForObject("/internal/violations?limit=1", violationsType);
+    assertViolations(firstPage, 1);
+
+    List<PdpPolicyViolation> secondPage = getForObject("/internal/violations?limit=1&after=" + firstPage.get(0).getId(), violationsType);
+    assertViolations(secondPage, 1);
+    assertTrue(secondPage.get(0).getId() > firstPage.get(0).getId());
+
+    assertViolations(getForObject("/internal/violations?after=" + secondPage.get(0).getId(), violationsType), 0);
+  }
+
   @Test
   public void testViolationsByPolicyId() {
     Long policyId = setUpViolation(PdpControllerShibbolethIntegrationTest.policyId).getId();
@@ -0,0 +1,121 @@
+package pdp.web;
+
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.context.request.async.StandardServletAsyncWebRequest;
+import org.springframework.web.context.request.async.WebAsyncManager;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import pdp.DecisionUnavailableException;
+import pdp.stats.LatencyMetrics;
+import pdp.stats.StatsContext;
+import pdp.stats.StatsContextHolder;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class PipDecisionTest {
+
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+  private final StatsContextHolder statsContextHolder = mock(StatsContextHolder.class);
+  private final MockHttpServletRequest request = new MockHttpServletRequest();
+  private final StatsContext stats = new StatsContext();
+
+  @After
+  public void after() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testTimeout() throws Exception {
+    stats.setServiceProvicer("http://mock-sp");
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch interrupted = new CountDownLatch(1);
+    AtomicBoolean timedOutAfterwards = new AtomicBoolean();
+    WebAsyncManager asyncManager = startAsync(new PipDecision(stats, System.nanoTime(), 10, statsContextHolder, timedOut -> {
+      started.countDown();
+      try {
+        //a PIP that does not respond
+        Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+      } catch (InterruptedException e) {
+        timedOutAfterwards.set(timedOut.getAsBoolean());
+        interrupted.countDown();
+      }
+      return new byte[0];
+    }).submit(executor));
+
+    assertTrue(started.await(1, TimeUnit.SECONDS));
+    Thread.sleep(20);
+    timeout();
+
+    Object result = asyncManager.getConcurrentResult();
+    assertTrue(result instanceof DecisionUnavailableException);
+    assertEquals(HttpStatus.SERVICE_UNAVAILABLE, AnnotationUtils.findAnnotation(result.getClass(), ResponseStatus.class).value());
+
+    //the decision is cancelled and knows it is too late to report a violation
+    assertTrue(interrupted.await(1, TimeUnit.SECONDS));
+    assertTrue(timedOutAfterwards.get());
+    executor.shutdown();
+    executor.awaitTermination(1, TimeUnit.SECONDS);
+
+    ArgumentCaptor<StatsContext> recorded = ArgumentCaptor.forClass(StatsContext.class);
+    verify(statsContextHolder, times(1)).record(recorded.capture());
+    StatsContext unavailable = recorded.getValue();
+    assertEquals(PipDecision.UNAVAILABLE, unavailable.getDecision());
+    assertEquals("http://mock-sp", unavailable.getServiceProvicer());
+    assertTrue(unavailable.getResponseTimeMs() >= 20);
+    assertTrue(unavailable.getTimingsNanos().get(LatencyMetrics.DECIDE) >= TimeUnit.MILLISECONDS.toNanos(20));
+  }
+
+  @Test
+  public void testDecision() throws Exception {
+    byte[] json = "{}".getBytes();
+    WebAsyncManager asyncManager = startAsync(new PipDecision(stats, System.nanoTime(), 1000, statsContextHolder, timedOut -> {
+      stats.setDecision("Permit");
+      return json;
+    }).submit(executor));
+    executor.shutdown();
+    executor.awaitTermination(1, TimeUnit.SECONDS);
+
+    //a timeout after the decision is ignored
+    timeout();
+
+    assertArrayEquals(json, (byte[]) asyncManager.getConcurrentResult());
+    verify(statsContextHolder, times(1)).record(stats);
+  }
+
+  private WebAsyncManager startAsync(DeferredResult<byte[]> result) throws Exception {
+    request.setAsyncSupported(true);
+    WebAsyncManager asyncManager = WebAsyncUtils.getAsyncManager(request);
+    asyncManager.setAsyncWebRequest(new StandardServletAsyncWebRequest(request, new MockHttpServletResponse()));
+    asyncManager.startDeferredResultProcessing(result);
+    return asyncManager;
+  }
+
+  //what the servlet container does when the async timeout of the DeferredResult expires
+  private void timeout() throws Exception {
+    MockAsyncContext asyncContext = (MockAsyncContext) request.getAsyncContext();
+    for (AsyncListener listener : asyncContext.getListeners()) {
+      listener.onTimeout(new AsyncEvent(asyncContext));
+    }
+  }
+}
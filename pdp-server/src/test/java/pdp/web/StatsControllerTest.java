@@ -17,6 +17,7 @@ import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.web.client.RestTemplate;
 import pdp.AbstractPdpIntegrationTest;
@@ -24,10 +25,12 @@ import pdp.PdpApplication;
 import pdp.domain.*;
 import pdp.policies.PolicyLoader;
 import pdp.repositories.PdpDecisionRepository;
+import pdp.stats.DecisionRollups;
 import pdp.teams.VootClientConfig;
 import pdp.xacml.PolicyTemplateEngine;
 
 import java.io.IOException;
+import java.sql.Timestamp;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.Collection;
@@ -41,7 +44,8 @@ import static pdp.util.StreamUtils.singletonCollector;
 
 @RunWith(SpringJUnit4ClassRunner.class)
 @SpringApplicationConfiguration(classes = PdpApplication.class)
-@WebIntegrationTest(randomPort = true, value = {"spring.profiles.active=no-csrf"})
+//the scheduled roll ups would race the roll ups of the test
+@WebIntegrationTest(randomPort = true, value = {"spring.profiles.active=no-csrf", "pdpCronJobResponsible=false"})
 public class StatsControllerTest extends AbstractPdpIntegrationTest {
 
   private RestTemplate restTemplate = new TestRestTemplate();
@@ -49,6 +53,12 @@ public class StatsControllerTest extends AbstractPdpIntegrationTest {
   @Autowired
   private PdpDecisionRepository pdpDecisionRepository;
 
+  @Autowired
+  private DecisionRollups decisionRollups;
+
+  @Autowired
+  private JdbcTemplate jdbcTemplate;
+
   @Before
   public void before() throws IOException {
     super.before();
@@ -69,6 +79,51 @@ public class StatsControllerTest extends AbstractPdpIntegrationTest {
     assertEquals(2, decisions.size());
   }
 
+  @Test
+  public void testDecisionsPaginated() {
+    List<PdpDecision> firstPage = getForObject("/internal/decisions?daysAgo=10&limit=1", new ParameterizedTypeReference<List<PdpDecision>>() {
+    });
+    assertEquals(1, firstPage.size());
+
+    List<PdpDecision> secondPage = getForObject("/internal/decisions?daysAgo=10&limit=1&after=" + firstPage.get(0).getId(), new ParameterizedTypeReference<List<PdpDecision>>() {
+    });
+    assertEquals(1, secondPage.size());
+    assertTrue(secondPage.get(0).getId() > firstPage.get(0).getId());
+  }
+
+  @Test
+  public void testDecisionRollups() {
+    Instant minute = Instant.now().truncatedTo(ChronoUnit.HOURS).minus(2, ChronoUnit.HOURS);
+    jdbcTemplate.update("DELETE FROM pdp_decision_log");
+    jdbcTemplate.update("DELETE FROM pdp_decision_rollups");
+    logDecision(minute, "Permit", 5, 12L);
+    logDecision(minute.plusSeconds(10), "Permit", 70, null);
+    logDecision(minute.plus(1, ChronoUnit.MINUTES), "Deny", 2000, null);
+    decisionRollups.rollUp(Timestamp.from(minute), Timestamp.from(minute.plus(2, ChronoUnit.MINUTES)));
+
+    List<PdpDecisionRollup> minutes = getForObject("/internal/decisions/rollups?daysAgo=1&granularity=MINUTE&decision=Permit", new ParameterizedTypeReference<List<PdpDecisionRollup>>() {
+    });
+    assertEquals(1, minutes.size());
+    PdpDecisionRollup permits = minutes.get(0);
+    assertEquals(2, permits.getDecisions());
+    assertEquals(75, permits.getResponseTimeTotalMs());
+    assertEquals(Long.valueOf(1), permits.getLatencyHistogram().get("10"));
+    assertEquals(Long.valueOf(1), permits.getLatencyHistogram().get("100"));
+    assertEquals(1, permits.getTeamsPipCalls());
+    assertEquals(12, permits.getTeamsPipTotalMs());
+
+    List<PdpDecisionRollup> hours = getForObject("/internal/decisions/rollups?daysAgo=1", new ParameterizedTypeReference<List<PdpDecisionRollup>>() {
+    });
+    assertEquals(2, hours.size());
+    assertEquals(Long.valueOf(1), hours.stream().filter(rollup -> rollup.getDecision().equals("Deny")).collect(singletonCollector())
+        .getLatencyHistogram().get("+Inf"));
+  }
+
+  private void logDecision(Instant created, String decision, int responseTimeMs, Long teamsPipMs) {
+    jdbcTemplate.update("INSERT INTO pdp_decision_log (created, sp_entity_id, idp_entity_id, decision, response_time_ms, teams_pip_ms) " +
+        "VALUES (?, 'sp', 'idp', ?, ?, ?)", Timestamp.from(created), decision, responseTimeMs, teamsPipMs);
+  }
+
   @Override
   public RestTemplate getRestTemplate() {
     return restTemplate;
@@ -0,0 +1,35 @@
+package pdp.xacml;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AttributeDictionaryTest {
+
+  private static final String CATEGORY = PdpPolicyDefinitionParser.ACCESS_SUBJECT_CATEGORY;
+  private static final String AFFILIATION = "urn:mace:dir:attribute-def:eduPersonAffiliation";
+
+  private final AttributeDictionary dictionary = new AttributeDictionary();
+
+  @Test
+  public void testEncode() {
+    int code = dictionary.encode(CATEGORY, AFFILIATION, "student");
+
+    assertEquals(code, dictionary.encode(CATEGORY, AFFILIATION, "student"));
+    assertEquals(code, dictionary.code(CATEGORY, AFFILIATION, "student"));
+    assertNotEquals(code, dictionary.encode(CATEGORY, AFFILIATION, "employee"));
+    assertNotEquals(code, dictionary.encode(PdpPolicyDefinitionParser.RESOURCE_CATEGORY, AFFILIATION, "student"));
+    assertEquals(3, dictionary.size());
+  }
+
+  @Test
+  public void testUnknown() {
+    dictionary.encode(CATEGORY, AFFILIATION, "student");
+
+    assertEquals(AttributeDictionary.UNKNOWN, dictionary.code(CATEGORY, AFFILIATION, "employee"));
+    assertEquals(AttributeDictionary.UNKNOWN, dictionary.code(CATEGORY, "urn:mace:dir:attribute-def:uid", "student"));
+    assertTrue(dictionary.codes(CATEGORY, "urn:mace:dir:attribute-def:uid").isEmpty());
+  }
+}
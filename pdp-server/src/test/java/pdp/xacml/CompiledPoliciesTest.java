@@ -0,0 +1,73 @@
+package pdp.xacml;
+
+import org.apache.openaz.xacml.api.Response;
+import org.apache.openaz.xacml.std.IdentifierImpl;
+import org.apache.openaz.xacml.std.StdIdReference;
+import org.apache.openaz.xacml.std.StdMutableResult;
+import org.apache.openaz.xacml.std.json.JSONRequest;
+import org.junit.Test;
+import pdp.domain.PdpAttribute;
+import pdp.domain.PdpPolicyDefinition;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CompiledPoliciesTest {
+
+  private static final String AFFILIATION = "urn:mace:dir:attribute-def:eduPersonAffiliation";
+  private static final String HOME_ORGANIZATION = "urn:mace:terena.org:attribute-def:schacHomeOrganization";
+
+  private final AttributeDictionary dictionary = new AttributeDictionary();
+
+  //the first policy permits students of mock-idp, the second permits surfnet.nl users of other-idp
+  private final CompiledPolicies subject = new CompiledPolicies(Arrays.asList(
+      compile("urn:surfconext:xacml:policy:id:first", "http://mock-idp", AFFILIATION, "student"),
+      compile("urn:surfconext:xacml:policy:id:second", "http://other-idp", HOME_ORGANIZATION, "surfnet.nl")),
+      dictionary, new StdIdReference(new IdentifierImpl("urn:openconext:pdp:root:policyset"), null));
+
+  @Test
+  public void testSerializedResponsesAreReused() throws Exception {
+    Set<Response> responses = Collections.newSetFromMap(new IdentityHashMap<>());
+    for (boolean returnPolicyIdList : Arrays.asList(false, true)) {
+      //Permit of the first policy, Deny of the first policy, Permit and Deny of the second policy and NotApplicable
+      responses.add(decide(returnPolicyIdList, "http://mock-idp", AFFILIATION, "student"));
+      responses.add(decide(returnPolicyIdList, "http://mock-idp", AFFILIATION, "employee"));
+      responses.add(decide(returnPolicyIdList, "http://other-idp", HOME_ORGANIZATION, "surfnet.nl"));
+      responses.add(decide(returnPolicyIdList, "http://other-idp", HOME_ORGANIZATION, "example.org"));
+      responses.add(decide(returnPolicyIdList, "http://unknown-idp", AFFILIATION, "student"));
+    }
+    assertEquals(10, responses.size());
+    responses.forEach(response -> {
+      assertTrue(response instanceof SerializedResponse);
+      //shared by all requests, so the Result can not be changed
+      assertFalse(response.getResults().iterator().next() instanceof StdMutableResult);
+    });
+  }
+
+  private Response decide(boolean returnPolicyIdList, String identityProvider, String attributeId, String value) throws Exception {
+    String json = "{\"Request\":{\"ReturnPolicyIdList\":" + returnPolicyIdList + "," +
+        "\"AccessSubject\":{\"Attribute\":[{\"AttributeId\":\"" + attributeId + "\",\"Value\":\"" + value + "\"}]}," +
+        "\"Resource\":{\"Attribute\":[{\"AttributeId\":\"SPentityID\",\"Value\":\"http://mock-sp\"}," +
+        "{\"AttributeId\":\"IDPentityID\",\"Value\":\"" + identityProvider + "\"}]}}}";
+    Response response = subject.decide(JSONRequest.load(json)).get();
+    assertSame(response, subject.decide(JSONRequest.load(json)).get());
+    return response;
+  }
+
+  private CompiledPolicy compile(String policyId, String identityProvider, String attributeId, String value) {
+    PdpPolicyDefinition definition = new PdpPolicyDefinition();
+    definition.setServiceProviderId("http://mock-sp");
+    definition.setIdentityProviderIds(Collections.singletonList(identityProvider));
+    definition.setAttributes(Collections.singletonList(new PdpAttribute(attributeId, value)));
+    definition.setDenyAdvice("Not allowed");
+    definition.setDenyAdviceNl("Niet toegestaan");
+    return CompiledPolicy.compile(new IdentifierImpl(policyId), null, definition, true, Collections.emptySet(), dictionary).get();
+  }
+}
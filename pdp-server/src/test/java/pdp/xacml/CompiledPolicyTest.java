@@ -0,0 +1,163 @@
+package pdp.xacml;
+
+import org.apache.openaz.xacml.api.Decision;
+import org.apache.openaz.xacml.std.IdentifierImpl;
+import org.junit.Test;
+import pdp.domain.PdpAttribute;
+import pdp.domain.PdpPolicyDefinition;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class CompiledPolicyTest {
+
+  private static final String SP = "http://mock-sp";
+  private static final String IDP = "http://mock-idp";
+  private static final String AFFILIATION = "urn:mace:dir:attribute-def:eduPersonAffiliation";
+  private static final String HOME_ORGANIZATION = "urn:mace:terena.org:attribute-def:schacHomeOrganization";
+
+  private final AttributeDictionary dictionary = new AttributeDictionary();
+
+  @Test
+  public void testPermitAnyAttribute() {
+    CompiledPolicy policy = compile(false, false, attribute(AFFILIATION, "student"), attribute(HOME_ORGANIZATION, "surfnet.nl"));
+
+    assertDecision(Decision.PERMIT, policy, request(AFFILIATION, "student"));
+    assertDecision(Decision.PERMIT, policy, request(AFFILIATION, "employee", HOME_ORGANIZATION, "surfnet.nl"));
+    assertDecision(Decision.DENY, policy, request(AFFILIATION, "students"));
+    assertDecision(Decision.DENY, policy, request());
+  }
+
+  @Test
+  public void testPermitAllAttributes() {
+    CompiledPolicy policy = compile(false, true, attribute(AFFILIATION, "student"), attribute(AFFILIATION, "employee"),
+        attribute(HOME_ORGANIZATION, "surfnet.nl"));
+
+    assertDecision(Decision.PERMIT, policy, request(AFFILIATION, "employee", HOME_ORGANIZATION, "surfnet.nl"));
+    assertDecision(Decision.DENY, policy, request(AFFILIATION, "employee"));
+    assertDecision(Decision.DENY, policy, request(AFFILIATION, "guest", HOME_ORGANIZATION, "surfnet.nl"));
+  }
+
+  @Test
+  public void testDenyRule() {
+    CompiledPolicy policy = compile(true, false, attribute(AFFILIATION, "student"));
+
+    assertDecision(Decision.DENY, policy, request(AFFILIATION, "student"));
+    assertDecision(Decision.PERMIT, policy, request(AFFILIATION, "employee"));
+    //the attributes of a deny rule must be present
+    assertFalse(policy.evaluate(request(HOME_ORGANIZATION, "surfnet.nl")).isPresent());
+  }
+
+  @Test
+  public void testRegularExpressions() {
+    CompiledPolicy policy = compile(false, false, attribute(HOME_ORGANIZATION, "surfnet.nl"), attribute(AFFILIATION, "emp.*"));
+
+    assertDecision(Decision.PERMIT, policy, request(HOME_ORGANIZATION, "surfnet.nl"));
+    //the dot is any character
+    assertDecision(Decision.PERMIT, policy, request(HOME_ORGANIZATION, "surfnetxnl"));
+    assertDecision(Decision.PERMIT, policy, request(AFFILIATION, "employee"));
+    //the whole value must match
+    assertDecision(Decision.DENY, policy, request(HOME_ORGANIZATION, "surfnet.nl.org"));
+  }
+
+  @Test
+  public void testStringEqual() {
+    PdpPolicyDefinition definition = definition(false, false, attribute(HOME_ORGANIZATION, "surfnet.nl"));
+    CompiledPolicy policy = CompiledPolicy.compile(new IdentifierImpl("urn:surfconext:xacml:policy:id:test"), null,
+        definition, false, Collections.emptySet(), dictionary).get();
+
+    assertDecision(Decision.PERMIT, policy, request(HOME_ORGANIZATION, "surfnet.nl"));
+    assertDecision(Decision.DENY, policy, request(HOME_ORGANIZATION, "surfnetxnl"));
+  }
+
+  @Test
+  public void testMultivaluedAttribute() {
+    CompiledPolicy policy = compile(false, false, attribute(AFFILIATION, "student"));
+
+    Map<String, List<String>> attributes = new HashMap<>();
+    attributes.put(AFFILIATION, Arrays.asList("employee", "student"));
+    assertDecision(Decision.PERMIT, policy, new CompiledRequest(SP, Collections.singletonList(IDP), attributes, dictionary));
+  }
+
+  @Test
+  public void testTarget() {
+    PdpPolicyDefinition definition = definition(false, false, attribute(AFFILIATION, "student"));
+    definition.setIdentityProviderIds(Collections.singletonList(IDP));
+    CompiledPolicy policy = compile(definition);
+
+    assertDecision(Decision.PERMIT, policy, request(AFFILIATION, "student"));
+    assertDecision(Decision.NOTAPPLICABLE, policy, new CompiledRequest("http://other-sp", Collections.singletonList(IDP),
+        Collections.singletonMap(AFFILIATION, Collections.singletonList("student")), dictionary));
+    assertDecision(Decision.NOTAPPLICABLE, policy, new CompiledRequest(SP, Collections.singletonList("http://other-idp"),
+        Collections.singletonMap(AFFILIATION, Collections.singletonList("student")), dictionary));
+    //the IDPentityID must be present
+    assertFalse(policy.evaluate(new CompiledRequest(SP, Collections.emptyList(),
+        Collections.singletonMap(AFFILIATION, Collections.singletonList("student")), dictionary)).isPresent());
+  }
+
+  @Test
+  public void testCodesAreOfTheAttribute() {
+    PdpPolicyDefinition definition = definition(false, false, attribute(AFFILIATION, "student"));
+    definition.setIdentityProviderIds(Collections.singletonList(IDP));
+    CompiledPolicy policy = compile(definition);
+
+    //the same value of another attribute or category has another code
+    assertDecision(Decision.DENY, policy, request(HOME_ORGANIZATION, "student"));
+    assertDecision(Decision.NOTAPPLICABLE, policy, new CompiledRequest(SP, Collections.singletonList("http://other-idp"),
+        Collections.singletonMap(PdpPolicyDefinitionParser.IDP_ENTITY_ID, Collections.singletonList(IDP)), dictionary));
+  }
+
+  @Test
+  public void testNotCompiled() {
+    assertFalse(compile(definition(false, false), Collections.emptySet()).isPresent());
+    assertFalse(compile(definition(false, false, attribute(AFFILIATION, "[student")), Collections.emptySet()).isPresent());
+    assertFalse(compile(definition(false, false, attribute(AFFILIATION, "student")), Collections.singleton(AFFILIATION)).isPresent());
+  }
+
+  private void assertDecision(Decision expected, CompiledPolicy policy, CompiledRequest request) {
+    assertEquals(Optional.of(expected), policy.evaluate(request));
+  }
+
+  private CompiledPolicy compile(boolean denyRule, boolean allAttributesMustMatch, PdpAttribute... attributes) {
+    return compile(definition(denyRule, allAttributesMustMatch, attributes));
+  }
+
+  private CompiledPolicy compile(PdpPolicyDefinition definition) {
+    return compile(definition, Collections.emptySet()).get();
+  }
+
+  private Optional<CompiledPolicy> compile(PdpPolicyDefinition definition, Set<String> pipAttributeIds) {
+    return CompiledPolicy.compile(new IdentifierImpl("urn:surfconext:xacml:policy:id:test"), null, definition, true, pipAttributeIds, dictionary);
+  }
+
+  private PdpPolicyDefinition definition(boolean denyRule, boolean allAttributesMustMatch, PdpAttribute... attributes) {
+    PdpPolicyDefinition definition = new PdpPolicyDefinition();
+    definition.setServiceProviderId(SP);
+    definition.setDenyRule(denyRule);
+    definition.setAllAttributesMustMatch(allAttributesMustMatch);
+    definition.setAttributes(Arrays.asList(attributes));
+    definition.setDenyAdvice("Not allowed");
+    definition.setDenyAdviceNl("Niet toegestaan");
+    return definition;
+  }
+
+  private PdpAttribute attribute(String name, String value) {
+    return new PdpAttribute(name, value);
+  }
+
+  private CompiledRequest request(String... attributeIdsAndValues) {
+    Map<String, List<String>> attributes = new HashMap<>();
+    for (int i = 0; i < attributeIdsAndValues.length; i += 2) {
+      attributes.put(attributeIdsAndValues[i], Collections.singletonList(attributeIdsAndValues[i + 1]));
+    }
+    return new CompiledRequest(SP, Collections.singletonList(IDP), attributes, dictionary);
+  }
+}
@@ -0,0 +1,49 @@
+package pdp.xacml;
+
+import com.google.common.hash.HashCode;
+import org.apache.openaz.xacml.std.json.JSONRequest;
+import org.junit.Test;
+import pdp.xacml.DecisionCache.CachedDecision;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DecisionCacheTest {
+
+  private static final String IDP_FIRST = "{\"Request\":{\"Resource\":{\"Attribute\":[" +
+      "{\"AttributeId\":\"IDPentityID\",\"Value\":\"avans_idp\"},{\"AttributeId\":\"SPentityID\",\"Value\":\"avans_sp\"}]}}}";
+  private static final String SP_FIRST = "{\"Request\":{\"Resource\":{\"Attribute\":[" +
+      "{\"AttributeId\":\"SPentityID\",\"Value\":\"avans_sp\"},{\"AttributeId\":\"IDPentityID\",\"Value\":\"avans_idp\"}]}}}";
+  private static final String OTHER_SP = "{\"Request\":{\"Resource\":{\"Attribute\":[" +
+      "{\"AttributeId\":\"SPentityID\",\"Value\":\"other_sp\"},{\"AttributeId\":\"IDPentityID\",\"Value\":\"avans_idp\"}]}}}";
+
+  private DecisionCache subject = new DecisionCache(true, 60, 100);
+
+  @Test
+  public void testKeyIgnoresAttributeOrder() throws Exception {
+    assertEquals(key(IDP_FIRST), key(SP_FIRST));
+    assertNotEquals(key(SP_FIRST), key(OTHER_SP));
+  }
+
+  @Test
+  public void testDecisionIsInvalidatedByNewPolicies() throws Exception {
+    HashCode key = key(IDP_FIRST);
+    subject.put(key, new CachedDecision(null, "{}".getBytes(), 1L));
+
+    assertTrue(subject.get(key(SP_FIRST), 1L).isPresent());
+    assertFalse(subject.get(key, 2L).isPresent());
+    assertFalse(subject.get(key, 1L).isPresent());
+  }
+
+  @Test
+  public void testDisabled() throws Exception {
+    assertFalse(new DecisionCache(false, 60, 100).key(JSONRequest.load(IDP_FIRST)).isPresent());
+  }
+
+  private HashCode key(String json) throws Exception {
+    return subject.key(JSONRequest.load(json)).get();
+  }
+
+}
@@ -0,0 +1,63 @@
+package pdp.xacml;
+
+import org.apache.openaz.xacml.pdp.policy.Policy;
+import org.apache.openaz.xacml.pdp.policy.PolicySet;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+
+public class IndexedPolicyFinderTest {
+
+  private final Map<Policy, Set<String>> serviceProviderIds = new IdentityHashMap<>();
+  private final AtomicInteger attributeIdsCalls = new AtomicInteger();
+  private final AtomicInteger rootPolicySets = new AtomicInteger();
+
+  private final Policy first = policy("http://mock-sp");
+  private final Policy second = policy("http://other-sp");
+  private final Policy unindexed = policy();
+
+  @Test
+  public void testChangesOnlyRebuildTheAffectedServiceProviders() {
+    IndexedPolicyFinder finder = new IndexedPolicyFinder(Arrays.asList(first, second, unindexed), serviceProviderIds::get,
+        policy -> {
+          attributeIdsCalls.incrementAndGet();
+          return Collections.emptySet();
+        },
+        policy -> Optional.empty(), new AttributeDictionary(),
+        children -> {
+          rootPolicySets.incrementAndGet();
+          return new PolicySet();
+        });
+    //the policies that can not be indexed and both SPentityIDs, the root PolicySet of all policies is built when needed
+    assertCounts(3, 3);
+
+    Policy changed = policy("http://mock-sp");
+    finder = finder.withChanges(singletonList(first), singletonList(changed));
+    assertCounts(4, 4);
+
+    //the SPentityIDs are rebuilt on their first request
+    finder.withChanges(singletonList(unindexed), singletonList(policy()));
+    assertCounts(5, 5);
+  }
+
+  private void assertCounts(int expectedAttributeIdsCalls, int expectedRootPolicySets) {
+    assertEquals(expectedAttributeIdsCalls, attributeIdsCalls.get());
+    assertEquals(expectedRootPolicySets, rootPolicySets.get());
+  }
+
+  private Policy policy(String... spEntityIds) {
+    Policy policy = new Policy();
+    serviceProviderIds.put(policy, Collections.unmodifiableSet(new HashSet<>(Arrays.asList(spEntityIds))));
+    return policy;
+  }
+}
@@ -0,0 +1,114 @@
+package pdp.xacml;
+
+import org.apache.openaz.xacml.api.Attribute;
+import org.apache.openaz.xacml.api.Request;
+import org.apache.openaz.xacml.api.RequestAttributes;
+import org.apache.openaz.xacml.std.json.JSONRequest;
+import org.junit.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.util.StreamUtils;
+import pdp.xacml.JsonRequestReader.ParsedRequest;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JsonRequestReaderTest {
+
+  private static final String MULTI_REQUESTS = "{\"Request\":{\"MultiRequests\":{\"RequestReference\":[]}," +
+      "\"Resource\":{\"Attribute\":[{\"AttributeId\":\"SPentityID\",\"Value\":\"avans_sp\"}]}}}";
+
+  private JsonRequestReader subject = new JsonRequestReader();
+
+  @Test
+  public void testReadsLikeJSONRequest() throws Exception {
+    File[] requests = new ClassPathResource("xacml/requests").getFile().listFiles((dir, name) -> name.startsWith("test_request"));
+    assertTrue(requests.length > 0);
+    for (File file : requests) {
+      String payload = new String(StreamUtils.copyToByteArray(new ClassPathResource("xacml/requests/" + file.getName()).getInputStream()), StandardCharsets.UTF_8);
+      Request request = subject.read(payload.getBytes(StandardCharsets.UTF_8)).getRequest();
+      Request expected = JSONRequest.load(payload);
+
+      assertEquals(file.getName(), summary(expected), summary(request));
+    }
+  }
+
+  @Test
+  public void testStatsDetails() throws Exception {
+    ParsedRequest parsedRequest = read("xacml/requests/test_request_multiple_and.json");
+
+    assertEquals("avans_sp", parsedRequest.getServiceProvider());
+    assertEquals("avans_idp", parsedRequest.getIdentityProvider());
+  }
+
+  @Test
+  public void testMissingStatsDetails() throws Exception {
+    ParsedRequest parsedRequest = subject.read("{\"Request\":{\"AccessSubject\":{\"Attribute\":[]}}}".getBytes(StandardCharsets.UTF_8));
+
+    assertEquals("", parsedRequest.getServiceProvider());
+    assertEquals("", parsedRequest.getIdentityProvider());
+  }
+
+  @Test
+  public void testFallback() throws Exception {
+    ParsedRequest parsedRequest = subject.read(MULTI_REQUESTS.getBytes(StandardCharsets.UTF_8));
+
+    assertEquals(1, parsedRequest.getRequest().getMultiRequests().size());
+    assertEquals("avans_sp", parsedRequest.getServiceProvider());
+  }
+
+  @Test
+  public void testReadBatch() throws Exception {
+    String first = "{\"Request\":{\"Resource\":{\"Attribute\":[{\"AttributeId\":\"SPentityID\",\"Value\":\"avans_sp\"}]}}}";
+    String second = "{\"Request\":{\"Resource\":{\"Attribute\":{\"AttributeId\":\"SPentityID\",\"Value\":\"other_sp\"}}}}";
+    List<ParsedRequest> parsedRequests = subject.readBatch(("[" + first + ", " + second + "]").getBytes(StandardCharsets.UTF_8)).get();
+
+    assertEquals(2, parsedRequests.size());
+    assertEquals("avans_sp", parsedRequests.get(0).getServiceProvider());
+    assertEquals(first, new String(parsedRequests.get(0).getPayload(), StandardCharsets.UTF_8));
+    assertEquals("other_sp", parsedRequests.get(1).getServiceProvider());
+    assertEquals(second, new String(parsedRequests.get(1).getPayload(), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testReadBatchFallback() throws Exception {
+    String first = "{\"Request\":{\"Resource\":{\"Attribute\":[{\"AttributeId\":\"SPentityID\",\"Value\":\"avans_sp\"}]}}}";
+    List<ParsedRequest> parsedRequests = subject.readBatch(("[" + MULTI_REQUESTS + "," + first + "]").getBytes(StandardCharsets.UTF_8)).get();
+
+    assertEquals(1, parsedRequests.get(0).getRequest().getMultiRequests().size());
+    assertEquals(MULTI_REQUESTS, new String(parsedRequests.get(0).getPayload(), StandardCharsets.UTF_8));
+    //the element after the one that is loaded by JSONRequest is read
+    assertEquals("avans_sp", parsedRequests.get(1).getServiceProvider());
+  }
+
+  @Test
+  public void testReadBatchOfOneRequest() throws Exception {
+    assertFalse(subject.readBatch(MULTI_REQUESTS.getBytes(StandardCharsets.UTF_8)).isPresent());
+  }
+
+  private ParsedRequest read(String path) throws Exception {
+    return subject.read(StreamUtils.copyToByteArray(new ClassPathResource(path).getInputStream()));
+  }
+
+  private String summary(Request request) {
+    return request.getReturnPolicyIdList() + " " + request.getCombinedDecision() + " " +
+        request.getRequestAttributes().stream().map(this::summary).collect(toList());
+  }
+
+  private String summary(RequestAttributes requestAttributes) {
+    List<String> attributes = requestAttributes.getAttributes().stream().map(this::summary).collect(toList());
+    return requestAttributes.getCategory().stringValue() + attributes;
+  }
+
+  private String summary(Attribute attribute) {
+    return attribute.getAttributeId().stringValue() + " " + attribute.getIncludeInResults() + " " +
+        attribute.getValues().stream().map(value -> value.getDataTypeId().stringValue() + "=" + value.getValue()).collect(toList());
+  }
+}
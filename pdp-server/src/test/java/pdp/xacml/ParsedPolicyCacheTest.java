@@ -0,0 +1,78 @@
+package pdp.xacml;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.openaz.xacml.pdp.policy.Policy;
+import org.apache.openaz.xacml.std.dom.DOMStructureException;
+import org.junit.Test;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.core.io.ClassPathResource;
+import pdp.domain.PdpPolicy;
+
+import java.io.IOException;
+import java.util.Map;
+
+import static java.util.stream.Collectors.toMap;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class ParsedPolicyCacheTest {
+
+  private ParsedPolicyCache cache = new ParsedPolicyCache(10);
+
+  private PdpPolicyDefinitionParser subject = new PdpPolicyDefinitionParser(cache);
+
+  @Test
+  public void testParsePolicyIsCachedPerRevision() throws Exception {
+    PdpPolicy pdpPolicy = pdpPolicy(1L);
+
+    Policy policy = subject.parsePolicy(pdpPolicy);
+    assertSame(policy, subject.parsePolicy(pdpPolicy));
+
+    pdpPolicy.setRevisionNbr(1);
+    assertNotSame(policy, subject.parsePolicy(pdpPolicy));
+
+    Map<String, Number> metrics = cache.metrics().stream().collect(toMap(Metric::getName, Metric::getValue));
+    assertEquals(1L, metrics.get("policies.parsed.cache.hits"));
+    assertEquals(2L, metrics.get("policies.parsed.cache.misses"));
+  }
+
+  @Test
+  public void testPolicyIdIsSetBeforeCaching() throws Exception {
+    PdpPolicy pdpPolicy = pdpPolicy(1L);
+    pdpPolicy.setName("Deny policy");
+
+    Policy policy = subject.parsePolicy(pdpPolicy);
+    assertEquals("urn:surfconext:xacml:policy:id:deny_policy", policy.getIdentifier().stringValue());
+    policy.getRules().forEachRemaining(rule -> rule.getAdviceExpressions().forEachRemaining(adviceExpression ->
+        assertEquals(policy.getIdentifier(), adviceExpression.getAdviceId())));
+  }
+
+  @Test
+  public void testUnsavedPolicyIsNotCached() throws Exception {
+    PdpPolicy pdpPolicy = pdpPolicy(null);
+    assertNotSame(subject.parsePolicy(pdpPolicy), subject.parsePolicy(pdpPolicy));
+  }
+
+  @Test
+  public void testParseExceptionIsNotWrapped() throws Exception {
+    PdpPolicy pdpPolicy = new PdpPolicy();
+    pdpPolicy.setId(1L);
+    pdpPolicy.setPolicyXml("<Policy>");
+    try {
+      subject.parsePolicy(pdpPolicy);
+      fail();
+    } catch (RuntimeException e) {
+      assertEquals(DOMStructureException.class, e.getCause().getClass());
+    }
+  }
+
+  private PdpPolicy pdpPolicy(Long id) throws IOException {
+    PdpPolicy pdpPolicy = new PdpPolicy();
+    pdpPolicy.setId(id);
+    pdpPolicy.setPolicyXml(IOUtils.toString(new ClassPathResource("xacml/test-policies/OpenConext.pdp.test.deny.Policy.xml").getInputStream()));
+    return pdpPolicy;
+  }
+
+}
@@ -1,15 +1,23 @@
 package pdp.xacml;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.openaz.xacml.pdp.policy.Policy;
 import org.junit.Test;
 import org.springframework.core.io.ClassPathResource;
+import pdp.domain.PdpAttribute;
 import pdp.domain.PdpPolicy;
+import pdp.domain.PdpPolicyDefinition;
 
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 
+import static java.util.Collections.singleton;
 import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public class PdpPolicyDefinitionParserTest {
@@ -31,6 +39,47 @@ public class PdpPolicyDefinitionParserTest {
     });
   }
 
+  @Test
+  public void testServiceProviderIds() throws Exception {
+    String xml = IOUtils.toString(new ClassPathResource("xacml/test-policies/OpenConext.pdp.test.deny.Policy.xml").getInputStream());
+    assertEquals(singleton("umcn_sp"), subject.serviceProviderIds(subject.parsePolicy(xml)));
+  }
+
+  @Test
+  public void testAttributeIds() throws Exception {
+    String xml = IOUtils.toString(new ClassPathResource("xacml/test-policies/OpenConext.pdp.test.teams.Policy.xml").getInputStream());
+    assertEquals(new HashSet<>(Arrays.asList("SPentityID", "urn:collab:group:surfteams.nl")), subject.attributeIds(subject.parsePolicy(xml)));
+  }
+
+  @Test
+  public void testTemplateDefinition() throws Exception {
+    PdpPolicyDefinition definition = new PdpPolicyDefinition();
+    definition.setName("Template");
+    definition.setDescription("Template policy");
+    definition.setServiceProviderId("http://mock-sp");
+    definition.setIdentityProviderIds(Arrays.asList("http://mock-idp"));
+    definition.setAttributes(Arrays.asList(new PdpAttribute("urn:mace:dir:attribute-def:eduPersonAffiliation", "student")));
+    definition.setDenyAdvice("Not allowed");
+    definition.setDenyAdviceNl("Niet toegestaan");
+    String xml = new PolicyTemplateEngine().createPolicyXml(definition);
+
+    Policy policy = subject.parsePolicy(xml);
+    PdpPolicyDefinition templateDefinition = subject.templateDefinition(policy).get();
+    assertEquals("http://mock-sp", templateDefinition.getServiceProviderId());
+    assertEquals(definition.getIdentityProviderIds(), templateDefinition.getIdentityProviderIds());
+    assertEquals(definition.getAttributes(), templateDefinition.getAttributes());
+    assertTrue(subject.isRegularExpressionMatch(policy));
+
+    //a previous version of the template
+    Policy previousTemplatePolicy = subject.parsePolicy(
+        IOUtils.toString(new ClassPathResource("xacml/test-policies/OpenConext.pdp.test.deny.Policy.xml").getInputStream()));
+    assertTrue(subject.templateDefinition(previousTemplatePolicy).get().isDenyRule());
+    assertFalse(subject.isRegularExpressionMatch(previousTemplatePolicy));
+
+    String denyOverrides = xml.replace("rule-combining-algorithm:first-applicable", "rule-combining-algorithm:deny-overrides");
+    assertFalse(subject.templateDefinition(subject.parsePolicy(denyOverrides)).isPresent());
+  }
+
   private PdpPolicy getPolicy(String name) {
     PdpPolicy policy = new PdpPolicy();
     //called form lambda
@@ -0,0 +1,115 @@
+package pdp.xacml;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PipLookupScopeTest {
+
+  private AtomicInteger lookups = new AtomicInteger();
+
+  private Function<String, List<String>> pip = userUrn -> {
+    lookups.incrementAndGet();
+    return Collections.singletonList(userUrn + "_group");
+  };
+
+  @Test
+  public void testLookupsAreSharedWithinScope() throws Exception {
+    try (PipLookupScope scope = PipLookupScope.open()) {
+      PipLookupScope.lookup("teams_pip", "urn1", pip);
+      PipLookupScope.lookup("teams_pip", "urn1", pip);
+      PipLookupScope.lookup("teams_pip", "urn2", pip);
+      PipLookupScope.lookup("sab_pip", "urn1", pip);
+    }
+    assertEquals(3, lookups.get());
+  }
+
+  @Test
+  public void testNestedScopeSharesLookups() throws Exception {
+    try (PipLookupScope scope = PipLookupScope.open()) {
+      try (PipLookupScope nestedScope = PipLookupScope.open()) {
+        PipLookupScope.lookup("teams_pip", "urn1", pip);
+        assertTrue(nestedScope.isPipConsulted());
+      }
+      try (PipLookupScope nestedScope = PipLookupScope.open()) {
+        assertFalse(nestedScope.isPipConsulted());
+        PipLookupScope.lookup("teams_pip", "urn1", pip);
+        assertTrue(nestedScope.isPipConsulted());
+      }
+      PipLookupScope.lookup("teams_pip", "urn1", pip);
+    }
+    assertEquals(1, lookups.get());
+  }
+
+  @Test
+  public void testPipConsulted() throws Exception {
+    try (PipLookupScope scope = PipLookupScope.open()) {
+      assertFalse(scope.isPipConsulted());
+      PipLookupScope.lookup("teams_pip", "urn1", pip);
+      assertTrue(scope.isPipConsulted());
+    }
+  }
+
+  @Test
+  public void testPrefetch() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try (PipLookupScope scope = PipLookupScope.open()) {
+      PipLookupScope.prefetch("teams_pip", "urn1", userUrn -> {
+        started.countDown();
+        return pip.apply(userUrn);
+      }, executor);
+      assertTrue(started.await(5, TimeUnit.SECONDS));
+      assertFalse(scope.isPipConsulted());
+
+      assertEquals(Collections.singletonList("urn1_group"), PipLookupScope.lookup("teams_pip", "urn1", pip));
+      PipLookupScope.lookup("teams_pip", "urn1", pip);
+      assertTrue(scope.isPipConsulted());
+    } finally {
+      executor.shutdown();
+    }
+    assertEquals(1, lookups.get());
+  }
+
+  @Test
+  public void testPrefetchRejected() throws Exception {
+    try (PipLookupScope scope = PipLookupScope.open()) {
+      PipLookupScope.prefetch("teams_pip", "urn1", pip, runnable -> {
+        throw new RejectedExecutionException();
+      });
+      //the lookup runs the prefetch itself
+      assertEquals(Collections.singletonList("urn1_group"), PipLookupScope.lookup("teams_pip", "urn1", pip));
+    }
+    assertEquals(1, lookups.get());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testPrefetchFailed() throws Exception {
+    try (PipLookupScope scope = PipLookupScope.open()) {
+      PipLookupScope.prefetch("teams_pip", "urn1", userUrn -> {
+        throw new IllegalStateException();
+      }, Runnable::run);
+      PipLookupScope.lookup("teams_pip", "urn1", pip);
+    }
+  }
+
+  @Test
+  public void testLookupsWithoutScope() throws Exception {
+    PipLookupScope.lookup("teams_pip", "urn1", pip);
+    PipLookupScope.lookup("teams_pip", "urn1", pip);
+    assertEquals(2, lookups.get());
+  }
+
+}
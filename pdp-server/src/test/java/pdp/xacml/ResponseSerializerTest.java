@@ -0,0 +1,57 @@
+package pdp.xacml;
+
+import org.apache.openaz.xacml.api.Decision;
+import org.apache.openaz.xacml.api.Response;
+import org.apache.openaz.xacml.std.IdentifierImpl;
+import org.apache.openaz.xacml.std.StdMutableResponse;
+import org.apache.openaz.xacml.std.StdMutableResult;
+import org.apache.openaz.xacml.std.StdStatus;
+import org.apache.openaz.xacml.std.json.JSONResponse;
+import org.junit.Test;
+import pdp.domain.PdpAttribute;
+import pdp.domain.PdpPolicyDefinition;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class ResponseSerializerTest {
+
+  private static final String POLICY_ID = "urn:surfconext:xacml:policy:id:test";
+
+  @Test
+  public void testCompactJson() throws Exception {
+    String json = new String(ResponseSerializer.compactJson(denyResponse()), StandardCharsets.UTF_8);
+
+    assertEquals("{\"Response\":[{\"Decision\":\"Deny\",\"PolicyIds\":[\"" + POLICY_ID + "\"],\"Advice\":[{\"Id\":\"" +
+        POLICY_ID + "\",\"Attributes\":{\"DenyMessage:en\":\"Not allowed\",\"DenyMessage:nl\":\"Niet toegestaan\"}}]}]}", json);
+  }
+
+  @Test
+  public void testSerializedResponse() throws Exception {
+    Response response = denyResponse();
+    SerializedResponse serializedResponse = new SerializedResponse(response.getResults().iterator().next());
+
+    assertArrayEquals(JSONResponse.toString(response, false).getBytes(StandardCharsets.UTF_8), ResponseSerializer.json(serializedResponse, false));
+    assertSame(serializedResponse.getJson(), ResponseSerializer.json(serializedResponse, false));
+    assertSame(serializedResponse.getCompactJson(), ResponseSerializer.compactJson(serializedResponse));
+  }
+
+  private Response denyResponse() {
+    PdpPolicyDefinition definition = new PdpPolicyDefinition();
+    definition.setServiceProviderId("http://mock-sp");
+    definition.setAttributes(Collections.singletonList(new PdpAttribute("urn:mace:dir:attribute-def:eduPersonAffiliation", "student")));
+    definition.setDenyAdvice("Not allowed");
+    definition.setDenyAdviceNl("Niet toegestaan");
+    CompiledPolicy policy = CompiledPolicy.compile(new IdentifierImpl(POLICY_ID), null, definition, true,
+        Collections.emptySet(), new AttributeDictionary()).get();
+
+    StdMutableResult result = new StdMutableResult(Decision.DENY, StdStatus.STATUS_OK);
+    result.addAdvice(policy.getDenyAdvice());
+    result.addPolicyIdentifier(policy.getPolicyReference());
+    return new StdMutableResponse(result);
+  }
+}